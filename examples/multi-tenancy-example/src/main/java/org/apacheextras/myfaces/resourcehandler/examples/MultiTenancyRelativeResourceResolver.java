@@ -47,10 +47,11 @@ public class MultiTenancyRelativeResourceResolver extends RelativeResourceResolv
     {
         RelativeResource relativeResource = super.createRelativeResource(resourceId, contentType, config);
 
-        if (resourceId instanceof MultiTenancyResourceId)
+        if (resourceId.getTenantId() != null)
         {
             relativeResource = new MultiTenancyRelativeResource(
-                    ((MultiTenancyResourceId) resourceId).getClientLibraryName(), relativeResource);
+                    calculateClientLibraryName(resourceId.getTenantId(), resourceId.getLibraryName()),
+                    relativeResource);
         }
 
         return relativeResource;
@@ -59,16 +60,7 @@ public class MultiTenancyRelativeResourceResolver extends RelativeResourceResolv
     @Override
     public ResourceId calculateRelativeId(String path, RelativeResourceHandlerConfig config)
     {
-        ResourceId resourceId = super.calculateRelativeId(path, config);
-        if (isClientSpecificResource(resourceId))
-        {
-            resourceId = new MultiTenancyResourceId(
-                    resourceId.getResourceName(),
-                    resourceId.getLibraryName(),
-                    resourceId.getRequestedLocalePrefix(),
-                    calculateClientLibraryName(resourceId.getLibraryName()));
-        }
-        return resourceId;
+        return addTenantId(super.calculateRelativeId(path, config));
     }
 
     @Override
@@ -76,14 +68,19 @@ public class MultiTenancyRelativeResourceResolver extends RelativeResourceResolv
                                           String requestedLocalePrefix,
                                           RelativeResourceHandlerConfig config)
     {
-        ResourceId resourceId = super.calculateRelativeId(resourceName, libraryName, requestedLocalePrefix, config);
-        if (isClientSpecificResource(resourceId))
+        return addTenantId(super.calculateRelativeId(resourceName, libraryName, requestedLocalePrefix, config));
+    }
+
+    private ResourceId addTenantId(ResourceId resourceId)
+    {
+        if (resourceId != null && isClientSpecificResource(resourceId))
         {
-            resourceId = new MultiTenancyResourceId(
+            // the tenant id gives each client its own partition in the RelativeResourceCache
+            resourceId = new ResourceId(
                     resourceId.getResourceName(),
                     resourceId.getLibraryName(),
                     resourceId.getRequestedLocalePrefix(),
-                    calculateClientLibraryName(resourceId.getLibraryName()));
+                    getTenantId());
         }
         return resourceId;
     }
@@ -91,13 +88,14 @@ public class MultiTenancyRelativeResourceResolver extends RelativeResourceResolv
     private boolean isClientSpecificResource(ResourceId resource)
     {
         // It also makes sense to only wrap certain resources, as clients may share some resources.
-        // In our example, each client has different css files, but shares the same images.
+        // In our example, each client has different css files, but shares the same images
+        // (which are thus cached only once, in the shared partition of the RelativeResourceCache).
         return !"images".equals(resource.getLibraryName());
     }
 
-    private String calculateClientLibraryName(String wrappedLibraryName)
+    private String calculateClientLibraryName(String tenantId, String wrappedLibraryName)
     {
-        String libraryName = getClientIdentifierLibraryPrefix();
+        String libraryName = tenantId;
 
         if (wrappedLibraryName != null)
         {
@@ -107,7 +105,7 @@ public class MultiTenancyRelativeResourceResolver extends RelativeResourceResolv
         return libraryName;
     }
 
-    private String getClientIdentifierLibraryPrefix()
+    private String getTenantId()
     {
         if ("localhost".equals(getClientIdentifier()))
         {
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2011-2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler;
+
+/**
+ * DTO representing a satisfiable byte range of an HTTP Range request (both positions are inclusive).
+ *
+ * @author Jakob Korherr
+ */
+public class ByteRange
+{
+
+    private final int first;
+    private final int last;
+
+    public ByteRange(int first, int last)
+    {
+        this.first = first;
+        this.last = last;
+    }
+
+    public int getFirst()
+    {
+        return first;
+    }
+
+    public int getLast()
+    {
+        return last;
+    }
+
+    public int getLength()
+    {
+        return last - first + 1;
+    }
+
+    /**
+     * Returns the value of the Content-Range header field for this range.
+     *
+     * @param completeLength
+     * @return
+     */
+    public String toContentRange(int completeLength)
+    {
+        return "bytes " + first + "-" + last + "/" + completeLength;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof ByteRange))
+        {
+            return false;
+        }
+
+        ByteRange that = (ByteRange) o;
+
+        return first == that.first && last == that.last;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * first + last;
+    }
+
+    @Override
+    public String toString()
+    {
+        return first + "-" + last;
+    }
+
+}
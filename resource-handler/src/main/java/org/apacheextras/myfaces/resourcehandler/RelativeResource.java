@@ -22,6 +22,8 @@ package org.apacheextras.myfaces.resourcehandler;
 
 import javax.faces.application.Resource;
 import javax.faces.context.FacesContext;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Resource specification for RelativeResourceHandler.
@@ -45,4 +47,38 @@ public abstract class RelativeResource extends Resource
 
     public abstract String getRequestedLocalePrefix();
 
+    /**
+     * Discards the cached artifacts (e.g. processed and compressed versions) of this resource.
+     * Called when the resource is invalidated in the RelativeResourceCache (e.g. because its source has changed).
+     */
+    public void invalidate()
+    {
+        // no artifacts by default
+    }
+
+    /**
+     * Returns the content, which getInputStream() returns for the current request, as read-only ByteBuffer,
+     * if it is available without copying it to the heap (e.g. an artifact kept in memory or a memory-mapped
+     * artifact file). Otherwise null is returned and the content must be read from getInputStream().
+     *
+     * Subclasses, which change the content of getInputStream(), must override this method as well.
+     *
+     * @return
+     * @throws IOException
+     */
+    public ByteBuffer getContentBuffer() throws IOException
+    {
+        return null;
+    }
+
+    /**
+     * Returns the id of the tenant this resource belongs to (see ResourceId), or null if it is shared by all tenants.
+     *
+     * @return
+     */
+    public String getTenantId()
+    {
+        return null;
+    }
+
 }
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2011-2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler;
+
+import org.apacheextras.myfaces.resourcehandler.config.Bundle;
+import org.apacheextras.myfaces.resourcehandler.config.Library;
+
+import javax.faces.context.FacesContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * RelativeResource implementation for a bundle, which is a virtual resource consisting of the concatenated
+ * content of several resources of the same library.
+ *
+ * The concatenated content is treated like the content of a normal resource file, thus el-evaluation and
+ * compression are applied to the whole bundle. Relative url() and @import references in css resources are
+ * rewritten, so that they stay valid relative to the location of the bundle.
+ *
+ * @author Jakob Korherr
+ */
+public class RelativeResourceBundle extends RelativeResourceImpl
+{
+
+    /**
+     * Matches url(...) references (group 2) and @import "..." references (group 4) in css files.
+     */
+    private static final Pattern CSS_REFERENCE_PATTERN = Pattern.compile(
+            "url\\(\\s*(['\"]?)([^'\")]+)\\1\\s*\\)|@import\\s+(['\"])([^'\"]+)\\3");
+
+    /**
+     * Matches complete @import rules (incl. media queries) in css files.
+     */
+    private static final Pattern CSS_IMPORT_RULE_PATTERN = Pattern.compile(
+            "@import\\s+(?:url\\([^)]*\\)|\"[^\"]*\"|'[^']*')[^;]*;\\s*");
+
+    /**
+     * Matches a @charset rule at the beginning of a css file.
+     */
+    private static final Pattern CSS_CHARSET_RULE_PATTERN = Pattern.compile("^@charset\\s+\"[^\"]*\";\\s*");
+
+    /**
+     * Key in the member cache for resources without a locale prefix.
+     */
+    private static final String NO_LOCALE_PREFIX_KEY = "";
+
+    private final Bundle bundle;
+    private final Library library;
+    private final String urlVersion;
+
+    /**
+     * The resources of the bundle per locale prefix.
+     */
+    private final ConcurrentMap<String, List<RelativeResourceImpl>> members
+            = new ConcurrentHashMap<String, List<RelativeResourceImpl>>();
+
+    public RelativeResourceBundle(Bundle bundle, Library library, String contentType,
+                                  String requestedLocalePrefix, boolean gzipEnabled,
+                                  boolean localeSupportEnabled, String urlVersion)
+    {
+        super(bundle.getName(), library, contentType, requestedLocalePrefix, gzipEnabled,
+                localeSupportEnabled, urlVersion);
+
+        this.bundle = bundle;
+        this.library = library;
+        this.urlVersion = urlVersion;
+    }
+
+    public Bundle getBundle()
+    {
+        return bundle;
+    }
+
+    /**
+     * A bundle exists if all of its resources exist (each one with or without the locale prefix).
+     *
+     * @return
+     */
+    @Override
+    public boolean resourceExists()
+    {
+        for (RelativeResourceImpl member : getMembers())
+        {
+            if (!member.resourceExists())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the URL of the first resource of the bundle.
+     *
+     * @return
+     */
+    @Override
+    public URL getURL()
+    {
+        return getMembers().get(0).getURL();
+    }
+
+    /**
+     * Returns the newest last modified timestamp of all resources of the bundle.
+     *
+     * @return
+     */
+    @Override
+    protected long getLastModified()
+    {
+        long lastModified = -1L;
+        for (RelativeResourceImpl member : getMembers())
+        {
+            long memberLastModified = member.getLastModified();
+            if (memberLastModified < 0)
+            {
+                return -1L;  // unknown
+            }
+            lastModified = Math.max(lastModified, memberLastModified);
+        }
+        return lastModified;
+    }
+
+    @Override
+    protected InputStream getPureInputStream(FacesContext facesContext) throws IOException
+    {
+        boolean css = getResourceName().endsWith(".css");
+        boolean js = getResourceName().endsWith(".js");
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (RelativeResourceImpl member : getMembers())
+        {
+            InputStream memberInputStream = member.getPureInputStream(facesContext);
+            if (memberInputStream == null)
+            {
+                throw new FileNotFoundException("Resource " + member.getResourceName()
+                        + " of bundle " + getResourceName() + " does not exist");
+            }
+
+            byte[] memberContent;
+            try
+            {
+                memberContent = ResourceUtils.readBytes(memberInputStream);
+            }
+            finally
+            {
+                memberInputStream.close();
+            }
+
+            if (css)
+            {
+                String rewritten = rewriteCssReferences(
+                        new String(memberContent, ResourceUtils.BYTE_PRESERVING_CHARSET),
+                        member.getResourceName(), getResourceName());
+                content.write(rewritten.getBytes(ResourceUtils.BYTE_PRESERVING_CHARSET));
+            }
+            else
+            {
+                content.write(memberContent);
+            }
+
+            // separate the resources (a ';' protects against js files that do not end with one)
+            content.write(js ? ';' : '\n');
+            if (js)
+            {
+                content.write('\n');
+            }
+        }
+
+        if (css)
+        {
+            // @import rules are only valid before all other rules, but the members may contain them as well
+            return new ByteArrayInputStream(hoistCssImportRules(content.toString(ResourceUtils.BYTE_PRESERVING_CHARSET))
+                    .getBytes(ResourceUtils.BYTE_PRESERVING_CHARSET));
+        }
+        return new ByteArrayInputStream(content.toByteArray());
+    }
+
+    /**
+     * Returns the resources of this bundle for the current locale prefix.
+     *
+     * @return
+     */
+    private List<RelativeResourceImpl> getMembers()
+    {
+        String requestedLocalePrefix = getRequestedLocalePrefix();
+        String key = (requestedLocalePrefix == null ? NO_LOCALE_PREFIX_KEY : requestedLocalePrefix);
+
+        List<RelativeResourceImpl> localeMembers = members.get(key);
+        if (localeMembers == null)
+        {
+            List<RelativeResourceImpl> newMembers = new ArrayList<RelativeResourceImpl>();
+            for (String resourceName : bundle.getResourceNames())
+            {
+                // the locale fallback (de_AT --> de --> no prefix) is resolved per member like in initialize(),
+                // thus a bundle may consist of localized and unlocalized resources
+                String memberLocalePrefix = requestedLocalePrefix;
+                RelativeResourceImpl member = createMember(resourceName, memberLocalePrefix);
+                while (memberLocalePrefix != null && !member.resourceExists())
+                {
+                    int underscoreIndex = memberLocalePrefix.indexOf('_');
+                    memberLocalePrefix = (underscoreIndex != -1 ? memberLocalePrefix.substring(0, underscoreIndex)
+                            : null);
+                    member = createMember(resourceName, memberLocalePrefix);
+                }
+                newMembers.add(member);
+            }
+
+            localeMembers = Collections.unmodifiableList(newMembers);
+            List<RelativeResourceImpl> existing = members.putIfAbsent(key, localeMembers);
+            if (existing != null)
+            {
+                localeMembers = existing;
+            }
+        }
+
+        return localeMembers;
+    }
+
+    private RelativeResourceImpl createMember(String resourceName, String localePrefix)
+    {
+        // the members are never initialized, thus their locale prefix stays fixed
+        RelativeResourceImpl member = new RelativeResourceImpl(resourceName, library, null,
+                localePrefix, false, false, urlVersion);
+        member.setLibraryName(getLibraryName());  // support wrappers that change the library name
+        return member;
+    }
+
+    /**
+     * Rewrites relative url() and @import references of the given css content, which are relative to
+     * the resource with the given name, to be relative to the bundle with the given name.
+     *
+     * @param css
+     * @param resourceName name of the resource in the library (e.g. widgets/tree.css)
+     * @param bundleName name of the bundle in the library (e.g. all.css)
+     * @return
+     */
+    static String rewriteCssReferences(String css, String resourceName, String bundleName)
+    {
+        String resourceDir = getDirectory(resourceName);
+        String bundleDir = getDirectory(bundleName);
+        if (resourceDir.equals(bundleDir))
+        {
+            return css;  // same directory, nothing to do
+        }
+
+        Matcher matcher = CSS_REFERENCE_PATTERN.matcher(css);
+        StringBuffer result = new StringBuffer(css.length());
+        while (matcher.find())
+        {
+            boolean url = (matcher.group(2) != null);
+            String reference = (url ? matcher.group(2) : matcher.group(4)).trim();
+            String quote = (url ? matcher.group(1) : matcher.group(3));
+
+            String rewritten = rewriteReference(reference, resourceDir, bundleDir);
+            String replacement = (url ? "url(" + quote + rewritten + quote + ")"
+                                      : "@import " + quote + rewritten + quote);
+            matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(result);
+
+        return result.toString();
+    }
+
+    /**
+     * Moves all @import rules of the given css content to its beginning (after a leading @charset rule), keeping
+     * their order. Otherwise browsers would ignore the @import rules of all but the first member of a bundle.
+     *
+     * @param css
+     * @return
+     */
+    static String hoistCssImportRules(String css)
+    {
+        Matcher matcher = CSS_IMPORT_RULE_PATTERN.matcher(css);
+        StringBuilder imports = new StringBuilder();
+        StringBuffer rules = new StringBuffer(css.length());
+        while (matcher.find())
+        {
+            imports.append(matcher.group().trim()).append('\n');
+            matcher.appendReplacement(rules, "");
+        }
+        if (imports.length() == 0)
+        {
+            return css;
+        }
+        matcher.appendTail(rules);
+
+        Matcher charset = CSS_CHARSET_RULE_PATTERN.matcher(rules);
+        int insertIndex = (charset.find() ? charset.end() : 0);
+        return rules.insert(insertIndex, imports).toString();
+    }
+
+    private static String rewriteReference(String reference, String resourceDir, String bundleDir)
+    {
+        if (reference.length() == 0 || reference.startsWith("/") || reference.startsWith("#")
+                || hasScheme(reference))
+        {
+            return reference;  // not relative (absolute path, fragment, data:, http:, ...)
+        }
+
+        // keep query string and fragment as they are
+        int suffixIndex = indexOfAny(reference, '?', '#');
+        String path = (suffixIndex == -1 ? reference : reference.substring(0, suffixIndex));
+        String suffix = (suffixIndex == -1 ? "" : reference.substring(suffixIndex));
+
+        // path relative to the library root
+        List<String> target = normalize(resourceDir + path);
+        List<String> base = normalize(bundleDir);
+
+        // remove common leading directories (only possible if the target does not leave the library)
+        int common = 0;
+        if (target.isEmpty() || !"..".equals(target.get(0)))
+        {
+            while (common < base.size() && common < target.size() - 1
+                    && base.get(common).equals(target.get(common)))
+            {
+                common++;
+            }
+        }
+
+        StringBuilder rewritten = new StringBuilder();
+        for (int i = common; i < base.size(); i++)
+        {
+            rewritten.append("../");
+        }
+        for (int i = common; i < target.size(); i++)
+        {
+            rewritten.append(target.get(i));
+            if (i < target.size() - 1)
+            {
+                rewritten.append('/');
+            }
+        }
+        rewritten.append(suffix);
+
+        return rewritten.toString();
+    }
+
+    /**
+     * Splits the given path into its segments, resolving "." and ".." segments.
+     * Leading ".." segments that cannot be resolved are kept.
+     *
+     * @param path
+     * @return
+     */
+    private static List<String> normalize(String path)
+    {
+        LinkedList<String> segments = new LinkedList<String>();
+        for (String segment : path.split("/"))
+        {
+            if (segment.length() == 0 || ".".equals(segment))
+            {
+                continue;
+            }
+            if ("..".equals(segment) && !segments.isEmpty() && !"..".equals(segments.getLast()))
+            {
+                segments.removeLast();
+            }
+            else
+            {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+
+    private static String getDirectory(String resourceName)
+    {
+        int slashIndex = resourceName.lastIndexOf('/');
+        return (slashIndex == -1 ? "" : resourceName.substring(0, slashIndex + 1));
+    }
+
+    private static boolean hasScheme(String reference)
+    {
+        int colonIndex = reference.indexOf(':');
+        int slashIndex = reference.indexOf('/');
+        return colonIndex != -1 && (slashIndex == -1 || colonIndex < slashIndex);
+    }
+
+    private static int indexOfAny(String s, char c1, char c2)
+    {
+        int index1 = s.indexOf(c1);
+        int index2 = s.indexOf(c2);
+        if (index1 == -1)
+        {
+            return index2;
+        }
+        if (index2 == -1)
+        {
+            return index1;
+        }
+        return Math.min(index1, index2);
+    }
+
+}
@@ -20,23 +20,48 @@
  */
 package org.apacheextras.myfaces.resourcehandler;
 
+import org.apacheextras.myfaces.resourcehandler.async.ByteBufferWriteListener;
+import org.apacheextras.myfaces.resourcehandler.cache.ArtifactCreationScheduler;
+import org.apacheextras.myfaces.resourcehandler.cache.DevelopmentResourceWatcher;
+import org.apacheextras.myfaces.resourcehandler.cache.DiskArtifactCache;
+import org.apacheextras.myfaces.resourcehandler.cache.InvalidationFilter;
 import org.apacheextras.myfaces.resourcehandler.cache.RelativeResourceCache;
+import org.apacheextras.myfaces.resourcehandler.config.ConfigSnapshot;
 import org.apacheextras.myfaces.resourcehandler.config.DefaultRelativeResourceHandlerConfigProvider;
 import org.apacheextras.myfaces.resourcehandler.config.RelativeResourceHandlerConfig;
+import org.apacheextras.myfaces.resourcehandler.dependency.ResourceDependencyGraph;
+import org.apacheextras.myfaces.resourcehandler.preload.PreloadRegistry;
 import org.apacheextras.myfaces.resourcehandler.resolver.DefaultRelativeResourceResolver;
 import org.apacheextras.myfaces.resourcehandler.resolver.RelativeResourceResolver;
 import org.apacheextras.myfaces.resourcehandler.spi.RelativeResourceHandlerConfigProvider;
 import org.apacheextras.myfaces.resourcehandler.spi.RelativeResourceResolverProvider;
 
 import javax.faces.FacesException;
+import javax.faces.application.ProjectStage;
 import javax.faces.application.Resource;
 import javax.faces.application.ResourceHandler;
 import javax.faces.application.ResourceHandlerWrapper;
+import javax.faces.context.ExternalContext;
 import javax.faces.context.FacesContext;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Logger;
 
 /**
@@ -46,6 +71,14 @@ import java.util.logging.Logger;
  *   <li>caching resources in the client (disabled if ProjectStage == Development)</li>
  *   <li>GZIP compression and local cache in tmp dir (disabled if ProjectStage == Development)</li>
  *   <li>i18n (supporting country code and language).</li>
+ *   <li>a processing chain per library (e.g. minification), extensible via the ResourceProcessor SPI.</li>
+ *   <li>HTTP Range requests for relative resources.</li>
+ *   <li>optional non-blocking serving via Servlet 3.1 async I/O (see {@link #ASYNC_SERVING_ENABLED_PARAM}).</li>
+ *   <li>invalidation of changed resource files in ProjectStage Development
+ *       (see {@link #DEVELOPMENT_WATCHER_ENABLED_PARAM}).</li>
+ *   <li>optional Link preload headers for the resources referenced by a view (see {@link #PRELOAD_ENABLED_PARAM}).</li>
+ *   <li>initialization of the images, fonts and imports of a stylesheet together with the stylesheet
+ *       (see {@link ResourceDependencyGraph}).</li>
  * </ul>
  *
  * The i18n mechanism looks up the resource in the following order (e.g. current Locale is "de_AT"):
@@ -66,6 +99,11 @@ import java.util.logging.Logger;
  * &lt;/relative-resources&gt;
  * </pre>
  *
+ * <p>Locking policy: resources are also served by virtual threads, thus the file I/O (e.g. creating artifacts) and
+ * waiting for other threads (e.g. for the initialization of a resource) never happen inside a monitor, which would
+ * pin the virtual thread to its carrier thread. ReentrantLocks and FutureTasks are used instead. A slot of the
+ * ArtifactCreationScheduler is always acquired before the lock of a resource.</p>
+ *
  * <p>ATTENTION: This ResourceHandler only works with prefix mapping. Please make sure your application
  * uses prefix mapping ONLY (like e.g. /faces or /jsf) or at least provides the prefix mapping "/faces"
  * for the FacesServlet.</p>
@@ -103,9 +141,21 @@ public class RelativeResourceHandler extends ResourceHandlerWrapper
      */
     public static final String CONFIG_FILE = "META-INF/relative-resources.xml";
 
+    /**
+     * Serialized snapshot of the config, which is used instead of parsing the config files if it is up to date
+     * (see {@link org.apacheextras.myfaces.resourcehandler.config.ConfigSnapshot}).
+     */
+    public static final String CONFIG_SNAPSHOT_FILE = "META-INF/relative-resources.ser";
+
     public static final String REQUESTED_LOCALE_PREFIX_CACHE
             = "org.apacheextras.myfaces.resourcehandler.REQUESTED_LOCALE_PREFIX_CACHE";
 
+    /**
+     * ApplicationMap key of the RelativeResourceHandler of the current application (e.g. for the
+     * {@link org.apacheextras.myfaces.resourcehandler.admin.CacheInvalidationServlet}).
+     */
+    public static final String APPLICATION_MAP_KEY = RelativeResourceHandler.class.getName();
+
     /**
      * Flag in FacesContext attribute map that indicates if we're currently handling a resource request.
      */
@@ -130,20 +180,151 @@ public class RelativeResourceHandler extends ResourceHandlerWrapper
      */
     public static final int DEFAULT_MAX_CACHE_SIZE = 1000;
 
+    /**
+     * web.xml config parameter for the max cache size of each tenant in
+     * {@link org.apacheextras.myfaces.resourcehandler.cache.RelativeResourceCache} (see
+     * {@link ResourceId#getTenantId()}). Default is a tenth of the value of {@link #MAX_CACHE_SIZE_PARAM}.
+     * All tenant partitions together are bounded by {@link #MAX_CACHE_SIZE_PARAM} (the least recently active
+     * tenants are dropped), thus this parameter also determines how many tenants are cached at the same time.
+     */
+    public static final String TENANT_MAX_CACHE_SIZE_PARAM
+             = "org.apacheextras.myfaces.resourcehandler.TENANT_MAX_CACHE_SIZE";
+
+    /**
+     * web.xml config parameter for the directory of the disk cache for processed and compressed resources,
+     * e.g. a directory on a fast local disk or tmpfs. The directory must not be shared with other applications.
+     * Default is a sub directory of the ServletContext tmp dir.
+     */
+    public static final String DISK_CACHE_DIR_PARAM
+            = "org.apacheextras.myfaces.resourcehandler.DISK_CACHE_DIR";
+
+    /**
+     * web.xml config parameter for the max size of the disk cache in bytes. If it is exceeded, the cached versions
+     * of the least recently accessed resources are deleted. Default is unlimited.
+     */
+    public static final String DISK_CACHE_MAX_SIZE_PARAM
+            = "org.apacheextras.myfaces.resourcehandler.DISK_CACHE_MAX_SIZE";
+
+    /**
+     * Default value for config parameter {@link RelativeResourceHandler#DISK_CACHE_MAX_SIZE_PARAM} (unlimited).
+     */
+    public static final long DEFAULT_DISK_CACHE_MAX_SIZE = -1L;
+
+    /**
+     * web.xml config parameter for the max size in bytes of the processed content of a resource, up to which its
+     * processed and compressed versions are kept in memory instead of the disk cache. Default is 0 (disabled).
+     */
+    public static final String IN_MEMORY_ARTIFACT_MAX_SIZE_PARAM
+            = "org.apacheextras.myfaces.resourcehandler.IN_MEMORY_ARTIFACT_MAX_SIZE";
+
+    /**
+     * Default value for config parameter {@link RelativeResourceHandler#IN_MEMORY_ARTIFACT_MAX_SIZE_PARAM}.
+     */
+    public static final int DEFAULT_IN_MEMORY_ARTIFACT_MAX_SIZE = 0;
+
+    /**
+     * web.xml config parameter for the max number of artifacts (processed and compressed versions), which are created
+     * concurrently. Resources, which cannot get a slot, are served uncompressed until a slot is free.
+     * Default is the number of available processors.
+     */
+    public static final String MAX_CONCURRENT_ARTIFACT_CREATIONS_PARAM
+            = "org.apacheextras.myfaces.resourcehandler.MAX_CONCURRENT_ARTIFACT_CREATIONS";
+
+    /**
+     * web.xml config parameter for serving relative resources via Servlet 3.1 non-blocking I/O.
+     * Note that this also requires &lt;async-supported&gt;true&lt;/async-supported&gt; on the FacesServlet.
+     * Default is false.
+     */
+    public static final String ASYNC_SERVING_ENABLED_PARAM
+            = "org.apacheextras.myfaces.resourcehandler.ASYNC_SERVING_ENABLED";
+
+    /**
+     * web.xml config parameter for watching the resource directories in ProjectStage Development. If enabled,
+     * changed resources are invalidated immediately and unchanged resources are answered with 304 Not Modified.
+     * Default is true.
+     */
+    public static final String DEVELOPMENT_WATCHER_ENABLED_PARAM
+            = "org.apacheextras.myfaces.resourcehandler.DEVELOPMENT_WATCHER_ENABLED";
+
+    /**
+     * web.xml config parameter for announcing the relative resources referenced by a view via Link preload headers
+     * (see {@link org.apacheextras.myfaces.resourcehandler.preload.PreloadRegistry}). Default is false.
+     */
+    public static final String PRELOAD_ENABLED_PARAM
+            = "org.apacheextras.myfaces.resourcehandler.PRELOAD_ENABLED";
+
+    /**
+     * web.xml config parameter for sending the Link preload headers also as 103 Early Hints, if the container
+     * supports them. Only used if {@link #PRELOAD_ENABLED_PARAM} is true. Default is false.
+     */
+    public static final String EARLY_HINTS_ENABLED_PARAM
+            = "org.apacheextras.myfaces.resourcehandler.EARLY_HINTS_ENABLED";
+
+    /**
+     * HTTP header fields for byte range requests.
+     */
+    private static final String RANGE_HEADER = "Range";
+    private static final String IF_RANGE_HEADER = "If-Range";
+    private static final String CONTENT_RANGE_HEADER = "Content-Range";
+    private static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+
+    /**
+     * Boundary of multipart/byteranges responses.
+     */
+    private static final String MULTIPART_BOUNDARY = "RELATIVE_RESOURCE_HANDLER_BYTERANGES";
+
+    /**
+     * Request parameter used by JSF for the library name of a (non-relative) resource.
+     */
+    private static final String LIBRARY_NAME_REQUEST_PARAM = "ln";
+
     private ResourceHandler wrappedHandler;
     private RelativeResourceHandlerConfig config;
     private RelativeResourceResolver resourceResolver;
     private RelativeResourceCache relativeResourceCache;
+    private boolean asyncServingEnabled;
+    private Map<String, Object> applicationMap;
+
+    /**
+     * Initializations in flight per RelativeResource instance. Concurrent requests for the same resource wait for
+     * the initialization of the first request (see the locking policy in the class doc).
+     * The instances are cached per ResourceId, thus this deduplicates per ResourceId (including tenant and locale).
+     * Variants of different tenants or locales are initialized separately, because their content may differ,
+     * however variants with identical processed content share their artifacts (see DiskArtifactCache).
+     */
+    private final ConcurrentMap<RelativeResource, FutureTask<Void>> initializations
+            = new ConcurrentHashMap<RelativeResource, FutureTask<Void>>();
 
     public RelativeResourceHandler(ResourceHandler wrappedHandler) throws FacesException
     {
         FacesContext facesContext = FacesContext.getCurrentInstance();
 
+        // use the config snapshot created at build time, if it is up to date
+        ConfigSnapshot snapshot = ConfigSnapshot.load(ResourceUtils.getContextClassLoader());
+
         this.wrappedHandler = wrappedHandler;
-        this.config = getConfigFromProviderSpi();
-        this.resourceResolver = getRelativeResourceResolverFromSpi(facesContext);
+        this.config = getConfigFromProviderSpi(snapshot);
+
+        // the config is read on every request without a lock, thus it must not change from now on
+        this.config.freeze();
+        this.resourceResolver = getRelativeResourceResolverFromSpi(facesContext, snapshot);
         this.relativeResourceCache = new RelativeResourceCache(
-                ResourceUtils.getRelativeResourceMaxCacheSize(facesContext));
+                ResourceUtils.getRelativeResourceMaxCacheSize(facesContext),
+                ResourceUtils.getTenantMaxCacheSize(facesContext));
+        this.asyncServingEnabled = ResourceUtils.isAsyncServingEnabled(facesContext);
+        this.applicationMap = facesContext.getExternalContext().getApplicationMap();
+        this.applicationMap.put(APPLICATION_MAP_KEY, this);
+
+        if (ResourceUtils.isPreloadEnabled(facesContext))
+        {
+            PreloadRegistry.install(applicationMap, ResourceUtils.isEarlyHintsEnabled(facesContext));
+        }
+
+        if (facesContext.isProjectStage(ProjectStage.Development)
+                && ResourceUtils.isDevelopmentWatcherEnabled(facesContext))
+        {
+            DevelopmentResourceWatcher.start(facesContext, config, relativeResourceCache);
+        }
     }
 
     @Override
@@ -165,7 +346,7 @@ public class RelativeResourceHandler extends ResourceHandlerWrapper
     }
 
     @Override
-    public Resource createResource(String resourceName, String libraryName, final String contentType)
+    public Resource createResource(String resourceName, String libraryName, String contentType)
     {
         FacesContext facesContext = FacesContext.getCurrentInstance();
         final ResourceId resourceId;
@@ -195,50 +376,483 @@ public class RelativeResourceHandler extends ResourceHandlerWrapper
 
         if (resourceId != null)
         {
-            // create RelativeResource (either from cache or from resource resolver)
-            RelativeResource relativeResource = relativeResourceCache.get(resourceId, new Callable<RelativeResource>()
+            RelativeResource relativeResource = getRelativeResource(facesContext, resourceId, contentType);
+            if (relativeResource != null)
             {
-                public RelativeResource call() throws Exception
-                {
-                    // not found in cache, create instance
-                    return resourceResolver.createRelativeResource(resourceId, contentType, config);
-                }
-            });
+                return relativeResource;
+            }
+        }
 
-            if (relativeResource != null)
+        // use wrapped ResourceHandler (from MyFaces or Mojarra)
+        return super.createResource(resourceName, libraryName, contentType);
+    }
+
+    /**
+     * Returns the initialized RelativeResource with the given id (either from cache or from the resource resolver),
+     * or null if it does not exist.
+     *
+     * @param facesContext
+     * @param resourceId
+     * @param contentType
+     * @return
+     */
+    private RelativeResource getRelativeResource(FacesContext facesContext, final ResourceId resourceId,
+                                                 final String contentType)
+    {
+        // create RelativeResource (either from cache or from resource resolver)
+        RelativeResource relativeResource = relativeResourceCache.get(resourceId, new Callable<RelativeResource>()
+        {
+            public RelativeResource call() throws Exception
             {
-                if (!relativeResource.isInitialized())  // check if already initialized (fail fast w/o sync)
+                // not found in cache, create instance
+                return resourceResolver.createRelativeResource(resourceId, contentType, config);
+            }
+        });
+
+        if (relativeResource == null)
+        {
+            return null;
+        }
+
+        boolean initializedNow = false;
+        if (!relativeResource.isInitialized())  // check if already initialized (fail fast w/o waiting)
+        {
+            initializedNow = initialize(facesContext, relativeResource);
+        }
+
+        // use relative resource only if it really exists
+        if (!relativeResource.resourceExists())
+        {
+            return null;
+        }
+
+        if (initializedNow)
+        {
+            warmUpDependencies(facesContext, resourceId, relativeResource);
+        }
+        return relativeResource;
+    }
+
+    /**
+     * Initializes the given resource, unless another thread is already initializing it. In this case, the current
+     * thread waits until that initialization is done.
+     *
+     * @param facesContext
+     * @param relativeResource
+     * @return true if the resource has been initialized by the current thread
+     */
+    private boolean initialize(final FacesContext facesContext, final RelativeResource relativeResource)
+    {
+        FutureTask<Void> initialization = new FutureTask<Void>(new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                relativeResource.initialize(facesContext);
+                return null;
+            }
+        });
+
+        FutureTask<Void> inFlight = initializations.putIfAbsent(relativeResource, initialization);
+        if (inFlight == null)
+        {
+            inFlight = initialization;
+            try
+            {
+                if (relativeResource.isInitialized())
                 {
-                    synchronized (relativeResource)   // need to sync, as many threads may come here at the same time
-                    {
-                        if (!relativeResource.isInitialized())  // synced double check
-                        {
-                            // init resource synchronously
-                            relativeResource.initialize(facesContext);
-                        }
-                    }
+                    return false;  // the previous initialization finished in the meantime
                 }
 
-                // use relative resource only if it really exists
-                if (relativeResource.resourceExists())
+                // init resource synchronously (in the current thread)
+                initialization.run();
+            }
+            finally
+            {
+                initializations.remove(relativeResource, initialization);
+            }
+        }
+
+        try
+        {
+            inFlight.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new FacesException("Interrupted while waiting for the initialization of " +
+                    relativeResource.getResourceName(), e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error)
+            {
+                throw (Error) e.getCause();
+            }
+            throw new FacesException(e.getCause());
+        }
+
+        return inFlight == initialization;
+    }
+
+    /**
+     * Initializes the dependencies of the given resource (e.g. the images and fonts of a stylesheet, see
+     * {@link ResourceDependencyGraph}), thus they are available before the browser requests them.
+     * Stylesheets among them warm up their own dependencies in turn.
+     *
+     * The warm-up runs on the current request thread, thus it is skipped if the ArtifactCreationScheduler has no
+     * free slot (e.g. in the burst of requests after a deployment). The dependencies are initialized by their own
+     * requests then.
+     *
+     * @param facesContext
+     * @param resourceId
+     * @param relativeResource
+     */
+    private void warmUpDependencies(FacesContext facesContext, ResourceId resourceId,
+                                    RelativeResource relativeResource)
+    {
+        String libraryName = relativeResource.getLibraryName();
+        List<String> dependencies = ResourceDependencyGraph.getInstance(facesContext)
+                .getDependencies(libraryName, relativeResource.getResourceName());
+        if (dependencies.isEmpty())
+        {
+            return;
+        }
+
+        // the slot is reentrant, thus the dependencies are initialized in it
+        ArtifactCreationScheduler scheduler = ArtifactCreationScheduler.getInstance(facesContext);
+        if (!scheduler.tryAcquire())
+        {
+            return;
+        }
+        try
+        {
+            for (String dependency : dependencies)
+            {
+                ResourceId dependencyId = resourceResolver.calculateRelativeId(dependency, libraryName,
+                        resourceId.getRequestedLocalePrefix(), config);
+                if (dependencyId != null)
                 {
-                    return relativeResource;
+                    getRelativeResource(facesContext, dependencyId, null);
                 }
             }
         }
-
-        // use wrapped ResourceHandler (from MyFaces or Mojarra)
-        return super.createResource(resourceName, libraryName, contentType);
+        finally
+        {
+            scheduler.release();
+        }
     }
 
     @Override
     public void handleResourceRequest(FacesContext facesContext) throws IOException
     {
         facesContext.getAttributes().put(HANDLING_RESOURCE_REQUEST, Boolean.TRUE);
-        super.handleResourceRequest(facesContext);
+        if (!handleRelativeResourceRequest(facesContext))
+        {
+            super.handleResourceRequest(facesContext);
+        }
         facesContext.getAttributes().put(HANDLING_RESOURCE_REQUEST, Boolean.FALSE);
     }
 
+    /**
+     * Serves the requested resource directly, if it is a relative resource and the request needs
+     * features the wrapped ResourceHandler does not provide:
+     * <ul>
+     *   <li>HTTP Range requests (single and multiple byte ranges, incl. If-Range) of uncompressed responses</li>
+     *   <li>Servlet 3.1 non-blocking I/O, if enabled and supported by the container for the current request</li>
+     * </ul>
+     *
+     * @param facesContext
+     * @return true if the request has been handled, false if the wrapped ResourceHandler must handle it.
+     * @throws IOException
+     */
+    private boolean handleRelativeResourceRequest(FacesContext facesContext) throws IOException
+    {
+        ExternalContext externalContext = facesContext.getExternalContext();
+        if (!(externalContext.getRequest() instanceof HttpServletRequest)
+                || !(externalContext.getResponse() instanceof HttpServletResponse))
+        {
+            return false;  // e.g. portlet environment
+        }
+
+        HttpServletRequest request = (HttpServletRequest) externalContext.getRequest();
+        HttpServletResponse response = (HttpServletResponse) externalContext.getResponse();
+
+        // only use async serving if the container or FacesServlet mapping supports it
+        boolean serveAsync = asyncServingEnabled && request.isAsyncSupported();
+        String rangeHeader = request.getHeader(RANGE_HEADER);
+        if (!serveAsync && rangeHeader == null)
+        {
+            return false;  // nothing special, the wrapped ResourceHandler can serve it
+        }
+
+        String resourceName = getRequestedResourceName(externalContext);
+        if (resourceName == null)
+        {
+            return false;
+        }
+
+        Resource resource = createResource(resourceName);
+        if (!(resource instanceof RelativeResource))
+        {
+            return false;  // not a relative resource, let the wrapped ResourceHandler serve it
+        }
+
+        if (!resource.userAgentNeedsUpdate(facesContext))
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+
+        // read the (already el-evaluated and/or compressed) content while we still are on the request thread
+        ByteBuffer content = readContent(resource);
+        int completeLength = content.remaining();
+
+        String contentType = resource.getContentType();
+        if (contentType == null)
+        {
+            contentType = externalContext.getMimeType(resource.getResourceName());
+        }
+        if (contentType != null)
+        {
+            response.setContentType(contentType);
+        }
+        Map<String, String> responseHeaders = resource.getResponseHeaders();
+        for (Map.Entry<String, String> header : responseHeaders.entrySet())
+        {
+            response.setHeader(header.getKey(), header.getValue());
+        }
+
+        // handle byte ranges (the body consists of views of the content, it is never copied),
+        // a compressed response is always complete (see RelativeResourceImpl, no Accept-Ranges header)
+        ByteBuffer[] body = { content };
+        List<ByteRange> ranges = null;
+        if (rangeHeader != null && !responseHeaders.containsKey(CONTENT_ENCODING_HEADER)
+                && isIfRangeSatisfied(request.getHeader(IF_RANGE_HEADER), responseHeaders))
+        {
+            ranges = ResourceUtils.parseRangeHeader(rangeHeader, completeLength);
+        }
+        if (ranges != null)
+        {
+            if (ranges.isEmpty())
+            {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(CONTENT_RANGE_HEADER, "bytes */" + completeLength);
+                response.setContentLength(0);
+                return true;
+            }
+
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            if (ranges.size() == 1)
+            {
+                ByteRange range = ranges.get(0);
+                response.setHeader(CONTENT_RANGE_HEADER, range.toContentRange(completeLength));
+                body[0] = ResourceUtils.sliceRange(content, range);
+            }
+            else
+            {
+                response.setContentType("multipart/byteranges; boundary=" + MULTIPART_BOUNDARY);
+                body = ResourceUtils.createMultipartByteRanges(content, ranges, contentType, MULTIPART_BOUNDARY);
+            }
+        }
+        int contentLength = 0;
+        for (ByteBuffer part : body)
+        {
+            contentLength += part.remaining();
+        }
+        response.setContentLength(contentLength);
+
+        ServletOutputStream outputStream = response.getOutputStream();
+        if (serveAsync)
+        {
+            // write the content asynchronously, the WriteListener completes the AsyncContext
+            AsyncContext asyncContext = request.startAsync();
+            outputStream.setWriteListener(new ByteBufferWriteListener(asyncContext, outputStream, body));
+        }
+        else
+        {
+            // the content may be read-only or memory-mapped (no accessible array), the channel writes it in chunks
+            WritableByteChannel channel = Channels.newChannel(outputStream);
+            for (ByteBuffer part : body)
+            {
+                channel.write(part);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks the If-Range header field: the Range header must only be applied,
+     * if the representation has not changed since the date given in If-Range.
+     *
+     * @param ifRangeHeader
+     * @param responseHeaders
+     * @return
+     */
+    private boolean isIfRangeSatisfied(String ifRangeHeader, Map<String, String> responseHeaders)
+    {
+        if (ifRangeHeader == null)
+        {
+            return true;  // unconditional range request
+        }
+
+        // we do not send entity tags, so If-Range must contain the exact Last-Modified date
+        Long ifRange = ResourceUtils.parseDateHeader(ifRangeHeader);
+        String lastModifiedHeader = responseHeaders.get("Last-Modified");
+        if (ifRange == null || lastModifiedHeader == null)
+        {
+            return false;
+        }
+
+        return ifRange.equals(ResourceUtils.parseDateHeader(lastModifiedHeader));
+    }
+
+    /**
+     * Extracts the resource name from the request path (prefix mapping only), e.g. 1/de/library/style.css.
+     *
+     * @param externalContext
+     * @return the resource name or null, if the request cannot be a relative resource request.
+     */
+    private String getRequestedResourceName(ExternalContext externalContext)
+    {
+        if (externalContext.getRequestParameterMap().containsKey(LIBRARY_NAME_REQUEST_PARAM))
+        {
+            return null;  // relative resources never use the ln parameter
+        }
+
+        String pathInfo = externalContext.getRequestPathInfo();
+        String resourcePrefix = RESOURCE_IDENTIFIER + "/";
+        if (pathInfo == null || !pathInfo.startsWith(resourcePrefix))
+        {
+            return null;
+        }
+
+        return pathInfo.substring(resourcePrefix.length());
+    }
+
+    /**
+     * Returns the content of the given resource. The artifacts of relative resources are served without copying
+     * them (see {@link RelativeResource#getContentBuffer()}), any other content is read into the heap once.
+     *
+     * @param resource
+     * @return
+     * @throws IOException
+     */
+    private ByteBuffer readContent(Resource resource) throws IOException
+    {
+        if (resource instanceof RelativeResource)
+        {
+            ByteBuffer content = ((RelativeResource) resource).getContentBuffer();
+            if (content != null)
+            {
+                return content;
+            }
+        }
+
+        InputStream inputStream = resource.getInputStream();
+        if (inputStream == null)
+        {
+            return ByteBuffer.allocate(0);
+        }
+
+        ContentOutputStream outputStream = new ContentOutputStream(inputStream.available());
+        try
+        {
+            ResourceUtils.pipeBytes(inputStream, outputStream, new byte[ByteBufferWriteListener.CHUNK_SIZE]);
+        }
+        finally
+        {
+            inputStream.close();
+        }
+
+        return outputStream.toByteBuffer();
+    }
+
+    /**
+     * Invalidates the relative resource with the given id: it is removed from the RelativeResourceCache and
+     * its artifacts in the disk cache are deleted, thus it is recreated from its source on the next request.
+     * A resource id without locale prefix invalidates the artifacts of all locales of the resource.
+     *
+     * This method can safely be called while resources are served. Artifacts of an initialization that is in
+     * progress are discarded after it finished.
+     *
+     * @param resourceId
+     * @return true if the resource was cached
+     */
+    public boolean invalidate(ResourceId resourceId)
+    {
+        boolean cached = relativeResourceCache.invalidate(resourceId);
+        removeArtifacts(new InvalidationFilter(resourceId.getLibraryName(), resourceId.getResourceName(),
+                resourceId.getRequestedLocalePrefix()));
+        return cached;
+    }
+
+    /**
+     * Invalidates all relative resources of the library with the given name (see {@link #invalidate(ResourceId)}).
+     *
+     * @param libraryName
+     * @return the number of invalidated cached resources
+     */
+    public int invalidateLibrary(String libraryName)
+    {
+        return invalidate(new InvalidationFilter(libraryName, null, null));
+    }
+
+    /**
+     * Invalidates all relative resources with the given locale prefix, including more specific locales
+     * (e.g. "de" also invalidates "de_AT"), see {@link #invalidate(ResourceId)}.
+     *
+     * @param localePrefix
+     * @return the number of invalidated cached resources
+     */
+    public int invalidateLocale(String localePrefix)
+    {
+        return invalidate(new InvalidationFilter(null, null, localePrefix));
+    }
+
+    /**
+     * Invalidates all relative resources (see {@link #invalidate(ResourceId)}).
+     *
+     * @return the number of invalidated cached resources
+     */
+    public int invalidateAll()
+    {
+        return invalidate(new InvalidationFilter(null, null, null));
+    }
+
+    private int invalidate(InvalidationFilter filter)
+    {
+        // NOTE that the cached instances must be invalidated first, so that they do not recreate their artifacts
+        int count = relativeResourceCache.invalidateAll(filter);
+        removeArtifacts(filter);
+
+        log.info("Invalidated " + count + " relative resources (" + filter + ")");
+        return count;
+    }
+
+    /**
+     * Removes the artifacts of resources, which are not cached (e.g. the ones from before a restart).
+     *
+     * @param filter
+     */
+    private void removeArtifacts(InvalidationFilter filter)
+    {
+        FacesContext facesContext = FacesContext.getCurrentInstance();
+        DiskArtifactCache diskArtifactCache = (facesContext != null
+                ? DiskArtifactCache.getInstance(facesContext)
+                : DiskArtifactCache.getExistingInstance(applicationMap));
+
+        // if no DiskArtifactCache exists yet, existing artifacts are still validated against their source
+        if (diskArtifactCache != null)
+        {
+            diskArtifactCache.removeAll(filter.getArtifactKeyPredicate());
+        }
+    }
+
     private boolean isCurrentlyHandlingResourceRequest(FacesContext facesContext)
     {
         return Boolean.TRUE.equals(facesContext.getAttributes().get(HANDLING_RESOURCE_REQUEST));
@@ -260,7 +874,7 @@ public class RelativeResourceHandler extends ResourceHandlerWrapper
     }
 
     /**
-     * Used for unit testing.
+     * Used for unit testing (the given config is not frozen, thus the test can still fill it).
      *
      * @param config
      */
@@ -270,19 +884,28 @@ public class RelativeResourceHandler extends ResourceHandlerWrapper
     }
 
     /**
-     * Uses the RelativeResourceHandlerConfigProvider SPI in order to get a RelativeResourceHandlerConfig instance.
+     * Uses the RelativeResourceHandlerConfigProvider SPI in order to get a RelativeResourceHandlerConfig instance
+     * (or the config of the given snapshot, if it contains one).
      *
+     * @param snapshot the config snapshot, or null if there is no up to date snapshot
      * @return
      * @throws FacesException
      */
-    private RelativeResourceHandlerConfig getConfigFromProviderSpi() throws FacesException
+    private RelativeResourceHandlerConfig getConfigFromProviderSpi(ConfigSnapshot snapshot) throws FacesException
     {
-        // use ServiceLoader to load the SPI implementation
-        ServiceLoader<RelativeResourceHandlerConfigProvider> serviceLoader = ServiceLoader.load(
-                RelativeResourceHandlerConfigProvider.class, ResourceUtils.getContextClassLoader());
+        if (snapshot != null && snapshot.getConfig() != null)
+        {
+            log.info("Using config snapshot " + CONFIG_SNAPSHOT_FILE + " for RelativeResourceHandlerConfig.");
+            return snapshot.getConfig();
+        }
+
+        // use ServiceLoader to load the SPI implementation (or the providers recorded in the snapshot)
+        ClassLoader classLoader = ResourceUtils.getContextClassLoader();
+        Iterator<RelativeResourceHandlerConfigProvider> iterator = (snapshot != null
+                ? snapshot.getServiceProviders(RelativeResourceHandlerConfigProvider.class, classLoader).iterator()
+                : ServiceLoader.load(RelativeResourceHandlerConfigProvider.class, classLoader).iterator());
 
         RelativeResourceHandlerConfigProvider configProvider = null;
-        Iterator<RelativeResourceHandlerConfigProvider> iterator = serviceLoader.iterator();
         if (iterator.hasNext())
         {
             configProvider = iterator.next();
@@ -310,16 +933,20 @@ public class RelativeResourceHandler extends ResourceHandlerWrapper
     /**
      * Uses the RelativeResourceResolverProvider SPI in order to get a RelativeResourceResolver instance.
      *
+     * @param facesContext
+     * @param snapshot the config snapshot, or null if there is no up to date snapshot
      * @return
      * @throws FacesException
      */
-    private RelativeResourceResolver getRelativeResourceResolverFromSpi(FacesContext facesContext) throws FacesException
+    private RelativeResourceResolver getRelativeResourceResolverFromSpi(FacesContext facesContext,
+                                                                        ConfigSnapshot snapshot)
+            throws FacesException
     {
-        // use ServiceLoader to load the SPI implementation
-        ServiceLoader<RelativeResourceResolverProvider> serviceLoader = ServiceLoader.load(
-                RelativeResourceResolverProvider.class, ResourceUtils.getContextClassLoader());
-
-        Iterator<RelativeResourceResolverProvider> iterator = serviceLoader.iterator();
+        // use ServiceLoader to load the SPI implementation (or the providers recorded in the snapshot)
+        ClassLoader classLoader = ResourceUtils.getContextClassLoader();
+        Iterator<RelativeResourceResolverProvider> iterator = (snapshot != null
+                ? snapshot.getServiceProviders(RelativeResourceResolverProvider.class, classLoader).iterator()
+                : ServiceLoader.load(RelativeResourceResolverProvider.class, classLoader).iterator());
         if (iterator.hasNext())
         {
             RelativeResourceResolverProvider resolverProvider = iterator.next();
@@ -344,4 +971,22 @@ public class RelativeResourceHandler extends ResourceHandlerWrapper
         }
     }
 
+    /**
+     * ByteArrayOutputStream, whose content can be wrapped without copying it.
+     */
+    private static final class ContentOutputStream extends ByteArrayOutputStream
+    {
+
+        private ContentOutputStream(int expectedLength)
+        {
+            super(Math.max(expectedLength, 32));
+        }
+
+        private ByteBuffer toByteBuffer()
+        {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+    }
+
 }
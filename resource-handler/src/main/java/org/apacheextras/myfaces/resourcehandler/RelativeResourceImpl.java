@@ -20,8 +20,23 @@
  */
 package org.apacheextras.myfaces.resourcehandler;
 
+import org.apacheextras.myfaces.resourcehandler.cache.ArtifactCreationScheduler;
+import org.apacheextras.myfaces.resourcehandler.cache.ArtifactManifest;
+import org.apacheextras.myfaces.resourcehandler.cache.ArtifactUtils;
+import org.apacheextras.myfaces.resourcehandler.cache.DevelopmentResourceWatcher;
+import org.apacheextras.myfaces.resourcehandler.cache.DiskArtifactCache;
+import org.apacheextras.myfaces.resourcehandler.cache.InMemoryArtifactCache;
+import org.apacheextras.myfaces.resourcehandler.config.CachePolicy;
+import org.apacheextras.myfaces.resourcehandler.config.CompressionConfig;
 import org.apacheextras.myfaces.resourcehandler.config.Library;
-import org.apacheextras.myfaces.resourcehandler.el.ValueExpressionEvaluationInputStream;
+import org.apacheextras.myfaces.resourcehandler.dependency.CssDependencyAnalyzer;
+import org.apacheextras.myfaces.resourcehandler.dependency.ResourceDependencyGraph;
+import org.apacheextras.myfaces.resourcehandler.preload.PreloadRegistry;
+import org.apacheextras.myfaces.resourcehandler.processor.ElEvaluationProcessor;
+import org.apacheextras.myfaces.resourcehandler.processor.GzipProcessor;
+import org.apacheextras.myfaces.resourcehandler.processor.ResourceProcessingPipeline;
+import org.apacheextras.myfaces.resourcehandler.processor.ResourceProcessor;
+import org.apacheextras.myfaces.resourcehandler.processor.ResourceProcessorRegistry;
 import org.apacheextras.myfaces.resourcehandler.provider.ClassPathResourceProvider;
 import org.apacheextras.myfaces.resourcehandler.provider.ExternalResourceProvider;
 import org.apacheextras.myfaces.resourcehandler.provider.ResourceProvider;
@@ -32,19 +47,26 @@ import javax.faces.FacesException;
 import javax.faces.application.ProjectStage;
 import javax.faces.application.ResourceHandler;
 import javax.faces.context.FacesContext;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Default RelativeResource implementation.
@@ -66,29 +88,40 @@ public class RelativeResourceImpl extends RelativeResource
     ));
 
     /**
-     * Subdir of the ServletContext tmp dir to store compressed resources.
+     * Subdir of the ServletContext tmp dir to store compressed resources (if no other disk cache dir is configured).
      */
     protected static final String CACHE_BASE_DIR = "relative-resource-handler-cache/";
 
     /**
      * Suffix for compressed files.
      */
-    protected static final String COMPRESSED_FILE_SUFFIX = ".gzip";
+    protected static final String COMPRESSED_FILE_SUFFIX = DiskArtifactCache.COMPRESSED_FILE_SUFFIX;
 
     /**
-     * Suffix for el evaluated files.
+     * Suffix for files processed by the processing chain (el-evaluation and the ResourceProcessors of the library).
      */
-    protected static final String EL_EVALUATED_FILE_SUFFIX = ".evaluated";
+    protected static final String PROCESSED_FILE_SUFFIX = DiskArtifactCache.PROCESSED_FILE_SUFFIX;
 
     /**
-     * Size of the byte array buffer.
+     * Accept-Encoding HTTP header field.
      */
-    protected static final int BUFFER_SIZE = 2048;
+    protected static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
 
     /**
-     * Accept-Encoding HTTP header field.
+     * Key in the url resolution cache for resources without a locale prefix
+     * (ConcurrentHashMap does not support null keys).
      */
-    protected static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+    private static final String NO_LOCALE_PREFIX_KEY = "";
+
+    /**
+     * Separates the tenant id in the variant suffix of artifacts.
+     */
+    public static final char TENANT_VARIANT_SEPARATOR = '@';
+
+    /**
+     * Creates the compressed version of the output of the processing chain.
+     */
+    private static final ResourceProcessor GZIP_PROCESSOR = new GzipProcessor();
 
     private Library library;
     private String requestedLocalePrefix;
@@ -96,10 +129,84 @@ public class RelativeResourceImpl extends RelativeResource
     private final boolean localeSupportEnabled;
     private final String urlVersion;
     private final boolean developmentStage;
-    private Boolean evaluateElExpressions;
+    private ResourceProcessingPipeline processingPipeline;
+    private String variantLocalePrefix;
+    private String tenantId;
+    private CompressionConfig compressionConfig = CompressionConfig.DEFAULT;
+    private ResourceProcessor compressionProcessor = GZIP_PROCESSOR;
+
+    /**
+     * True if the artifacts of this resource have been created (or validated) successfully.
+     * If they are evicted from the DiskArtifactCache afterwards, they are recreated on demand.
+     */
+    private volatile boolean artifactsAvailable = false;
+
+    /**
+     * True if this resource has been removed from the RelativeResourceCache. Artifacts, which are published
+     * by a concurrent (in-flight) initialization afterwards, are discarded again.
+     */
+    private volatile boolean invalidated = false;
+
+    /**
+     * True if the compressed version could not be created, because the ArtifactCreationScheduler had no free slot.
+     * Meanwhile the uncompressed version is served, a later request creates the compressed version.
+     */
+    private volatile boolean compressionDeferred = false;
+
+    private volatile DiskArtifactCache diskArtifactCache;
+
+    /**
+     * The artifacts of this resource, if its processed content is not larger than inMemoryArtifactMaxSize
+     * (they are never written to the DiskArtifactCache then, but shared via the InMemoryArtifactCache).
+     */
+    private volatile InMemoryArtifacts inMemoryArtifacts;
+    private final int inMemoryArtifactMaxSize;
+
+    /**
+     * The artifacts in the DiskArtifactCache, mapped into memory by the first request, which serves them. The
+     * mappings are dropped when the artifacts are recreated (e.g. after they have been evicted, which is detected
+     * by the next request) and when this resource is invalidated.
+     */
+    private volatile ByteBuffer mappedProcessedArtifact;
+    private volatile ByteBuffer mappedCompressedArtifact;
+
+    /**
+     * True if changes of the resource files are detected in ProjectStage Development (see DevelopmentResourceWatcher).
+     */
+    private final boolean developmentWatcherActive;
+
+    /**
+     * Response headers of the identity and of the compressed variant, computed once on the first resource request
+     * (except in ProjectStage Development, where the last modified date of the resource could change).
+     */
+    private volatile ResponseHeaders identityResponseHeaders;
+    private volatile ResponseHeaders compressedResponseHeaders;
 
-    private boolean initialized = false;
-    private URL cachedUrl;
+    private volatile boolean initialized = false;
+
+    /**
+     * True if the locale prefix has been resolved (guarded by the lock, see initialize()).
+     */
+    private boolean localeResolved = false;
+
+    /**
+     * Guards the initialization and the (re)creation of the artifacts. The file I/O happens while it is held
+     * (see the locking policy in RelativeResourceHandler).
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Caches the result of the ResourceProvider url lookup per locale prefix.
+     * A missing entry means "not resolved yet", an entry with a null url means "resolved, does not exist".
+     * This avoids re-querying the ResourceProvider for every failed locale probe in initialize().
+     */
+    private final ConcurrentMap<String, ResolvedUrl> resolvedUrls = new ConcurrentHashMap<String, ResolvedUrl>();
+
+    /**
+     * The ResourceProvider determined from the location of the library, if the library has no explicit one
+     * (the library itself is part of the frozen config and thus not modified).
+     */
+    private volatile ResourceProvider defaultResourceProvider;
 
     public RelativeResourceImpl(String resourceName, Library library, String contentType,
                             String requestedLocalePrefix, boolean gzipEnabled,
@@ -115,6 +222,8 @@ public class RelativeResourceImpl extends RelativeResource
 
         FacesContext facesContext = FacesContext.getCurrentInstance();
         developmentStage = facesContext.isProjectStage(ProjectStage.Development);
+        developmentWatcherActive = developmentStage && DevelopmentResourceWatcher.isActive(facesContext);
+        inMemoryArtifactMaxSize = ResourceUtils.getInMemoryArtifactMaxSize(facesContext);
 
         // handle contentType
         if (contentType == null)
@@ -144,13 +253,95 @@ public class RelativeResourceImpl extends RelativeResource
      * This is separated from the constructor in order to perform valid initialization in wrapped relative resources.
      */
     @Override
-    public synchronized void initialize(FacesContext facesContext)
+    public void initialize(FacesContext facesContext)
+    {
+        if (initializeLocked(facesContext))
+        {
+            return;
+        }
+
+        // the processed version needs a slot of the ArtifactCreationScheduler: wait for it without holding the lock
+        // and initialize again in it (the slot is reentrant)
+        ArtifactCreationScheduler scheduler = ArtifactCreationScheduler.getInstance(facesContext);
+        scheduler.acquire();
+        try
+        {
+            initializeLocked(facesContext);
+        }
+        finally
+        {
+            scheduler.release();
+        }
+    }
+
+    /**
+     * Initializes this resource under its lock, unless it is already initialized.
+     *
+     * @param facesContext
+     * @return false if the initialization must be continued in a slot of the ArtifactCreationScheduler
+     */
+    private boolean initializeLocked(FacesContext facesContext)
+    {
+        lock.lock();
+        try
+        {
+            return initialized || doInitialize(facesContext);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private boolean doInitialize(FacesContext facesContext)
     {
-        if (initialized)
+        if (!localeResolved)
+        {
+            resolveLocalePrefix();
+            localeResolved = true;
+        }
+
+        // run the processing chain (el-evaluation, which must also work in ProjectStage = Development, and the
+        // processors of the library) and create the compressed version (only if ProjectStage != Development).
+        // NOTE that the stages pass their content in memory, only the final artifacts are stored in the tmp dir.
+        boolean process = !getProcessingPipeline().isEmpty();
+        boolean compress = shouldCompress();
+        if ((process || compress) && resourceExists())
+        {
+            // existing artifacts (e.g. from before a restart) are only reused if they were created from the current
+            // source with the current configuration and if they match their checksum (could be left over from a crash)
+            boolean upToDate = isArtifactManifestEntryUpToDate(facesContext);
+            if (!upToDate)
+            {
+                getDiskArtifactCache(facesContext).remove(getArtifactKey());
+            }
+            if (!upToDate
+                    || (process && !isValidArtifact(getProcessedFile(facesContext)))
+                    || (compress && !compressionDeferred && !isValidArtifact(getCompressedFile(facesContext))))
+            {
+                if (!createArtifactsSafely(facesContext))
+                {
+                    return false;
+                }
+            }
+            else
+            {
+                artifactsAvailable = !invalidated;
+            }
+        }
+
+        // record the relative references of stylesheets (e.g. images and fonts) for warm-up and preloading
+        if (isStylesheet())
         {
-            return;   // already initialized
+            analyzeDependencies(facesContext);
         }
 
+        initialized = true; // finally, set initialized to true to avoid double initialization
+        return true;
+    }
+
+    private void resolveLocalePrefix()
+    {
         // handle localePrefix
         if (localeSupportEnabled)
         {
@@ -160,6 +351,9 @@ public class RelativeResourceImpl extends RelativeResource
                 requestedLocalePrefix = ResourceUtils.getRequestLocalePrefix();
             }
 
+            // remember the requested locale for locale dependent processing stages (before any fallback)
+            variantLocalePrefix = requestedLocalePrefix;
+
             // check if resource exists with locale prefix in path
             if (!resourceExists())
             {
@@ -190,47 +384,58 @@ public class RelativeResourceImpl extends RelativeResource
         {
             requestedLocalePrefix = null;
         }
+    }
 
-        // handle el-evaluation (must also work in ProjectStage = Development)
-        // NOTE that this must happen before compressing the resource!
-        if (shouldEvaluateElExpressions() && !isElEvaluatedVersionAvailable(facesContext))
-        {
-            try
-            {
-                // pre-evaluate expressions and cache evaluated resource
-                // (NOTE that el expressions must be application scoped in order to be correct)
-                createElEvaluatedVersion(facesContext);
-            }
-            catch (IOException ioe)
-            {
-                // we were not able to create the el evaluated version
-                logger.log(Level.WARNING, "Could not create el-evaluated version of Resource " + this, ioe);
-            }
-        }
+    @Override
+    public boolean isInitialized()
+    {
+        return initialized;
+    }
 
-        // handle compression (only available if ProjectStage != Development).
-        // NOTE that this must happen after EL evaluation!
-        if (gzipEnabled && !developmentStage && isCompressible() && !isCompressedVersionAvailable(facesContext))
-        {
-            try
-            {
-                // create compressed version
-                createCompressedVersion(facesContext);
-            }
-            catch (IOException ioe)
-            {
-                // we were not able to create the compressed version
-                logger.log(Level.WARNING, "Could not create compressed version of Resource " + this, ioe);
-            }
-        }
+    @Override
+    public String getTenantId()
+    {
+        return tenantId;
+    }
 
-        initialized = true; // finally, set initialized to true to avoid double initialization
+    /**
+     * Sets the id of the tenant this resource belongs to. If the processing chain is tenant dependent,
+     * the tenant gets its own artifacts, otherwise the artifacts are shared by all tenants.
+     *
+     * @param tenantId
+     */
+    public void setTenantId(String tenantId)
+    {
+        this.tenantId = tenantId;
+    }
+
+    /**
+     * Sets the settings used to create the compressed artifact of this resource.
+     *
+     * @param compressionConfig
+     */
+    public void setCompressionConfig(CompressionConfig compressionConfig)
+    {
+        this.compressionConfig = compressionConfig;
+        this.compressionProcessor = (isDefaultCompression() ? GZIP_PROCESSOR : new GzipProcessor(compressionConfig));
     }
 
     @Override
-    public boolean isInitialized()
+    public void invalidate()
     {
-        return initialized;
+        // NOTE that the flag must be set before the artifacts are removed (see createArtifacts())
+        invalidated = true;
+        artifactsAvailable = false;
+        compressionDeferred = false;
+        inMemoryArtifacts = null;
+        dropMappedArtifacts();
+
+        // the cache is only known, if artifacts have been created (or validated)
+        DiskArtifactCache cache = diskArtifactCache;
+        if (cache != null)
+        {
+            cache.remove(getArtifactKey());
+        }
     }
 
     /**
@@ -250,27 +455,55 @@ public class RelativeResourceImpl extends RelativeResource
     public InputStream getInputStream() throws IOException
     {
         FacesContext facesContext = FacesContext.getCurrentInstance();
+        ensureArtifactsAvailable(facesContext);
 
         if (shouldServeCompressedVersion(facesContext))
         {
             return getCompressedInputStream(facesContext);
         }
 
-        return getUncompressedInputStreamElEvaluationAware(facesContext);
+        return getUncompressedInputStream(facesContext);
     }
 
     @Override
-    public URL getURL()
+    public ByteBuffer getContentBuffer() throws IOException
     {
-        if (cachedUrl != null)
+        FacesContext facesContext = FacesContext.getCurrentInstance();
+        ensureArtifactsAvailable(facesContext);
+
+        boolean compressed = shouldServeCompressedVersion(facesContext);
+        InMemoryArtifacts artifacts = inMemoryArtifacts;
+        if (artifacts != null)
+        {
+            byte[] content = (compressed ? artifacts.compressed : artifacts.processed);
+            return (content == null ? null : ByteBuffer.wrap(content).asReadOnlyBuffer());
+        }
+        if (compressed)
         {
-            return cachedUrl;
+            return getMappedArtifact(facesContext, COMPRESSED_FILE_SUFFIX);
+        }
+        if (!getProcessingPipeline().isEmpty() && artifactsAvailable)
+        {
+            return getMappedArtifact(facesContext, PROCESSED_FILE_SUFFIX);
         }
 
-        // delegate to resource provider
-        cachedUrl = getResourceProvider().getUrl(FacesContext.getCurrentInstance(), this);
+        return null;  // pure content, read it from getInputStream()
+    }
 
-        return cachedUrl;
+    @Override
+    public URL getURL()
+    {
+        String key = (requestedLocalePrefix == null ? NO_LOCALE_PREFIX_KEY : requestedLocalePrefix);
+
+        ResolvedUrl resolvedUrl = resolvedUrls.get(key);
+        if (resolvedUrl == null)
+        {
+            // delegate to resource provider and cache the result (even if it is null)
+            resolvedUrl = new ResolvedUrl(getResourceProvider().getUrl(FacesContext.getCurrentInstance(), this));
+            resolvedUrls.putIfAbsent(key, resolvedUrl);
+        }
+
+        return resolvedUrl.url;
     }
 
     @Override
@@ -292,10 +525,31 @@ public class RelativeResourceImpl extends RelativeResource
             path.append("/");
             path.append(getRelativePath());
 
+            recordPreload(facesContext);
+
             return facesContext.getApplication().getViewHandler().getResourceURL(facesContext, path.toString());
         }
     }
 
+    /**
+     * Records this resource for the current view in the PreloadRegistry (if enabled),
+     * unless the request path is rendered into another resource.
+     *
+     * @param facesContext
+     */
+    private void recordPreload(FacesContext facesContext)
+    {
+        PreloadRegistry preloadRegistry = PreloadRegistry.getInstance(facesContext);
+        if (preloadRegistry != null && facesContext.getViewRoot() != null
+                && !Boolean.TRUE.equals(facesContext.getAttributes()
+                        .get(RelativeResourceHandler.HANDLING_RESOURCE_REQUEST))
+                && !Boolean.TRUE.equals(facesContext.getAttributes()
+                        .get(RelativeResourceHandler.EVALUATING_RESOURCE_EL_EXPRESSIONS)))
+        {
+            preloadRegistry.record(facesContext.getViewRoot().getViewId(), getLibraryName(), getResourceName());
+        }
+    }
+
     @Override
     public String getRelativePath()
     {
@@ -329,58 +583,114 @@ public class RelativeResourceImpl extends RelativeResource
         // Adopted from MyFaces' ResourceImpl
         FacesContext facesContext = FacesContext.getCurrentInstance();
 
-        if (facesContext.getApplication().getResourceHandler().isResourceRequest(facesContext))
+        // RelativeResourceHandler flags its resource requests, thus the ResourceHandler chain is only asked otherwise
+        if (Boolean.TRUE.equals(facesContext.getAttributes().get(RelativeResourceHandler.HANDLING_RESOURCE_REQUEST))
+                || facesContext.getApplication().getResourceHandler().isResourceRequest(facesContext))
         {
-            Map<String, String> headers = new HashMap<String, String>();
+            ensureArtifactsAvailable(facesContext);
+            boolean compressed = shouldServeCompressedVersion(facesContext);
 
-            long lastModified;
-            try
+            ResponseHeaders headers = (compressed ? compressedResponseHeaders : identityResponseHeaders);
+            if (headers == null)
             {
-                lastModified = ResourceUtils.getResourceLastModified(this.getURL());
+                headers = createResponseHeaders(facesContext, compressed);
+                if (!developmentStage)
+                {
+                    // NOTE that concurrent creation is harmless, it creates equal headers
+                    if (compressed)
+                    {
+                        compressedResponseHeaders = headers;
+                    }
+                    else
+                    {
+                        identityResponseHeaders = headers;
+                    }
+                }
             }
-            catch (IOException e)
+
+            return headers.getHeaders();
+        }
+        else
+        {
+            //No need to return headers
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Creates the response headers for the identity or the compressed variant of this resource.
+     *
+     * @param facesContext
+     * @param compressed
+     * @return
+     */
+    private ResponseHeaders createResponseHeaders(FacesContext facesContext, boolean compressed)
+    {
+        Map<String, String> headers = new HashMap<String, String>();
+        long expiresOffset = ResponseHeaders.NO_EXPIRES;
+
+        long lastModified = getLastModified();
+
+        if (lastModified >= 0)
+        {
+            headers.put("Last-Modified", ResourceUtils.formatDateHeader(lastModified));
+
+            CachePolicy cachePolicy = getCachePolicy();
+            if (cachePolicy != null)
             {
-                lastModified = -1;
+                // max-age supersedes Expires (see RFC 2616, section 14.9.3)
+                long defaultMaxAge = ResourceUtils.getMaxTimeExpires(facesContext) / 1000L;
+                headers.put("Cache-Control", cachePolicy.toHeaderValue(defaultMaxAge));
             }
-
-            if (lastModified >= 0)
+            else if (developmentStage)
             {
-                headers.put("Last-Modified", ResourceUtils.formatDateHeader(lastModified));
-
-                long expires;
-                if (facesContext.isProjectStage(ProjectStage.Development))
-                {
-                    // Force to expire now to prevent caching on development time.
-                    expires = System.currentTimeMillis();
-                }
-                else
-                {
-                    expires = System.currentTimeMillis() + ResourceUtils.getMaxTimeExpires(facesContext);
-                }
-                headers.put("Expires", ResourceUtils.formatDateHeader(expires));
+                // Force to expire now to prevent caching on development time.
+                expiresOffset = 0L;
             }
-
-            // add header if we're using content compression
-            if (shouldServeCompressedVersion(facesContext))
+            else
             {
-                headers.put("Content-Encoding", "gzip");
+                expiresOffset = ResourceUtils.getMaxTimeExpires(facesContext);
             }
+        }
 
-            return headers;
+        // byte ranges of local resources are served by RelativeResourceHandler, but only for the identity
+        // encoding: a resumed download with another Accept-Encoding would splice bytes of the other encoding
+        if (library.getLocationType() != Library.LocationType.EXTERNAL && !compressed)
+        {
+            headers.put("Accept-Ranges", "bytes");
         }
-        else
+
+        // add header if we're using content compression
+        if (compressed)
         {
-            //No need to return headers
-            return Collections.emptyMap();
+            headers.put("Content-Encoding", "gzip");
+        }
+        if (shouldCompress())
+        {
+            // both variants are served under the same url, caches must distinguish them
+            headers.put("Vary", ACCEPT_ENCODING_HEADER);
         }
+
+        return new ResponseHeaders(headers, expiresOffset);
+    }
+
+    /**
+     * Returns the cache policy of the library, or null if there is none or if we are in ProjectStage Development
+     * (resources must not be cached by the browser during development).
+     *
+     * @return
+     */
+    private CachePolicy getCachePolicy()
+    {
+        return (developmentStage ? null : library.getCachePolicy());
     }
 
     @Override
     public boolean userAgentNeedsUpdate(FacesContext facesContext)
     {
-        if (developmentStage)
+        if (developmentStage && !developmentWatcherActive)
         {
-            // always re-send resources in development
+            // always re-send resources in development (changes of the resource files are not detected)
             return true;
         }
 
@@ -409,15 +719,7 @@ public class RelativeResourceImpl extends RelativeResource
             return true;
         }
 
-        Long lastModified;
-        try
-        {
-            lastModified = ResourceUtils.getResourceLastModified(this.getURL());
-        }
-        catch (IOException exception)
-        {
-            lastModified = -1L;
-        }
+        long lastModified = getLastModified();
 
         if (lastModified >= 0)
         {
@@ -467,11 +769,56 @@ public class RelativeResourceImpl extends RelativeResource
         return path.toString();
     }
 
+    private boolean isStylesheet()
+    {
+        return library.getLocationType() != Library.LocationType.EXTERNAL && getResourceName().endsWith(".css");
+    }
+
+    /**
+     * Stores the relative references of this stylesheet in the ResourceDependencyGraph.
+     *
+     * @param facesContext
+     */
+    private void analyzeDependencies(FacesContext facesContext)
+    {
+        try
+        {
+            InputStream inputStream = getPureInputStream(facesContext);
+            if (inputStream == null)
+            {
+                return;  // the resource does not exist
+            }
+
+            String css;
+            try
+            {
+                css = new String(ResourceUtils.readBytes(inputStream), ResourceUtils.BYTE_PRESERVING_CHARSET);
+            }
+            finally
+            {
+                inputStream.close();
+            }
+
+            ResourceDependencyGraph.getInstance(facesContext).setDependencies(getLibraryName(), getResourceName(),
+                    CssDependencyAnalyzer.getDependencies(getResourceName(), css));
+        }
+        catch (IOException e)
+        {
+            // the dependencies are only used for optimizations
+            logger.log(Level.FINE, "Could not analyze the dependencies of " + getResourceFilePath(), e);
+        }
+    }
+
     private boolean isCompressible()
     {
         // GZIP compression is supported for local .css and .js files
         return library.getLocationType() != Library.LocationType.EXTERNAL
-                && (getResourceName().endsWith(".css") || getResourceName().endsWith(".js"));
+                && GZIP_PROCESSOR.isApplicable(this);
+    }
+
+    private boolean shouldCompress()
+    {
+        return gzipEnabled && !developmentStage && isCompressible();
     }
 
     private boolean userAgentSupportsCompression(FacesContext facesContext)
@@ -489,172 +836,647 @@ public class RelativeResourceImpl extends RelativeResource
         //   - ProjectStage != Development
         //   - a compressed version is available (created in constructor)
         //   - the user agent supports compresssion
-        return gzipEnabled
-                && !developmentStage
+        return shouldCompress()
                 && isCompressedVersionAvailable(facesContext)
                 && userAgentSupportsCompression(facesContext);
     }
 
     private boolean isCompressedVersionAvailable(FacesContext facesContext)
     {
-        return getCompressedFile(facesContext).exists();
+        InMemoryArtifacts artifacts = inMemoryArtifacts;
+        if (artifacts != null)
+        {
+            return artifacts.compressed != null;
+        }
+
+        File compressedFile = getCompressedFile(facesContext);
+        return compressedFile != null && compressedFile.exists();
     }
 
     private File getCompressedFile(FacesContext facesContext)
     {
-        File tmpDir = ResourceUtils.getServletContextTmpDir(facesContext);
-
-        return new File(tmpDir, CACHE_BASE_DIR + getResourceFilePath() + COMPRESSED_FILE_SUFFIX);
+        return getDiskArtifactCache(facesContext).getFile(getArtifactKey(), COMPRESSED_FILE_SUFFIX);
     }
 
-    private boolean isElEvaluatedVersionAvailable(FacesContext facesContext)
+    private boolean isProcessedVersionAvailable(FacesContext facesContext)
     {
-        return getElEvaluatedFile(facesContext).exists();
+        InMemoryArtifacts artifacts = inMemoryArtifacts;
+        if (artifacts != null)
+        {
+            return artifacts.processed != null;
+        }
+
+        File processedFile = getProcessedFile(facesContext);
+        return processedFile != null && processedFile.exists();
     }
 
-    private File getElEvaluatedFile(FacesContext facesContext)
+    private File getProcessedFile(FacesContext facesContext)
     {
-        File tmpDir = ResourceUtils.getServletContextTmpDir(facesContext);
-
-        return new File(tmpDir, CACHE_BASE_DIR + getResourceFilePath() + EL_EVALUATED_FILE_SUFFIX);
+        return getDiskArtifactCache(facesContext).getFile(getArtifactKey(), PROCESSED_FILE_SUFFIX);
     }
 
-    private boolean shouldEvaluateElExpressions()
+    /**
+     * Returns the mapped artifact with the given suffix (mapped only once, see mappedProcessedArtifact),
+     * or null if it is not available (anymore).
+     *
+     * @param facesContext
+     * @param suffix
+     * @return a new buffer for the caller (with its own position)
+     * @throws IOException
+     */
+    private ByteBuffer getMappedArtifact(FacesContext facesContext, String suffix) throws IOException
     {
-        if (evaluateElExpressions == null)
+        boolean compressed = COMPRESSED_FILE_SUFFIX.equals(suffix);
+        ByteBuffer mapped = (compressed ? mappedCompressedArtifact : mappedProcessedArtifact);
+        if (mapped == null)
         {
-            for (String fileMask : library.getElEvaluationFileMasks())
+            // concurrent requests could both map the artifact, the surplus mapping is released by the GC
+            mapped = mapArtifact(facesContext, suffix);
+            if (mapped == null)
             {
-                if (fileMaskMatches(fileMask))
-                {
-                    evaluateElExpressions = true;
-                    break;
-                }
+                return null;
+            }
+            if (compressed)
+            {
+                mappedCompressedArtifact = mapped;
             }
-            if (evaluateElExpressions == null)
+            else
             {
-                evaluateElExpressions = false;
+                mappedProcessedArtifact = mapped;
             }
         }
-
-        return evaluateElExpressions;
+        return mapped.duplicate();
     }
 
-    private boolean fileMaskMatches(String fileMask)
+    private void dropMappedArtifacts()
     {
-        fileMask = fileMask.replace("*", "\\E.*\\Q");
-        fileMask = "\\Q" + fileMask + "\\E";
+        mappedProcessedArtifact = null;
+        mappedCompressedArtifact = null;
+    }
+
+    /**
+     * Maps the artifact with the given suffix into memory (the artifacts are content-addressed, thus they never
+     * change while they are mapped), or returns null if it is not available (anymore).
+     *
+     * @param facesContext
+     * @param suffix
+     * @return
+     * @throws IOException
+     */
+    private ByteBuffer mapArtifact(FacesContext facesContext, String suffix) throws IOException
+    {
+        FileInputStream artifact = getDiskArtifactCache(facesContext).openFile(getArtifactKey(), suffix);
+        if (artifact == null)
+        {
+            return null;
+        }
 
-        return getResourceName().matches(fileMask);
+        try
+        {
+            // the mapping stays valid after the channel has been closed
+            FileChannel channel = artifact.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+        }
+        finally
+        {
+            artifact.close();
+        }
     }
 
-    private InputStream getCompressedInputStream(FacesContext facesContext) throws IOException
+    private DiskArtifactCache getDiskArtifactCache(FacesContext facesContext)
     {
-        return new FileInputStream(getCompressedFile(facesContext));
+        if (diskArtifactCache == null)
+        {
+            diskArtifactCache = DiskArtifactCache.getInstance(facesContext);
+        }
+        return diskArtifactCache;
     }
 
-    private InputStream getUncompressedInputStreamElEvaluationAware(FacesContext facesContext) throws IOException
+    /**
+     * Recreates the artifacts of this resource, if they have been evicted from the DiskArtifactCache,
+     * and marks them as recently accessed.
+     *
+     * @param facesContext
+     */
+    private void ensureArtifactsAvailable(FacesContext facesContext)
     {
-        if (isElEvaluatedVersionAvailable(facesContext))
+        if (compressionDeferred && !createDeferredArtifacts(facesContext))
         {
-            return new FileInputStream(getElEvaluatedFile(facesContext));
+            return;  // still no free slot, serve the uncompressed version
         }
-        else
+        if (!artifactsAvailable)
+        {
+            return;  // no artifacts (or they could not be created)
+        }
+        if (inMemoryArtifacts != null)
         {
-            // no el-evaluation, return pure input stream
-            return getPureInputStream(facesContext);
+            return;  // never evicted
         }
+
+        boolean process = !getProcessingPipeline().isEmpty();
+        boolean compress = shouldCompress();
+        if ((process && !isProcessedVersionAvailable(facesContext))
+                || (compress && !isCompressedVersionAvailable(facesContext)))
+        {
+            // evicted, thus release the mapped files right away
+            dropMappedArtifacts();
+
+            if (!recreateArtifactsLocked(facesContext))
+            {
+                // wait for a slot without holding the lock (see initialize())
+                ArtifactCreationScheduler scheduler = ArtifactCreationScheduler.getInstance(facesContext);
+                scheduler.acquire();
+                try
+                {
+                    recreateArtifactsLocked(facesContext);
+                }
+                finally
+                {
+                    scheduler.release();
+                }
+            }
+        }
+
+        getDiskArtifactCache(facesContext).touch(getArtifactKey());
     }
 
-    private InputStream getPureInputStream(FacesContext facesContext) throws IOException
+    /**
+     * Recreates the evicted artifacts of this resource under its lock, unless another thread has already done it.
+     *
+     * @param facesContext
+     * @return false if the artifacts must be recreated in a slot of the ArtifactCreationScheduler
+     */
+    private boolean recreateArtifactsLocked(FacesContext facesContext)
     {
-        // delegate to resource provider
-        return getResourceProvider().getInputStream(facesContext, this);
+        boolean process = !getProcessingPipeline().isEmpty();
+        boolean compress = shouldCompress() && !compressionDeferred;
+        lock.lock();
+        try
+        {
+            if ((process && !isProcessedVersionAvailable(facesContext))
+                    || (compress && !isCompressedVersionAvailable(facesContext)))
+            {
+                return createArtifactsSafely(facesContext);
+            }
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     /**
-     * Uses GZIPOutputStream to compress this resource.
-     * It will be stored where getCompressedFile() points to.
+     * Returns the path of the artifacts of this resource (variant) in the cache directory (without suffix),
+     * which is also the key of its entry in the ArtifactManifest.
      *
-     * Note that the resource really must be compressible (isCompressible() must return true).
+     * @return
+     */
+    private String getArtifactKey()
+    {
+        return getResourceFilePath() + getVariantSuffix();
+    }
+
+    /**
+     * Returns a hash of the processing configuration, which is stored in the ArtifactManifest.
+     *
+     * @return
+     */
+    private String getProcessingConfigHash()
+    {
+        String signature = getProcessingPipeline().getSignature();
+        if (shouldCompress() && !isDefaultCompression())
+        {
+            signature += "|" + GzipProcessor.NAME + ":" + compressionConfig.getSignature();
+        }
+        return ArtifactUtils.digest(signature);
+    }
+
+    private boolean isDefaultCompression()
+    {
+        return CompressionConfig.DEFAULT.getSignature().equals(compressionConfig.getSignature());
+    }
+
+    /**
+     * Checks if the ArtifactManifest contains an entry for this resource, which was created from the current source
+     * (url and content) with the current configuration.
      *
      * @param facesContext
-     * @throws IOException
+     * @return
      */
-    private void createCompressedVersion(FacesContext facesContext) throws IOException
+    private boolean isArtifactManifestEntryUpToDate(FacesContext facesContext)
     {
-        File target = getCompressedFile(facesContext);
-        target.mkdirs();  // ensure necessary directories exist
-        target.delete();  // remove any existing file
+        DiskArtifactCache cache = getDiskArtifactCache(facesContext);
+        ArtifactManifest.Entry entry = cache.getEntry(getArtifactKey());
+        if (entry == null || !entry.matches(String.valueOf(getURL()), urlVersion, getProcessingConfigHash()))
+        {
+            return false;
+        }
+
+        long lastModified = getLastModified();
+        if (lastModified >= 0 && lastModified == entry.getLastModified())
+        {
+            return true;
+        }
 
-        InputStream inputStream = null;
-        FileOutputStream fileOutputStream;
-        GZIPOutputStream gzipOutputStream = null;
+        // the timestamp changed (e.g. after a redeployment), check if the content really changed
         try
         {
-            inputStream = getUncompressedInputStreamElEvaluationAware(facesContext);
-            fileOutputStream = new FileOutputStream(target);
-            gzipOutputStream = new GZIPOutputStream(fileOutputStream);
-            byte[] buffer = new byte[BUFFER_SIZE];
+            byte[] source = readSource(facesContext);
+            if (source.length == entry.getSourceLength()
+                    && ArtifactUtils.digest(source).equals(entry.getSourceDigest()))
+            {
+                // remember the new timestamp
+                cache.put(getArtifactKey(), new ArtifactManifest.Entry(entry.getSourceUrl(), lastModified,
+                        entry.getSourceLength(), entry.getSourceDigest(), urlVersion, entry.getConfigHash(),
+                        entry.getContentDigest(), entry.getArtifactLength()));
+                return true;
+            }
+        }
+        catch (IOException e)
+        {
+            logger.log(Level.FINE, "Could not check content of Resource " + this, e);
+        }
+
+        return false;
+    }
 
-            ResourceUtils.pipeBytes(inputStream, gzipOutputStream, buffer);
+    /**
+     * Returns the suffix, which distinguishes the artifacts of the different requested locales and tenants,
+     * if the processing chain is locale or tenant dependent (e.g. ".de_AT@client-a"), or an empty String otherwise.
+     *
+     * @return
+     */
+    private String getVariantSuffix()
+    {
+        StringBuilder suffix = new StringBuilder();
+        if (variantLocalePrefix != null && getProcessingPipeline().isLocaleDependent())
+        {
+            suffix.append('.').append(variantLocalePrefix);
         }
-        finally
+        if (tenantId != null && getProcessingPipeline().isTenantDependent())
         {
-            if (inputStream != null)
+            suffix.append(TENANT_VARIANT_SEPARATOR).append(tenantId);
+        }
+        return suffix.toString();
+    }
+
+    /**
+     * Returns the processing chain of this resource, which consists of el-evaluation (if one of the
+     * el-evaluation file masks of the library matches) and the applicable ResourceProcessors of the library
+     * (only if ProjectStage != Development).
+     *
+     * @return
+     */
+    protected ResourceProcessingPipeline getProcessingPipeline()
+    {
+        if (processingPipeline == null)
+        {
+            List<ResourceProcessor> stages = new ArrayList<ResourceProcessor>();
+            if (library.getLocationType() != Library.LocationType.EXTERNAL)
             {
-                inputStream.close();
+                // NOTE that el-evaluation must happen before all other stages!
+                ResourceProcessor elEvaluationProcessor = new ElEvaluationProcessor(library.getElEvaluationFileMasks());
+                if (elEvaluationProcessor.isApplicable(this))
+                {
+                    stages.add(elEvaluationProcessor);
+                }
+
+                if (!developmentStage)
+                {
+                    ResourceProcessorRegistry processorRegistry
+                            = ResourceProcessorRegistry.getInstance(FacesContext.getCurrentInstance());
+                    for (String processorName : library.getProcessorNames())
+                    {
+                        ResourceProcessor processor = processorRegistry.getProcessor(processorName);
+                        if (processor != null && processor.isApplicable(this))
+                        {
+                            stages.add(processor);
+                        }
+                    }
+                }
+            }
+            processingPipeline = new ResourceProcessingPipeline(stages);
+        }
+
+        return processingPipeline;
+    }
+
+    private InputStream getCompressedInputStream(FacesContext facesContext) throws IOException
+    {
+        InMemoryArtifacts artifacts = inMemoryArtifacts;
+        if (artifacts != null && artifacts.compressed != null)
+        {
+            return new ByteArrayInputStream(artifacts.compressed);
+        }
+
+        InputStream compressed = getDiskArtifactCache(facesContext).openFile(getArtifactKey(), COMPRESSED_FILE_SUFFIX);
+        if (compressed == null)
+        {
+            // evicted since the response headers have been set, compress in memory (without artifacts)
+            return new ByteArrayInputStream(ResourceProcessingPipeline.apply(compressionProcessor, facesContext, this,
+                    readFully(getUncompressedInputStream(facesContext))));
+        }
+        return compressed;
+    }
+
+    private InputStream getUncompressedInputStream(FacesContext facesContext) throws IOException
+    {
+        InMemoryArtifacts artifacts = inMemoryArtifacts;
+        if (artifacts != null && artifacts.processed != null)
+        {
+            return new ByteArrayInputStream(artifacts.processed);
+        }
+        if (!getProcessingPipeline().isEmpty())
+        {
+            InputStream processed = (artifactsAvailable
+                    ? getDiskArtifactCache(facesContext).openFile(getArtifactKey(), PROCESSED_FILE_SUFFIX) : null);
+            if (processed != null)
+            {
+                return processed;
             }
-            if (gzipOutputStream != null)
+            if (artifactsAvailable || invalidated)
             {
-                // also closes fileOutputStream
-                gzipOutputStream.close();
+                // evicted in the meantime or still served by a request from before the invalidation,
+                // process in memory (without artifacts)
+                return new ByteArrayInputStream(getProcessingPipeline().process(facesContext, this,
+                        new ByteArrayInputStream(readSource(facesContext))));
             }
         }
+
+        // no processing, return pure input stream
+        return getPureInputStream(facesContext);
     }
 
     /**
-     * Uses ValueExpressionEvaluationInputStream to evaluate el expressions this resource.
-     * It will be stored where getElEvaluatedFile() points to.
+     * Returns the last modified timestamp of the resource file on the server, or -1 if it cannot be determined.
+     *
+     * @return
+     */
+    protected long getLastModified()
+    {
+        try
+        {
+            return ResourceUtils.getResourceLastModified(this.getURL());
+        }
+        catch (IOException e)
+        {
+            return -1L;
+        }
+    }
+
+    /**
+     * Returns the unprocessed content of the resource file on the server.
      *
      * @param facesContext
+     * @return
      * @throws IOException
      */
-    private void createElEvaluatedVersion(FacesContext facesContext) throws IOException
+    protected InputStream getPureInputStream(FacesContext facesContext) throws IOException
     {
-        File target = getElEvaluatedFile(facesContext);
-        target.mkdirs();  // ensure necessary directories exist
-        target.delete();  // remove any existing file
+        // delegate to resource provider
+        return getResourceProvider().getInputStream(facesContext, this);
+    }
+
+    /**
+     * Runs the processing chain and stores its output in the DiskArtifactCache (identified by its digest),
+     * where getProcessedFile() points to afterwards. If compress is true, the output is also compressed
+     * and stored where getCompressedFile() points to afterwards. Small outputs are kept in the
+     * InMemoryArtifactCache instead (see inMemoryArtifactMaxSize).
+     *
+     * Note that the resource really must be compressible (isCompressible() must return true) if compress is true.
+     *
+     * @param facesContext
+     * @param compress
+     * @throws IOException
+     */
+    private void createArtifacts(FacesContext facesContext, boolean compress) throws IOException
+    {
+        // the current artifacts are replaced (or were evicted), thus their mappings must not be served anymore
+        dropMappedArtifacts();
 
-        // indicate that we are currently evaluating EL expressions of a resource.
-        // we need to know this, b/c ResourceHandler.createResource() can be called while
-        // evaluating #{resource['']} expressions, and we need to treat this case differently in the ResourceHandler.
-        facesContext.getAttributes().put(RelativeResourceHandler.EVALUATING_RESOURCE_EL_EXPRESSIONS, Boolean.TRUE);
+        ResourceProcessingPipeline pipeline = getProcessingPipeline();
+        long artifactLength = 0L;
 
-        InputStream inputStream = null;
-        FileOutputStream fileOutputStream = null;
-        try
+        byte[] source = readSource(facesContext);
+        byte[] content = (pipeline.isEmpty() ? source
+                : pipeline.process(facesContext, this, new ByteArrayInputStream(source)));
+
+        // the artifacts are shared by all resource variants with the same content,
+        // thus they only need to be created if no other variant has created them yet
+        String contentDigest = ArtifactUtils.digest(content);
+        if (compress && !isDefaultCompression())
         {
-            inputStream = new ValueExpressionEvaluationInputStream(facesContext, getPureInputStream(facesContext));
-            fileOutputStream = new FileOutputStream(target);
-            byte[] buffer = new byte[BUFFER_SIZE];
+            // compressed artifacts, which have been created with other settings, must not be reused
+            contentDigest = ArtifactUtils.digest(contentDigest + compressionConfig.getSignature());
+        }
 
-            ResourceUtils.pipeBytes(inputStream, fileOutputStream, buffer);
+        if (inMemoryArtifactMaxSize > 0 && content.length <= inMemoryArtifactMaxSize)
+        {
+            // small resources never touch the disk, their artifacts are created at once in memory
+            createInMemoryArtifacts(facesContext, content, contentDigest, compress);
+            return;
         }
-        finally
+
+        DiskArtifactCache cache = getDiskArtifactCache(facesContext);
+        if (!pipeline.isEmpty())
         {
-            facesContext.getAttributes().put(RelativeResourceHandler.EVALUATING_RESOURCE_EL_EXPRESSIONS, Boolean.FALSE);
-            if (inputStream != null)
+            File processedFile = cache.getContentFile(contentDigest, PROCESSED_FILE_SUFFIX);
+            if (!isValidArtifact(processedFile))
             {
-                inputStream.close();
+                ArtifactUtils.publish(processedFile, content);
+            }
+            artifactLength += content.length;
+        }
+
+        if (compress)
+        {
+            File compressedFile = cache.getContentFile(contentDigest, COMPRESSED_FILE_SUFFIX);
+            if (!isValidArtifact(compressedFile))
+            {
+                ArtifactUtils.publish(compressedFile,
+                        ResourceProcessingPipeline.apply(compressionProcessor, facesContext, this, content));
             }
-            if (fileOutputStream != null)
+            artifactLength += compressedFile.length();
+        }
+
+        // remember the source of the artifacts, so that they can be reused after a restart
+        cache.put(getArtifactKey(), new ArtifactManifest.Entry(String.valueOf(getURL()), getLastModified(),
+                source.length, ArtifactUtils.digest(source), urlVersion, getProcessingConfigHash(), contentDigest,
+                artifactLength));
+
+        if (invalidated)
+        {
+            // invalidated while the artifacts were created (probably from an outdated source), discard them
+            cache.remove(getArtifactKey());
+        }
+    }
+
+    private void createInMemoryArtifacts(FacesContext facesContext, byte[] content, String contentDigest,
+                                         boolean compress) throws IOException
+    {
+        InMemoryArtifactCache cache = InMemoryArtifactCache.getInstance(facesContext);
+        byte[] processed = null;
+        if (!getProcessingPipeline().isEmpty())
+        {
+            processed = cache.share(contentDigest, PROCESSED_FILE_SUFFIX, content);
+        }
+
+        byte[] compressed = null;
+        if (compress)
+        {
+            compressed = cache.get(contentDigest, COMPRESSED_FILE_SUFFIX);
+            if (compressed == null)
+            {
+                compressed = cache.share(contentDigest, COMPRESSED_FILE_SUFFIX,
+                        ResourceProcessingPipeline.apply(compressionProcessor, facesContext, this, content));
+            }
+        }
+
+        inMemoryArtifacts = new InMemoryArtifacts(processed, compressed);
+        if (invalidated)
+        {
+            inMemoryArtifacts = null;
+        }
+    }
+
+    /**
+     * Calls createArtifacts() in a slot of the ArtifactCreationScheduler and logs a warning if the artifacts could
+     * not be created. Must be called while holding the lock, thus it never waits for a slot: if none is free, the
+     * compression is deferred to a later request and the pure content is served. A processed resource cannot be
+     * served without its processed version, thus the caller must release the lock, wait for a slot and call this
+     * method again. Thus a slot is always acquired before the lock (like in createDeferredArtifacts()), otherwise
+     * two threads could wait for each other.
+     *
+     * @param facesContext
+     * @return false if the processed version could not be created, because no slot was free
+     */
+    private boolean createArtifactsSafely(FacesContext facesContext)
+    {
+        boolean compress = shouldCompress() && !compressionDeferred;
+        ArtifactCreationScheduler scheduler = ArtifactCreationScheduler.getInstance(facesContext);
+        if (!scheduler.tryAcquire())
+        {
+            // fast fallback: the compression is deferred to a later request
+            if (compress)
             {
-                fileOutputStream.close();
+                compressionDeferred = !invalidated;
             }
+            return getProcessingPipeline().isEmpty();  // serve the pure content, or wait for a slot
+        }
+        try
+        {
+            createArtifacts(facesContext, compress);
+            artifactsAvailable = !invalidated;
+        }
+        catch (IOException ioe)
+        {
+            // we were not able to create the processed or compressed version
+            logger.log(Level.WARNING, "Could not create processed version of Resource " + this, ioe);
+        }
+        finally
+        {
+            scheduler.release();
+        }
+        return true;
+    }
+
+    /**
+     * Creates the artifacts of this resource, whose compression has been deferred, if the ArtifactCreationScheduler
+     * has a free slot now (without waiting).
+     *
+     * @param facesContext
+     * @return true if the compression is not deferred anymore
+     */
+    private boolean createDeferredArtifacts(FacesContext facesContext)
+    {
+        ArtifactCreationScheduler scheduler = ArtifactCreationScheduler.getInstance(facesContext);
+        if (!scheduler.tryAcquire())
+        {
+            return false;
+        }
+
+        lock.lock();
+        try
+        {
+            if (compressionDeferred)
+            {
+                // only try once, a failure is logged and the uncompressed version is served from now on
+                compressionDeferred = false;
+                createArtifacts(facesContext, true);
+                artifactsAvailable = !invalidated;
+            }
+        }
+        catch (IOException ioe)
+        {
+            logger.log(Level.WARNING, "Could not create compressed version of Resource " + this, ioe);
+        }
+        finally
+        {
+            lock.unlock();
+            scheduler.release();
+        }
+        return true;
+    }
+
+    /**
+     * Reads the unprocessed content of the resource file on the server.
+     *
+     * @param facesContext
+     * @return
+     * @throws IOException
+     */
+    private byte[] readSource(FacesContext facesContext) throws IOException
+    {
+        InputStream inputStream = getPureInputStream(facesContext);
+        if (inputStream == null)
+        {
+            throw new FileNotFoundException("Could not read content of Resource " + this);
+        }
+
+        return readFully(inputStream);
+    }
+
+    /**
+     * Reads the given input stream completely and closes it.
+     *
+     * @param inputStream
+     * @return
+     * @throws IOException
+     */
+    private static byte[] readFully(InputStream inputStream) throws IOException
+    {
+        try
+        {
+            return ResourceUtils.readBytes(inputStream);
+        }
+        finally
+        {
+            inputStream.close();
         }
     }
 
+    /**
+     * Returns true if the given artifact is valid. Invalid artifacts are deleted.
+     *
+     * @param artifact
+     * @return
+     */
+    private static boolean isValidArtifact(File artifact)
+    {
+        if (artifact == null)
+        {
+            return false;  // not in the DiskArtifactCache
+        }
+        if (ArtifactUtils.isValid(artifact))
+        {
+            return true;
+        }
+
+        ArtifactUtils.delete(artifact);
+        return false;
+    }
+
     private ResourceProvider getResourceProvider()
     {
         ResourceProvider libraryResourceProvider = library.getResourceProvider();
@@ -662,6 +1484,11 @@ public class RelativeResourceImpl extends RelativeResource
         {
             return libraryResourceProvider;
         }
+        libraryResourceProvider = defaultResourceProvider;
+        if (libraryResourceProvider != null)
+        {
+            return libraryResourceProvider;
+        }
 
         // determine the resource provider to use
         if (library.getLocationType() != null)
@@ -690,10 +1517,134 @@ public class RelativeResourceImpl extends RelativeResource
             libraryResourceProvider = DEFAULT_RESOURCE_PROVIDER;
         }
 
-        // set the determined resource provider on the library for future access
-        library.setResourceProvider(libraryResourceProvider);
+        // keep the determined resource provider for future access
+        defaultResourceProvider = libraryResourceProvider;
 
         return libraryResourceProvider;
     }
 
+    /**
+     * Immutable response headers of a resource variant. The Expires header (relative to the current time) is
+     * refreshed at most once per second, thus serving a resource only selects a map.
+     */
+    private static final class ResponseHeaders
+    {
+
+        private static final long NO_EXPIRES = -1L;
+
+        /**
+         * The last formatted Expires date, shared by all resources (they use the same offset, except in development).
+         */
+        private static volatile FormattedDate lastExpiresDate;
+
+        private final Map<String, String> headers;
+        private final long expiresOffset;
+        private volatile Snapshot snapshot;
+
+        private ResponseHeaders(Map<String, String> headers, long expiresOffset)
+        {
+            this.headers = Collections.unmodifiableMap(new HashMap<String, String>(headers));
+            this.expiresOffset = expiresOffset;
+        }
+
+        private Map<String, String> getHeaders()
+        {
+            if (expiresOffset == NO_EXPIRES)
+            {
+                return headers;
+            }
+
+            long second = System.currentTimeMillis() / 1000L;
+            Snapshot current = snapshot;
+            if (current == null || current.second != second)
+            {
+                // NOTE that concurrent refreshes are harmless, they create equal snapshots
+                Map<String, String> refreshed = new HashMap<String, String>(headers);
+                refreshed.put("Expires", formatExpiresDate(second * 1000L + expiresOffset));
+                current = new Snapshot(second, Collections.unmodifiableMap(refreshed));
+                snapshot = current;
+            }
+            return current.headers;
+        }
+
+        private static String formatExpiresDate(long expires)
+        {
+            FormattedDate date = lastExpiresDate;
+            if (date == null || date.value != expires)
+            {
+                date = new FormattedDate(expires, ResourceUtils.formatDateHeader(expires));
+                lastExpiresDate = date;
+            }
+            return date.formatted;
+        }
+
+    }
+
+    /**
+     * The response headers of a resource variant, which are valid during the given second.
+     */
+    private static final class Snapshot
+    {
+
+        private final long second;
+        private final Map<String, String> headers;
+
+        private Snapshot(long second, Map<String, String> headers)
+        {
+            this.second = second;
+            this.headers = headers;
+        }
+
+    }
+
+    /**
+     * A date value and its formatted http header representation.
+     */
+    private static final class FormattedDate
+    {
+
+        private final long value;
+        private final String formatted;
+
+        private FormattedDate(long value, String formatted)
+        {
+            this.value = value;
+            this.formatted = formatted;
+        }
+
+    }
+
+    /**
+     * The processed and compressed content of a resource (each null if not applicable), shared with the other
+     * variants of the same content via the InMemoryArtifactCache.
+     */
+    private static final class InMemoryArtifacts
+    {
+
+        private final byte[] processed;
+        private final byte[] compressed;
+
+        private InMemoryArtifacts(byte[] processed, byte[] compressed)
+        {
+            this.processed = processed;
+            this.compressed = compressed;
+        }
+
+    }
+
+    /**
+     * Holder for a resolved (possibly null) resource url.
+     */
+    private static final class ResolvedUrl
+    {
+
+        private final URL url;
+
+        private ResolvedUrl(URL url)
+        {
+            this.url = url;
+        }
+
+    }
+
 }
@@ -25,6 +25,7 @@ import javax.faces.context.FacesContext;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 /**
@@ -149,6 +150,24 @@ public abstract class RelativeResourceWrapper extends RelativeResource implement
         return getWrapped().getRequestedLocalePrefix();
     }
 
+    @Override
+    public void invalidate()
+    {
+        getWrapped().invalidate();
+    }
+
+    @Override
+    public ByteBuffer getContentBuffer() throws IOException
+    {
+        return getWrapped().getContentBuffer();
+    }
+
+    @Override
+    public String getTenantId()
+    {
+        return getWrapped().getTenantId();
+    }
+
     @Override
     public String getContentType()
     {
@@ -25,6 +25,10 @@ import java.io.Serializable;
 /**
  * ID class, uniquely identifying a RelativeResource.
  *
+ * The optional tenant id identifies the tenant (e.g. client, customer) a resource belongs to in a multi-tenant
+ * application (see RelativeResourceResolver). Resources of different tenants are cached in separate partitions of
+ * the RelativeResourceCache, resources without tenant id are shared by all tenants.
+ *
  * @author Jakob Korherr
  */
 public class ResourceId implements Serializable
@@ -33,12 +37,19 @@ public class ResourceId implements Serializable
     private final String resourceName;
     private final String libraryName;
     private final String requestedLocalePrefix;
+    private final String tenantId;
 
     public ResourceId(String resourceName, String libraryName, String requestedLocalePrefix)
+    {
+        this(resourceName, libraryName, requestedLocalePrefix, null);
+    }
+
+    public ResourceId(String resourceName, String libraryName, String requestedLocalePrefix, String tenantId)
     {
         this.resourceName = resourceName;
         this.libraryName = libraryName;
         this.requestedLocalePrefix = requestedLocalePrefix;
+        this.tenantId = tenantId;
     }
 
     public String getResourceName()
@@ -56,6 +67,16 @@ public class ResourceId implements Serializable
         return requestedLocalePrefix;
     }
 
+    /**
+     * Returns the id of the tenant of the resource, or null if the resource is shared by all tenants.
+     *
+     * @return
+     */
+    public String getTenantId()
+    {
+        return tenantId;
+    }
+
     @Override
     public boolean equals(Object o)
     {
@@ -82,6 +103,10 @@ public class ResourceId implements Serializable
         {
             return false;
         }
+        if (tenantId != null ? !tenantId.equals(that.tenantId) : that.tenantId != null)
+        {
+            return false;
+        }
 
         return true;
     }
@@ -92,6 +117,7 @@ public class ResourceId implements Serializable
         int result = resourceName != null ? resourceName.hashCode() : 0;
         result = 31 * result + (libraryName != null ? libraryName.hashCode() : 0);
         result = 31 * result + (requestedLocalePrefix != null ? requestedLocalePrefix.hashCode() : 0);
+        result = 31 * result + (tenantId != null ? tenantId.hashCode() : 0);
         return result;
     }
 
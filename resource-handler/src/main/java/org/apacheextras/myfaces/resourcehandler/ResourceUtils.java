@@ -20,10 +20,13 @@
  */
 package org.apacheextras.myfaces.resourcehandler;
 
+import org.apacheextras.myfaces.resourcehandler.cache.RelativeResourceCache;
+
 import javax.faces.FacesException;
 import javax.faces.component.UIViewRoot;
 import javax.faces.context.ExternalContext;
 import javax.faces.context.FacesContext;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -31,12 +34,17 @@ import java.io.OutputStream;
 import java.net.JarURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
@@ -67,6 +75,34 @@ public class ResourceUtils
 
     private static TimeZone __GMT = TimeZone.getTimeZone("GMT");
 
+    /**
+     * Unit prefix of the Range header field (bytes is the only range unit defined by HTTP/1.1).
+     */
+    private static final String BYTES_RANGE_UNIT_PREFIX = "bytes=";
+
+    /**
+     * Max number of ranges in one Range header. Requests with more ranges get the complete representation.
+     */
+    private static final int MAX_BYTE_RANGES = 16;
+
+    /**
+     * Line separator used in multipart/byteranges bodies.
+     */
+    private static final String CRLF = "\r\n";
+
+    /**
+     * Min and max size of the buffers created by createPipeBuffer().
+     */
+    private static final int MIN_PIPE_BUFFER_SIZE = 2048;
+    private static final int MAX_PIPE_BUFFER_SIZE = 65536;
+
+    /**
+     * Charset used to convert text content (e.g. css) to a String and back. ISO-8859-1 maps every byte to exactly
+     * one char, thus all bytes that are not touched by a transformation (e.g. multi-byte UTF-8 sequences) are
+     * preserved, whatever the real charset of the content is.
+     */
+    public static final String BYTE_PRESERVING_CHARSET = "ISO-8859-1";
+
     /**
      * The key with which the the FacesServlet mapping prefix is cached in the application map.
      */
@@ -343,6 +379,212 @@ public class ResourceUtils
         return RelativeResourceHandler.DEFAULT_MAX_CACHE_SIZE;
     }
 
+    /**
+     * Checks the config parameter defined in {@link RelativeResourceHandler#TENANT_MAX_CACHE_SIZE_PARAM}
+     * from web.xml to get the max cache size of each tenant.
+     *
+     * @param facesContext
+     * @return
+     */
+    public static int getTenantMaxCacheSize(FacesContext facesContext)
+    {
+        String maxCacheParam = facesContext.getExternalContext()
+                .getInitParameter(RelativeResourceHandler.TENANT_MAX_CACHE_SIZE_PARAM);
+        if (maxCacheParam != null && maxCacheParam.trim().length() > 0)
+        {
+            try
+            {
+                return Integer.parseInt(maxCacheParam.trim());
+            }
+            catch (NumberFormatException e)
+            {
+                log.log(Level.SEVERE, "Could not parse config parameter " +
+                        RelativeResourceHandler.TENANT_MAX_CACHE_SIZE_PARAM +
+                        ", will use the default tenant cache size instead.", e);
+            }
+        }
+
+        // use a default quota derived from the max cache size
+        return RelativeResourceCache.getDefaultTenantCacheSize(getRelativeResourceMaxCacheSize(facesContext));
+    }
+
+    /**
+     * Checks the config parameter defined in {@link RelativeResourceHandler#DISK_CACHE_DIR_PARAM}
+     * from web.xml to get the directory of the disk cache.
+     *
+     * @param facesContext
+     * @return
+     */
+    public static File getDiskCacheDir(FacesContext facesContext)
+    {
+        String diskCacheDirParam = facesContext.getExternalContext()
+                .getInitParameter(RelativeResourceHandler.DISK_CACHE_DIR_PARAM);
+        if (diskCacheDirParam != null && diskCacheDirParam.trim().length() > 0)
+        {
+            return new File(diskCacheDirParam.trim());
+        }
+
+        // use default directory
+        return new File(getServletContextTmpDir(facesContext), RelativeResourceImpl.CACHE_BASE_DIR);
+    }
+
+    /**
+     * Checks the config parameter defined in {@link RelativeResourceHandler#DISK_CACHE_MAX_SIZE_PARAM}
+     * from web.xml to get the max size of the disk cache.
+     *
+     * @param facesContext
+     * @return
+     */
+    public static long getDiskCacheMaxSize(FacesContext facesContext)
+    {
+        String maxSizeParam = facesContext.getExternalContext()
+                .getInitParameter(RelativeResourceHandler.DISK_CACHE_MAX_SIZE_PARAM);
+        if (maxSizeParam != null && maxSizeParam.trim().length() > 0)
+        {
+            try
+            {
+                return Long.parseLong(maxSizeParam.trim());
+            }
+            catch (NumberFormatException e)
+            {
+                log.log(Level.SEVERE, "Could not parse config parameter " +
+                        RelativeResourceHandler.DISK_CACHE_MAX_SIZE_PARAM +
+                        ", will use default value (" +
+                        RelativeResourceHandler.DEFAULT_DISK_CACHE_MAX_SIZE + ") instead.", e);
+            }
+        }
+
+        // use default value
+        return RelativeResourceHandler.DEFAULT_DISK_CACHE_MAX_SIZE;
+    }
+
+    /**
+     * Checks the config parameter defined in {@link RelativeResourceHandler#IN_MEMORY_ARTIFACT_MAX_SIZE_PARAM}
+     * from web.xml to get the max size of artifacts, which are kept in memory instead of the disk cache.
+     *
+     * @param facesContext
+     * @return
+     */
+    public static int getInMemoryArtifactMaxSize(FacesContext facesContext)
+    {
+        String maxSizeParam = facesContext.getExternalContext()
+                .getInitParameter(RelativeResourceHandler.IN_MEMORY_ARTIFACT_MAX_SIZE_PARAM);
+        if (maxSizeParam != null && maxSizeParam.trim().length() > 0)
+        {
+            try
+            {
+                return Integer.parseInt(maxSizeParam.trim());
+            }
+            catch (NumberFormatException e)
+            {
+                log.log(Level.SEVERE, "Could not parse config parameter " +
+                        RelativeResourceHandler.IN_MEMORY_ARTIFACT_MAX_SIZE_PARAM +
+                        ", will use default value (" +
+                        RelativeResourceHandler.DEFAULT_IN_MEMORY_ARTIFACT_MAX_SIZE + ") instead.", e);
+            }
+        }
+
+        // use default value
+        return RelativeResourceHandler.DEFAULT_IN_MEMORY_ARTIFACT_MAX_SIZE;
+    }
+
+    /**
+     * Checks the config parameter defined in {@link RelativeResourceHandler#MAX_CONCURRENT_ARTIFACT_CREATIONS_PARAM}
+     * from web.xml to get the max number of concurrent artifact creations (default: number of available processors).
+     *
+     * @param facesContext
+     * @return
+     */
+    public static int getMaxConcurrentArtifactCreations(FacesContext facesContext)
+    {
+        int processors = Runtime.getRuntime().availableProcessors();
+        String maxParam = facesContext.getExternalContext()
+                .getInitParameter(RelativeResourceHandler.MAX_CONCURRENT_ARTIFACT_CREATIONS_PARAM);
+        if (maxParam != null && maxParam.trim().length() > 0)
+        {
+            try
+            {
+                int max = Integer.parseInt(maxParam.trim());
+                if (max > 0)
+                {
+                    return max;
+                }
+                log.log(Level.SEVERE, "Config parameter " +
+                        RelativeResourceHandler.MAX_CONCURRENT_ARTIFACT_CREATIONS_PARAM +
+                        " must be greater than 0, will use default value (" + processors + ") instead.");
+            }
+            catch (NumberFormatException e)
+            {
+                log.log(Level.SEVERE, "Could not parse config parameter " +
+                        RelativeResourceHandler.MAX_CONCURRENT_ARTIFACT_CREATIONS_PARAM +
+                        ", will use default value (" + processors + ") instead.", e);
+            }
+        }
+
+        // use default value
+        return processors;
+    }
+
+    /**
+     * Checks the config parameter defined in {@link RelativeResourceHandler#ASYNC_SERVING_ENABLED_PARAM}
+     * from web.xml to determine if relative resources should be served via Servlet 3.1 non-blocking I/O.
+     *
+     * @param facesContext
+     * @return
+     */
+    public static boolean isAsyncServingEnabled(FacesContext facesContext)
+    {
+        String asyncServingParam = facesContext.getExternalContext()
+                .getInitParameter(RelativeResourceHandler.ASYNC_SERVING_ENABLED_PARAM);
+
+        return asyncServingParam != null && Boolean.parseBoolean(asyncServingParam.trim());
+    }
+
+    /**
+     * Checks the config parameter defined in {@link RelativeResourceHandler#DEVELOPMENT_WATCHER_ENABLED_PARAM}
+     * from web.xml to determine if the resource directories should be watched in ProjectStage Development.
+     *
+     * @param facesContext
+     * @return
+     */
+    public static boolean isDevelopmentWatcherEnabled(FacesContext facesContext)
+    {
+        String watcherParam = facesContext.getExternalContext()
+                .getInitParameter(RelativeResourceHandler.DEVELOPMENT_WATCHER_ENABLED_PARAM);
+
+        return watcherParam == null || Boolean.parseBoolean(watcherParam.trim());
+    }
+
+    /**
+     * Checks the config parameter defined in {@link RelativeResourceHandler#PRELOAD_ENABLED_PARAM}
+     * from web.xml to determine if the resources referenced by a view should be announced via Link headers.
+     *
+     * @param facesContext
+     * @return
+     */
+    public static boolean isPreloadEnabled(FacesContext facesContext)
+    {
+        String preloadParam = facesContext.getExternalContext()
+                .getInitParameter(RelativeResourceHandler.PRELOAD_ENABLED_PARAM);
+
+        return preloadParam != null && Boolean.parseBoolean(preloadParam.trim());
+    }
+
+    /**
+     * Checks the config parameter defined in {@link RelativeResourceHandler#EARLY_HINTS_ENABLED_PARAM}
+     * from web.xml to determine if the Link headers should also be sent as 103 Early Hints.
+     *
+     * @param facesContext
+     * @return
+     */
+    public static boolean isEarlyHintsEnabled(FacesContext facesContext)
+    {
+        String earlyHintsParam = facesContext.getExternalContext()
+                .getInitParameter(RelativeResourceHandler.EARLY_HINTS_ENABLED_PARAM);
+
+        return earlyHintsParam != null && Boolean.parseBoolean(earlyHintsParam.trim());
+    }
+
     /**
      * Taken from MyFaces' ResourceLoaderUtils.
      *
@@ -489,6 +731,36 @@ public class ResourceUtils
         }
     }
 
+    /**
+     * Creates a buffer for {@link #pipeBytes(InputStream, OutputStream, byte[])}, which is sized according to the
+     * expected length of the content (e.g. InputStream.available()), but at least MIN_PIPE_BUFFER_SIZE and at
+     * most MAX_PIPE_BUFFER_SIZE bytes. Thus small resources are piped with a single read, while big resources
+     * do not allocate huge buffers.
+     *
+     * @param expectedLength the expected length of the content, or a value &lt;= 0 if unknown
+     * @return
+     */
+    public static byte[] createPipeBuffer(int expectedLength)
+    {
+        return new byte[Math.max(MIN_PIPE_BUFFER_SIZE, Math.min(expectedLength, MAX_PIPE_BUFFER_SIZE))];
+    }
+
+    /**
+     * Reads the remaining content of the given InputStream (without closing it). The buffers are sized according
+     * to InputStream.available(), thus most resources are read at once.
+     *
+     * @param inputStream
+     * @return
+     * @throws IOException
+     */
+    public static byte[] readBytes(InputStream inputStream) throws IOException
+    {
+        int expectedLength = inputStream.available();
+        ByteArrayOutputStream content = new ByteArrayOutputStream(Math.max(expectedLength, 32));
+        pipeBytes(inputStream, content, createPipeBuffer(expectedLength));
+        return content.toByteArray();
+    }
+
     /**
      * Removes leading and trailing slashes (= '/') from the given String.
      *
@@ -605,5 +877,210 @@ public class ResourceUtils
             return false;
         }
     }
-    
+
+    /**
+     * Parses the given Range header field value (RFC 7233, section 3.1) for a representation
+     * with the given length.
+     *
+     * Some examples of Range:
+     *
+     *     Range: bytes=0-499
+     *     Range: bytes=500-
+     *     Range: bytes=-500
+     *     Range: bytes=0-0, -1
+     *
+     * Overlapping and adjacent ranges are coalesced and returned in ascending order. If the ranges request more
+     * bytes than the representation has (which is only possible if they overlap), the header is ignored, because
+     * such requests only amplify the response (RFC 7233, section 6.1).
+     *
+     * @param rangeHeader
+     * @param contentLength
+     * @return the satisfiable ranges (an empty list if none of the ranges is satisfiable), or null if the header
+     *         must be ignored (syntactically invalid, unknown unit, too many ranges or excessive overlap).
+     */
+    public static List<ByteRange> parseRangeHeader(String rangeHeader, int contentLength)
+    {
+        if (rangeHeader == null)
+        {
+            return null;
+        }
+
+        rangeHeader = rangeHeader.trim();
+        if (!rangeHeader.regionMatches(true, 0, BYTES_RANGE_UNIT_PREFIX, 0, BYTES_RANGE_UNIT_PREFIX.length()))
+        {
+            return null;  // unknown range unit
+        }
+
+        String[] rangeSpecs = rangeHeader.substring(BYTES_RANGE_UNIT_PREFIX.length()).split(",");
+        if (rangeSpecs.length > MAX_BYTE_RANGES)
+        {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<ByteRange>(rangeSpecs.length);
+        for (String rangeSpec : rangeSpecs)
+        {
+            rangeSpec = rangeSpec.trim();
+            int dashIndex = rangeSpec.indexOf('-');
+            if (dashIndex == -1)
+            {
+                return null;
+            }
+
+            long first;
+            long last;
+            try
+            {
+                if (dashIndex == 0)
+                {
+                    // suffix-byte-range-spec (-500 --> the last 500 bytes)
+                    long suffixLength = Long.parseLong(rangeSpec.substring(1).trim());
+                    if (suffixLength < 0)
+                    {
+                        return null;
+                    }
+                    first = Math.max(0L, contentLength - suffixLength);
+                    last = contentLength - 1L;
+                    if (suffixLength == 0 || contentLength == 0)
+                    {
+                        continue;  // not satisfiable
+                    }
+                }
+                else
+                {
+                    // byte-range-spec (first-[last])
+                    first = Long.parseLong(rangeSpec.substring(0, dashIndex).trim());
+                    String lastString = rangeSpec.substring(dashIndex + 1).trim();
+                    last = (lastString.length() == 0 ? Long.MAX_VALUE : Long.parseLong(lastString));
+                    if (first < 0 || last < first)
+                    {
+                        return null;
+                    }
+                    if (first >= contentLength)
+                    {
+                        continue;  // not satisfiable
+                    }
+                    last = Math.min(last, contentLength - 1L);
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                return null;
+            }
+
+            ranges.add(new ByteRange((int) first, (int) last));
+        }
+
+        return coalesceRanges(ranges, contentLength);
+    }
+
+    /**
+     * Sorts the given satisfiable ranges and merges overlapping and adjacent ones.
+     *
+     * @param ranges
+     * @param contentLength
+     * @return the coalesced ranges, or null if the ranges request more bytes than the representation has.
+     */
+    private static List<ByteRange> coalesceRanges(List<ByteRange> ranges, int contentLength)
+    {
+        long requestedLength = 0L;
+        for (ByteRange range : ranges)
+        {
+            requestedLength += range.getLength();
+        }
+        if (requestedLength > contentLength)
+        {
+            return null;
+        }
+
+        List<ByteRange> sorted = new ArrayList<ByteRange>(ranges);
+        Collections.sort(sorted, new Comparator<ByteRange>()
+        {
+            public int compare(ByteRange range1, ByteRange range2)
+            {
+                return (range1.getFirst() < range2.getFirst() ? -1 : (range1.getFirst() == range2.getFirst() ? 0 : 1));
+            }
+        });
+
+        List<ByteRange> coalesced = new ArrayList<ByteRange>(sorted.size());
+        for (ByteRange range : sorted)
+        {
+            int lastIndex = coalesced.size() - 1;
+            if (lastIndex >= 0 && range.getFirst() <= coalesced.get(lastIndex).getLast() + 1)
+            {
+                ByteRange previous = coalesced.get(lastIndex);
+                coalesced.set(lastIndex, new ByteRange(previous.getFirst(),
+                        Math.max(previous.getLast(), range.getLast())));
+            }
+            else
+            {
+                coalesced.add(range);
+            }
+        }
+        return coalesced;
+    }
+
+    /**
+     * Creates a multipart/byteranges body (RFC 7233, appendix A) containing the given ranges of the content.
+     * The body is returned as sequence of buffers: the part headers and views of the ranges of the content
+     * (which are not copied).
+     *
+     * @param content
+     * @param ranges
+     * @param contentType the content type of the complete representation, may be null.
+     * @param boundary
+     * @return
+     */
+    public static ByteBuffer[] createMultipartByteRanges(ByteBuffer content, List<ByteRange> ranges,
+                                                         String contentType, String boundary)
+    {
+        int completeLength = content.remaining();
+        List<ByteBuffer> body = new ArrayList<ByteBuffer>(2 * ranges.size() + 1);
+
+        String delimiter = "";
+        for (ByteRange range : ranges)
+        {
+            StringBuilder partHeaders = new StringBuilder(delimiter);
+            partHeaders.append("--").append(boundary).append(CRLF);
+            if (contentType != null)
+            {
+                partHeaders.append("Content-Type: ").append(contentType).append(CRLF);
+            }
+            partHeaders.append("Content-Range: ").append(range.toContentRange(completeLength)).append(CRLF);
+            partHeaders.append(CRLF);
+            body.add(encodeAscii(partHeaders.toString()));
+
+            body.add(sliceRange(content, range));
+            delimiter = CRLF;
+        }
+        body.add(encodeAscii(delimiter + "--" + boundary + "--" + CRLF));
+
+        return body.toArray(new ByteBuffer[body.size()]);
+    }
+
+    /**
+     * Returns a view of the given content that only contains the given range.
+     *
+     * @param content
+     * @param range
+     * @return
+     */
+    public static ByteBuffer sliceRange(ByteBuffer content, ByteRange range)
+    {
+        ByteBuffer slice = content.duplicate();
+        slice.position(content.position() + range.getFirst());
+        slice.limit(content.position() + range.getLast() + 1);
+        return slice.slice();
+    }
+
+    private static ByteBuffer encodeAscii(String value)
+    {
+        byte[] bytes = new byte[value.length()];
+        for (int i = 0; i < value.length(); i++)
+        {
+            bytes[i] = (byte) value.charAt(i);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
 }
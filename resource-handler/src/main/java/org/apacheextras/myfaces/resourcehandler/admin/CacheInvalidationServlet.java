@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.admin;
+
+import org.apacheextras.myfaces.resourcehandler.RelativeResourceHandler;
+import org.apacheextras.myfaces.resourcehandler.ResourceId;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Optional servlet for invalidating relative resources at runtime (see
+ * {@link RelativeResourceHandler#invalidate(ResourceId)}). It only accepts POST requests with the following
+ * parameters:
+ * <ul>
+ *   <li>libraryName, resourceName and optionally localePrefix: invalidates a single resource</li>
+ *   <li>libraryName: invalidates all resources of the library</li>
+ *   <li>localePrefix: invalidates all resources of the locale</li>
+ *   <li>all=true: invalidates all resources</li>
+ * </ul>
+ *
+ * The servlet is not registered automatically. If it is mapped in web.xml, it MUST be protected
+ * by a security-constraint.
+ *
+ * @author Jakob Korherr
+ */
+public class CacheInvalidationServlet extends HttpServlet
+{
+
+    public static final String LIBRARY_NAME_PARAM = "libraryName";
+    public static final String RESOURCE_NAME_PARAM = "resourceName";
+    public static final String LOCALE_PREFIX_PARAM = "localePrefix";
+    public static final String ALL_PARAM = "all";
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException
+    {
+        // the ServletContext attributes are the ApplicationMap of JSF
+        RelativeResourceHandler relativeResourceHandler = (RelativeResourceHandler) getServletContext()
+                .getAttribute(RelativeResourceHandler.APPLICATION_MAP_KEY);
+        if (relativeResourceHandler == null)
+        {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "RelativeResourceHandler has not been initialized yet");
+            return;
+        }
+
+        String libraryName = getParameter(request, LIBRARY_NAME_PARAM);
+        String resourceName = getParameter(request, RESOURCE_NAME_PARAM);
+        String localePrefix = getParameter(request, LOCALE_PREFIX_PARAM);
+        boolean all = Boolean.parseBoolean(getParameter(request, ALL_PARAM));
+
+        int count;
+        if (resourceName != null && libraryName != null)
+        {
+            ResourceId resourceId = new ResourceId(resourceName, libraryName, localePrefix);
+            count = (relativeResourceHandler.invalidate(resourceId) ? 1 : 0);
+        }
+        else if (resourceName == null && libraryName != null && localePrefix == null)
+        {
+            count = relativeResourceHandler.invalidateLibrary(libraryName);
+        }
+        else if (resourceName == null && libraryName == null && localePrefix != null)
+        {
+            count = relativeResourceHandler.invalidateLocale(localePrefix);
+        }
+        else if (resourceName == null && libraryName == null && localePrefix == null && all)
+        {
+            count = relativeResourceHandler.invalidateAll();
+        }
+        else
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unsupported combination of parameters");
+            return;
+        }
+
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().print("Invalidated " + count + " cached relative resources");
+    }
+
+    private static String getParameter(HttpServletRequest request, String name)
+    {
+        String value = request.getParameter(name);
+        if (value == null || value.trim().length() == 0)
+        {
+            return null;
+        }
+        return value.trim();
+    }
+
+}
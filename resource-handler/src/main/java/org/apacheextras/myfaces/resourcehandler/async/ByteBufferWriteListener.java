@@ -0,0 +1,124 @@
+/*
+ * Copyright 2011-2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.async;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Servlet 3.1 WriteListener that writes the content of one or more ByteBuffers (e.g. the parts of a
+ * multipart/byteranges body) to the response without blocking the container thread. The AsyncContext is completed once all bytes have been written.
+ *
+ * @author Jakob Korherr
+ */
+public class ByteBufferWriteListener implements WriteListener
+{
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger log = Logger.getLogger(ByteBufferWriteListener.class.getName());
+
+    /**
+     * Max number of bytes written to the ServletOutputStream in one write() call.
+     */
+    public static final int CHUNK_SIZE = 8192;
+
+    private final AsyncContext asyncContext;
+    private final ServletOutputStream outputStream;
+    private final ByteBuffer[] contents;
+    private int current = 0;
+
+    /**
+     * Reused for every chunk of content without accessible array (e.g. a memory-mapped artifact).
+     */
+    private byte[] chunk;
+
+    public ByteBufferWriteListener(AsyncContext asyncContext, ServletOutputStream outputStream,
+                                   ByteBuffer... contents)
+    {
+        this.asyncContext = asyncContext;
+        this.outputStream = outputStream;
+
+        // use private views, so that the positions of the given buffers are not changed
+        this.contents = new ByteBuffer[contents.length];
+        for (int i = 0; i < contents.length; i++)
+        {
+            this.contents[i] = contents[i].duplicate();
+        }
+    }
+
+    /**
+     * Writes as many bytes as the container accepts without blocking.
+     * Called by the container (initially and) whenever the ServletOutputStream becomes ready again.
+     *
+     * @throws IOException
+     */
+    public void onWritePossible() throws IOException
+    {
+        while (outputStream.isReady())
+        {
+            while (current < contents.length && !contents[current].hasRemaining())
+            {
+                current++;
+            }
+            if (current == contents.length)
+            {
+                // we're done
+                asyncContext.complete();
+                return;
+            }
+
+            ByteBuffer content = contents[current];
+            int length = Math.min(content.remaining(), CHUNK_SIZE);
+            if (content.hasArray())
+            {
+                outputStream.write(content.array(), content.arrayOffset() + content.position(), length);
+                content.position(content.position() + length);
+            }
+            else
+            {
+                if (chunk == null || chunk.length < length)
+                {
+                    chunk = new byte[length];
+                }
+                content.get(chunk, 0, length);
+                outputStream.write(chunk, 0, length);
+            }
+        }
+
+        // isReady() returned false --> the container will call onWritePossible() again
+    }
+
+    public void onError(Throwable throwable)
+    {
+        // most likely the client closed the connection
+        log.log(Level.FINE, "Could not write resource to the client", throwable);
+
+        asyncContext.complete();
+    }
+
+}
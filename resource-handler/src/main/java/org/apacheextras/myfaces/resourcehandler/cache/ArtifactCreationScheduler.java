@@ -0,0 +1,198 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.cache;
+
+import org.apacheextras.myfaces.resourcehandler.ResourceUtils;
+
+import javax.faces.context.FacesContext;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the number of artifacts (processed and compressed versions of relative resources), which are created
+ * concurrently.
+ *
+ * Right after a deployment, a page with many relative resources leads to a burst of parallel resource requests,
+ * each of them creating the artifacts of its resource. Requests for the same resource already share one
+ * initialization (the RelativeResource instance is cached per ResourceId and initialized only once), however
+ * requests for different resources would compress (and evaluate) their resources all at once. Thus the artifacts
+ * are only created in a slot (by default one per processor). If no slot is free, an unprocessed resource is served
+ * uncompressed and its compressed version is created by a later request. A processed resource cannot be served
+ * without its processed version, thus it waits for a slot and only its compression is deferred
+ * (see RelativeResourceImpl).
+ *
+ * The slots are reentrant per thread: the artifacts of other resources, which are created while a slot is held
+ * (e.g. by the el-evaluation of a stylesheet referencing another resource), use the slot of the current thread.
+ * Otherwise waiting for a slot could deadlock.
+ *
+ * The max number of slots can be configured in web.xml (see
+ * {@link org.apacheextras.myfaces.resourcehandler.RelativeResourceHandler#MAX_CONCURRENT_ARTIFACT_CREATIONS_PARAM}).
+ *
+ * @author Jakob Korherr
+ */
+public class ArtifactCreationScheduler
+{
+
+    /**
+     * ApplicationMap key for the ArtifactCreationScheduler of the current application.
+     */
+    private static final String APPLICATION_MAP_KEY = ArtifactCreationScheduler.class.getName();
+
+    /**
+     * Guards the creation of the ArtifactCreationScheduler of an application.
+     */
+    private static final ReentrantLock INSTANCE_LOCK = new ReentrantLock();
+
+    private final int maxConcurrentCreations;
+    private final Semaphore slots;
+
+    /**
+     * Number of (reentrant) acquisitions of the slot held by the current thread.
+     */
+    private final ThreadLocal<Integer> heldSlots = new ThreadLocal<Integer>();
+
+    /**
+     * Creates an ArtifactCreationScheduler with the given number of slots.
+     *
+     * @param maxConcurrentCreations
+     */
+    public ArtifactCreationScheduler(int maxConcurrentCreations)
+    {
+        if (maxConcurrentCreations <= 0)
+        {
+            throw new IllegalArgumentException("maxConcurrentCreations must be greater than 0");
+        }
+
+        this.maxConcurrentCreations = maxConcurrentCreations;
+        this.slots = new Semaphore(maxConcurrentCreations);
+    }
+
+    /**
+     * Returns the ArtifactCreationScheduler of the current application.
+     *
+     * @param facesContext
+     * @return
+     */
+    public static ArtifactCreationScheduler getInstance(FacesContext facesContext)
+    {
+        Map<String, Object> applicationMap = facesContext.getExternalContext().getApplicationMap();
+
+        ArtifactCreationScheduler scheduler = (ArtifactCreationScheduler) applicationMap.get(APPLICATION_MAP_KEY);
+        if (scheduler == null)
+        {
+            INSTANCE_LOCK.lock();
+            try
+            {
+                scheduler = (ArtifactCreationScheduler) applicationMap.get(APPLICATION_MAP_KEY);
+                if (scheduler == null)
+                {
+                    scheduler = new ArtifactCreationScheduler(
+                            ResourceUtils.getMaxConcurrentArtifactCreations(facesContext));
+                    applicationMap.put(APPLICATION_MAP_KEY, scheduler);
+                }
+            }
+            finally
+            {
+                INSTANCE_LOCK.unlock();
+            }
+        }
+
+        return scheduler;
+    }
+
+    public int getMaxConcurrentCreations()
+    {
+        return maxConcurrentCreations;
+    }
+
+    /**
+     * Returns the number of currently free slots.
+     *
+     * @return
+     */
+    public int getAvailableSlots()
+    {
+        return slots.availablePermits();
+    }
+
+    /**
+     * Acquires a slot without waiting. If true is returned, the caller must call {@link #release()} after the
+     * artifacts have been created.
+     *
+     * @return true if a slot has been acquired, false if all slots are in use
+     */
+    public boolean tryAcquire()
+    {
+        if (reenter())
+        {
+            return true;
+        }
+        if (slots.tryAcquire())
+        {
+            heldSlots.set(1);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Acquires a slot, waiting until one is free. The caller must call {@link #release()} after the artifacts
+     * have been created. It must not hold the lock of a resource while waiting (see RelativeResourceImpl).
+     */
+    public void acquire()
+    {
+        if (!reenter())
+        {
+            slots.acquireUninterruptibly();
+            heldSlots.set(1);
+        }
+    }
+
+    /**
+     * Releases a slot acquired by {@link #tryAcquire()} or {@link #acquire()}.
+     */
+    public void release()
+    {
+        Integer held = heldSlots.get();
+        if (held != null && held > 1)
+        {
+            heldSlots.set(held - 1);
+        }
+        else
+        {
+            heldSlots.remove();
+            slots.release();
+        }
+    }
+
+    private boolean reenter()
+    {
+        Integer held = heldSlots.get();
+        if (held == null)
+        {
+            return false;
+        }
+        heldSlots.set(held + 1);
+        return true;
+    }
+
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent manifest of the artifacts in the disk cache. For every cached resource (variant) it stores
+ * the source the artifacts were created from (url, last modified timestamp, size and SHA-1 digest of the content),
+ * the url-version, a hash of the processing configuration, the digest of the processed content (which identifies the
+ * shared artifacts in the DiskArtifactCache) and the size of the artifacts. Thus, after a restart, artifacts of
+ * unchanged resources can be reused, while artifacts of changed resources are recreated.
+ *
+ * The manifest is an append-only file in the cache directory (one line per entry, the last entry for a key wins,
+ * a line containing only the key removes the entry), which is memory-mapped and compacted when it is loaded.
+ * Incomplete lines (e.g. after a crash) are ignored.
+ *
+ * @author Jakob Korherr
+ */
+public class ArtifactManifest
+{
+
+    private static final Logger log = Logger.getLogger(ArtifactManifest.class.getName());
+
+    /**
+     * Name of the manifest file in the cache directory.
+     */
+    public static final String MANIFEST_FILE_NAME = ".manifest";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String FIELD_SEPARATOR = "\t";
+
+    private static final int FIELD_COUNT = 9;
+
+    private final File file;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Serializes the writes to the manifest file.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    public ArtifactManifest(File file)
+    {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Returns the entry for the given key (the path of the resource variant in the cache directory),
+     * or null if no such entry exists.
+     *
+     * @param key
+     * @return
+     */
+    public Entry getEntry(String key)
+    {
+        return entries.get(key);
+    }
+
+    /**
+     * Stores the given entry and appends it to the manifest file.
+     *
+     * @param key
+     * @param entry
+     * @throws IOException
+     */
+    public void putEntry(String key, Entry entry) throws IOException
+    {
+        writeLock.lock();
+        try
+        {
+            entries.put(key, entry);
+            append(format(key, entry));
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the entry for the given key.
+     *
+     * @param key
+     * @throws IOException
+     */
+    public void removeEntry(String key) throws IOException
+    {
+        writeLock.lock();
+        try
+        {
+            if (entries.remove(key) != null)
+            {
+                append(key + "\n");
+            }
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns all entries.
+     *
+     * @return
+     */
+    public Map<String, Entry> getEntries()
+    {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    private void append(String line) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        FileOutputStream outputStream = new FileOutputStream(file, true);
+        try
+        {
+            // a single write, thus a crash can only leave an incomplete last line
+            outputStream.write(line.getBytes(UTF_8));
+        }
+        finally
+        {
+            outputStream.close();
+        }
+    }
+
+    private void load()
+    {
+        if (!file.isFile())
+        {
+            return;
+        }
+
+        int lineCount = 0;
+        try
+        {
+            String content = UTF_8.decode(map(file)).toString();
+
+            int start = 0;
+            int end;
+            while ((end = content.indexOf('\n', start)) != -1)  // ignore an incomplete last line
+            {
+                lineCount++;
+                String[] fields = content.substring(start, end).split(FIELD_SEPARATOR, -1);
+                start = end + 1;
+
+                if (fields.length == 1)
+                {
+                    entries.remove(fields[0]);  // removed entry
+                    continue;
+                }
+                if (fields.length != FIELD_COUNT)
+                {
+                    continue;  // corrupt line
+                }
+                try
+                {
+                    entries.put(fields[0], new Entry(fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+                            fields[4], fields[5], fields[6], fields[7], Long.parseLong(fields[8])));
+                }
+                catch (NumberFormatException e)
+                {
+                    // corrupt line
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            log.log(Level.WARNING, "Could not read artifact manifest " + file + ", all artifacts will be recreated", e);
+            entries.clear();
+            return;
+        }
+
+        if (lineCount > entries.size())
+        {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the manifest file with only the current entries.
+     */
+    private void compact()
+    {
+        writeLock.lock();
+        try
+        {
+            StringBuilder content = new StringBuilder();
+            for (Map.Entry<String, Entry> entry : entries.entrySet())
+            {
+                content.append(format(entry.getKey(), entry.getValue()));
+            }
+
+            ArtifactUtils.writeAtomically(file, content.toString().getBytes(UTF_8));
+        }
+        catch (IOException e)
+        {
+            log.log(Level.WARNING, "Could not compact artifact manifest " + file, e);
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException
+    {
+        FileInputStream inputStream = new FileInputStream(file);
+        try
+        {
+            FileChannel channel = inputStream.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally
+        {
+            // the mapping stays valid after the channel is closed
+            inputStream.close();
+        }
+    }
+
+    private static String format(String key, Entry entry)
+    {
+        return key + FIELD_SEPARATOR + entry.getSourceUrl()
+                + FIELD_SEPARATOR + entry.getLastModified()
+                + FIELD_SEPARATOR + entry.getSourceLength()
+                + FIELD_SEPARATOR + entry.getSourceDigest()
+                + FIELD_SEPARATOR + entry.getUrlVersion()
+                + FIELD_SEPARATOR + entry.getConfigHash()
+                + FIELD_SEPARATOR + entry.getContentDigest()
+                + FIELD_SEPARATOR + entry.getArtifactLength() + "\n";
+    }
+
+    /**
+     * DTO representing the state of the source of a cached resource (variant) and the configuration
+     * that was used to create its artifacts.
+     */
+    public static class Entry
+    {
+
+        private final String sourceUrl;
+        private final long lastModified;
+        private final long sourceLength;
+        private final String sourceDigest;
+        private final String urlVersion;
+        private final String configHash;
+        private final String contentDigest;
+        private final long artifactLength;
+
+        public Entry(String sourceUrl, long lastModified, long sourceLength, String sourceDigest,
+                     String urlVersion, String configHash, String contentDigest, long artifactLength)
+        {
+            this.sourceUrl = sourceUrl;
+            this.lastModified = lastModified;
+            this.sourceLength = sourceLength;
+            this.sourceDigest = sourceDigest;
+            this.urlVersion = urlVersion;
+            this.configHash = configHash;
+            this.contentDigest = contentDigest;
+            this.artifactLength = artifactLength;
+        }
+
+        public String getSourceUrl()
+        {
+            return sourceUrl;
+        }
+
+        public long getLastModified()
+        {
+            return lastModified;
+        }
+
+        public long getSourceLength()
+        {
+            return sourceLength;
+        }
+
+        public String getSourceDigest()
+        {
+            return sourceDigest;
+        }
+
+        public String getUrlVersion()
+        {
+            return urlVersion;
+        }
+
+        public String getConfigHash()
+        {
+            return configHash;
+        }
+
+        /**
+         * Returns the digest of the processed content (i.e. the output of the processing chain),
+         * which identifies the artifacts in the DiskArtifactCache.
+         *
+         * @return
+         */
+        public String getContentDigest()
+        {
+            return contentDigest;
+        }
+
+        /**
+         * Returns the total size of all artifacts of the resource (variant) in bytes.
+         *
+         * @return
+         */
+        public long getArtifactLength()
+        {
+            return artifactLength;
+        }
+
+        /**
+         * Returns true if the artifacts were created from the given source with the given configuration.
+         * The content of the source is not checked.
+         *
+         * @param sourceUrl
+         * @param urlVersion
+         * @param configHash
+         * @return
+         */
+        public boolean matches(String sourceUrl, String urlVersion, String configHash)
+        {
+            return this.sourceUrl.equals(sourceUrl)
+                    && this.urlVersion.equals(urlVersion)
+                    && this.configHash.equals(configHash);
+        }
+
+    }
+
+}
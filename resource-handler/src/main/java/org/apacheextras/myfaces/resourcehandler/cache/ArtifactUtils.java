@@ -0,0 +1,257 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.cache;
+
+import org.apacheextras.myfaces.resourcehandler.ResourceUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Utility methods for the artifacts (e.g. compressed versions of resources) in the disk cache.
+ *
+ * Artifacts are written to a temp file in the target directory first and then published with an atomic move,
+ * thus readers never see a partially written artifact. Each artifact has a sidecar file containing its length
+ * and its SHA-1 digest, which is written (and published) before the artifact itself. An artifact is only valid
+ * if it matches its sidecar, thus an artifact from a crashed or concurrent write is detected and recreated.
+ *
+ * @author Jakob Korherr
+ */
+public class ArtifactUtils
+{
+
+    private static final Logger log = Logger.getLogger(ArtifactUtils.class.getName());
+
+    /**
+     * Suffix of the sidecar file containing the length and the digest of an artifact.
+     */
+    public static final String CHECKSUM_FILE_SUFFIX = ".checksum";
+
+    /**
+     * Suffix of the temp files, which are used while writing artifacts.
+     */
+    public static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Writes the given content to the given target file (and its checksum to the sidecar file)
+     * using a temp file and an atomic move.
+     *
+     * @param target
+     * @param content
+     * @throws IOException
+     */
+    public static void publish(File target, byte[] content) throws IOException
+    {
+        // publish the sidecar first: if we crash before the artifact is published,
+        // the old artifact does not match the new checksum and will be recreated.
+        byte[] checksum = (content.length + " " + digest(content)).getBytes("US-ASCII");
+        writeAtomically(getChecksumFile(target), checksum);
+        writeAtomically(target, content);
+    }
+
+    /**
+     * Writes the given content to the given target file using a temp file and an atomic move.
+     *
+     * @param target
+     * @param content
+     * @throws IOException
+     */
+    static void writeAtomically(File target, byte[] content) throws IOException
+    {
+        File directory = target.getParentFile();
+        directory.mkdirs();  // ensure necessary directories exist
+
+        moveAtomically(writeTempFile(directory, target.getName(), content), target);
+    }
+
+    /**
+     * Returns true if the given artifact exists and matches the length and digest stored in its sidecar file.
+     *
+     * @param target
+     * @return
+     */
+    public static boolean isValid(File target)
+    {
+        File checksumFile = getChecksumFile(target);
+        if (!target.isFile() || !checksumFile.isFile())
+        {
+            return false;
+        }
+
+        try
+        {
+            String[] checksum = new String(readFile(checksumFile), "US-ASCII").trim().split(" ");
+            if (checksum.length != 2 || target.length() != Long.parseLong(checksum[0]))
+            {
+                return false;
+            }
+
+            return checksum[1].equals(digest(readFile(target)));
+        }
+        catch (NumberFormatException e)
+        {
+            return false;
+        }
+        catch (IOException e)
+        {
+            log.log(Level.FINE, "Could not validate artifact " + target, e);
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the given artifact and its sidecar file.
+     *
+     * @param target
+     */
+    public static void delete(File target)
+    {
+        target.delete();
+        getChecksumFile(target).delete();
+    }
+
+    /**
+     * Returns the hex encoded SHA-1 digest of the given content.
+     *
+     * @param content
+     * @return
+     */
+    public static String digest(byte[] content)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance(DIGEST_ALGORITHM).digest(content);
+
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++)
+            {
+                hex[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+                hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+            }
+            return new String(hex);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // every Java platform must support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the hex encoded SHA-1 digest of the UTF-8 encoded given String (not of the platform charset, otherwise
+     * the digest of a non-ASCII String would differ between servers and invalidate the ArtifactManifest).
+     *
+     * @param content
+     * @return
+     */
+    public static String digest(String content)
+    {
+        try
+        {
+            return digest(content.getBytes("UTF-8"));
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // every Java platform must support UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static File getChecksumFile(File target)
+    {
+        return new File(target.getPath() + CHECKSUM_FILE_SUFFIX);
+    }
+
+    private static File writeTempFile(File directory, String prefix, byte[] content) throws IOException
+    {
+        // unique name, thus concurrent writers of the same artifact do not interfere
+        File tempFile = File.createTempFile(prefix, TEMP_FILE_SUFFIX, directory);
+
+        FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+        try
+        {
+            fileOutputStream.write(content);
+            fileOutputStream.getFD().sync();  // ensure the content is on disk before it is published
+        }
+        catch (IOException e)
+        {
+            fileOutputStream.close();
+            tempFile.delete();
+            throw e;
+        }
+        fileOutputStream.close();
+
+        return tempFile;
+    }
+
+    private static void moveAtomically(File source, File target) throws IOException
+    {
+        try
+        {
+            try
+            {
+                Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                // best effort on file systems without atomic moves
+                Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException e)
+        {
+            source.delete();
+            throw e;
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) file.length());
+        InputStream inputStream = new FileInputStream(file);
+        try
+        {
+            ResourceUtils.pipeBytes(inputStream, outputStream, new byte[4096]);
+        }
+        finally
+        {
+            inputStream.close();
+        }
+        return outputStream.toByteArray();
+    }
+
+}
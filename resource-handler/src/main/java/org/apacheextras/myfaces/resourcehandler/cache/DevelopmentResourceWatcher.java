@@ -0,0 +1,414 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.cache;
+
+import com.google.common.base.Predicate;
+import org.apacheextras.myfaces.resourcehandler.ResourceId;
+import org.apacheextras.myfaces.resourcehandler.ResourceUtils;
+import org.apacheextras.myfaces.resourcehandler.config.Bundle;
+import org.apacheextras.myfaces.resourcehandler.config.Library;
+import org.apacheextras.myfaces.resourcehandler.config.RelativeResourceHandlerConfig;
+import org.apacheextras.myfaces.resourcehandler.provider.ClassPathResourceProvider;
+import org.apacheextras.myfaces.resourcehandler.provider.WebappResourceProvider;
+
+import javax.faces.context.FacesContext;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the directories of the configured libraries (on the file system) in ProjectStage Development
+ * and invalidates the affected entries of the RelativeResourceCache (and thus their artifacts) when a resource file
+ * is created, changed or deleted.
+ *
+ * The watcher uses a daemon thread, which stops as soon as the RelativeResourceCache has been garbage collected
+ * (e.g. after the application has been undeployed).
+ *
+ * @author Jakob Korherr
+ */
+public class DevelopmentResourceWatcher implements Runnable
+{
+
+    private static final Logger log = Logger.getLogger(DevelopmentResourceWatcher.class.getName());
+
+    /**
+     * ApplicationMap key indicating that a DevelopmentResourceWatcher is active for the current application.
+     */
+    private static final String ACTIVE_KEY = DevelopmentResourceWatcher.class.getName() + ".ACTIVE";
+
+    /**
+     * Timeout for polling the WatchService, after which the thread checks if it should stop.
+     */
+    private static final long POLL_TIMEOUT_MILLIS = 1000L;
+
+    private final WatchService watchService;
+    private final RelativeResourceHandlerConfig config;
+    private final WeakReference<RelativeResourceCache> cacheReference;
+
+    /**
+     * The registered directories (and the root directory they belong to) per WatchKey.
+     */
+    private final Map<WatchKey, Registration> registrations = new ConcurrentHashMap<WatchKey, Registration>();
+
+    public DevelopmentResourceWatcher(RelativeResourceHandlerConfig config, RelativeResourceCache cache)
+            throws IOException
+    {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.config = config;
+        this.cacheReference = new WeakReference<RelativeResourceCache>(cache);
+    }
+
+    /**
+     * Starts a DevelopmentResourceWatcher for the directories of all configured libraries.
+     *
+     * @param facesContext
+     * @param config
+     * @param cache
+     * @return the started watcher, or null if it could not be started
+     */
+    public static DevelopmentResourceWatcher start(FacesContext facesContext, RelativeResourceHandlerConfig config,
+                                                   RelativeResourceCache cache)
+    {
+        try
+        {
+            DevelopmentResourceWatcher watcher = new DevelopmentResourceWatcher(config, cache);
+            for (Library library : config.getLibraries())
+            {
+                watcher.registerLibrary(facesContext, library);
+            }
+
+            Thread thread = new Thread(watcher, "RelativeResourceHandler-DevelopmentResourceWatcher");
+            thread.setDaemon(true);
+            thread.start();
+
+            facesContext.getExternalContext().getApplicationMap().put(ACTIVE_KEY, Boolean.TRUE);
+            return watcher;
+        }
+        catch (IOException e)
+        {
+            log.log(Level.WARNING, "Could not start DevelopmentResourceWatcher, "
+                    + "resources will always be re-sent in ProjectStage Development", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if a DevelopmentResourceWatcher is active for the current application.
+     *
+     * @param facesContext
+     * @return
+     */
+    public static boolean isActive(FacesContext facesContext)
+    {
+        return Boolean.TRUE.equals(facesContext.getExternalContext().getApplicationMap().get(ACTIVE_KEY));
+    }
+
+    /**
+     * Registers the directories, in which the resource files of the given library are located.
+     * Libraries with a custom ResourceProvider and resources in jar files are not watched.
+     *
+     * @param facesContext
+     * @param library
+     * @throws IOException
+     */
+    public void registerLibrary(FacesContext facesContext, Library library) throws IOException
+    {
+        if (library.getResourceProvider() != null || library.getLocationType() == Library.LocationType.EXTERNAL)
+        {
+            return;  // unknown location or no files
+        }
+
+        if (library.getLocationType() == null)
+        {
+            // default locations (containing the library name)
+            registerClassPathDirectories(ClassPathResourceProvider.CLASSPATH_META_INF_RESOURCES, null);
+            registerWebappDirectory(facesContext, WebappResourceProvider.WEBAPP_META_INF_RESOURCES, null);
+            registerWebappDirectory(facesContext, WebappResourceProvider.WEBAPP_RESOURCES, null);
+        }
+        else if (library.getLocationType() == Library.LocationType.CLASSPATH)
+        {
+            registerClassPathDirectories(library.getLocation(), library.getName());
+        }
+        else if (library.getLocationType() == Library.LocationType.WEBAPP)
+        {
+            registerWebappDirectory(facesContext, library.getLocation(), library.getName());
+        }
+    }
+
+    /**
+     * Registers the given directory and all its sub directories.
+     *
+     * @param root
+     * @param libraryName the name of the library, if the directory only contains resources of this library,
+     *                    or null if the paths of the resources in the directory start with the library name
+     * @throws IOException
+     */
+    public void registerDirectory(File root, String libraryName) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            registerRecursively(root.toPath(), root.toPath(), libraryName);
+        }
+    }
+
+    public void run()
+    {
+        try
+        {
+            while (cacheReference.get() != null)
+            {
+                WatchKey key = watchService.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null)
+                {
+                    processEvents(key);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ClosedWatchServiceException e)
+        {
+            // stopped
+        }
+        finally
+        {
+            close();
+        }
+    }
+
+    /**
+     * Stops watching.
+     */
+    public void close()
+    {
+        try
+        {
+            watchService.close();
+        }
+        catch (IOException e)
+        {
+            log.log(Level.FINE, "Could not close WatchService", e);
+        }
+    }
+
+    private void processEvents(WatchKey key)
+    {
+        Registration registration = registrations.get(key);
+        for (WatchEvent<?> event : key.pollEvents())
+        {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || registration == null)
+            {
+                // events have been lost
+                invalidate(null, null);
+                continue;
+            }
+
+            Path changed = registration.directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed))
+            {
+                try
+                {
+                    registerRecursively(changed, registration.root, registration.libraryName);
+                }
+                catch (IOException e)
+                {
+                    log.log(Level.WARNING, "Could not watch directory " + changed, e);
+                }
+            }
+
+            invalidate(registration.libraryName, toResourcePath(registration.root.relativize(changed)));
+        }
+
+        if (!key.reset())
+        {
+            registrations.remove(key);  // directory has been deleted
+        }
+    }
+
+    /**
+     * Invalidates all cached resources, which are affected by the change of the given path.
+     *
+     * @param libraryName
+     * @param path path relative to the root directory, or null to invalidate all resources
+     */
+    void invalidate(final String libraryName, final String path)
+    {
+        RelativeResourceCache cache = cacheReference.get();
+        if (cache == null)
+        {
+            return;
+        }
+
+        int count = cache.invalidateAll(new Predicate<ResourceId>()
+        {
+            public boolean apply(ResourceId resourceId)
+            {
+                return path == null || isAffected(resourceId, libraryName, path);
+            }
+        });
+
+        if (log.isLoggable(Level.FINE))
+        {
+            log.fine("Invalidated " + count + " resources after change of " + path);
+        }
+    }
+
+    private boolean isAffected(ResourceId resourceId, String libraryName, String path)
+    {
+        if (libraryName != null && !libraryName.equals(resourceId.getLibraryName()))
+        {
+            return false;
+        }
+
+        List<String> resourceNames = new ArrayList<String>();
+        String resourceName = ResourceUtils.trimSlashes(resourceId.getResourceName());
+        resourceNames.add(resourceName);
+
+        // a bundle is affected by changes of its resources
+        Library library = (resourceId.getLibraryName() == null
+                ? null : config.getLibraryByTrimmedName(resourceId.getLibraryName()));
+        Bundle bundle = (library == null ? null : library.getBundle(resourceName));
+        if (bundle != null)
+        {
+            resourceNames.addAll(bundle.getResourceNames());
+        }
+
+        for (String name : resourceNames)
+        {
+            String filePath = (libraryName == null ? resourceId.getLibraryName() + "/" + name : name);
+            if (isFilePath(path, filePath) || isFilePath(filePath, path))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the given path is the given file path, with an optional locale prefix
+     * (or a parent directory of it, as the file path is passed as path if a directory is deleted).
+     */
+    private static boolean isFilePath(String path, String filePath)
+    {
+        if (path.equals(filePath) || filePath.startsWith(path + "/"))
+        {
+            return true;
+        }
+
+        int slashIndex = path.indexOf('/');
+        return slashIndex != -1 && path.substring(slashIndex + 1).equals(filePath);
+    }
+
+    private void registerClassPathDirectories(String location, String libraryName) throws IOException
+    {
+        Enumeration<URL> urls = ResourceUtils.getContextClassLoader().getResources(ResourceUtils.trimSlashes(location));
+        while (urls.hasMoreElements())
+        {
+            URL url = urls.nextElement();
+            if ("file".equals(url.getProtocol()))  // resources in jar files do not change
+            {
+                try
+                {
+                    registerDirectory(new File(url.toURI()), libraryName);
+                }
+                catch (URISyntaxException e)
+                {
+                    log.log(Level.WARNING, "Could not watch directory " + url, e);
+                }
+            }
+        }
+    }
+
+    private void registerWebappDirectory(FacesContext facesContext, String location, String libraryName)
+            throws IOException
+    {
+        String realPath = facesContext.getExternalContext().getRealPath(location.startsWith("/")
+                ? location : "/" + location);
+        if (realPath != null)  // e.g. null for unpacked wars
+        {
+            registerDirectory(new File(realPath), libraryName);
+        }
+    }
+
+    private void registerRecursively(Path directory, Path root, String libraryName) throws IOException
+    {
+        WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        registrations.put(key, new Registration(directory, root, libraryName));
+
+        File[] children = directory.toFile().listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                if (child.isDirectory())
+                {
+                    registerRecursively(child.toPath(), root, libraryName);
+                }
+            }
+        }
+    }
+
+    private static String toResourcePath(Path path)
+    {
+        return path.toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * A registered directory.
+     */
+    private static final class Registration
+    {
+
+        private final Path directory;
+        private final Path root;
+        private final String libraryName;
+
+        private Registration(Path directory, Path root, String libraryName)
+        {
+            this.directory = directory;
+            this.root = root;
+            this.libraryName = libraryName;
+        }
+
+    }
+
+}
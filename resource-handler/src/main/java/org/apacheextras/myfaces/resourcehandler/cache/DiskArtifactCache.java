@@ -0,0 +1,461 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.cache;
+
+import com.google.common.base.Predicate;
+import org.apacheextras.myfaces.resourcehandler.ResourceUtils;
+
+import javax.faces.context.FacesContext;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Disk cache for the artifacts of relative resources (e.g. processed and compressed versions).
+ *
+ * The artifacts are stored content-addressed (by the digest of the processed content), thus resource variants with
+ * identical content (e.g. several locales of a resource, whose el-evaluation output does not depend on the locale)
+ * share a single copy of their artifacts. The keys of the resource variants reference their content via the
+ * ArtifactManifest, the artifacts of a content are deleted when it is no longer referenced.
+ *
+ * The cache directory and its max size can be configured in web.xml (see
+ * {@link org.apacheextras.myfaces.resourcehandler.RelativeResourceHandler#DISK_CACHE_DIR_PARAM} and
+ * {@link org.apacheextras.myfaces.resourcehandler.RelativeResourceHandler#DISK_CACHE_MAX_SIZE_PARAM}).
+ * If the max size is exceeded, the least recently accessed keys are removed until enough artifacts are deleted.
+ *
+ * The index of the cache (content references, sizes and access order) is kept in memory. It is initialized from the
+ * ArtifactManifest (without walking the cache directory), thus the access order of the previous run is not known
+ * after a restart.
+ *
+ * @author Jakob Korherr
+ */
+public class DiskArtifactCache
+{
+
+    private static final Logger log = Logger.getLogger(DiskArtifactCache.class.getName());
+
+    /**
+     * Suffix for compressed artifacts.
+     */
+    public static final String COMPRESSED_FILE_SUFFIX = ".gzip";
+
+    /**
+     * Suffix for artifacts created by the processing chain.
+     */
+    public static final String PROCESSED_FILE_SUFFIX = ".processed";
+
+    /**
+     * Sub directory of the cache directory, which contains the (content-addressed) artifacts.
+     */
+    public static final String CONTENT_DIR = ".content";
+
+    /**
+     * ApplicationMap key for the DiskArtifactCache of the current application.
+     */
+    private static final String APPLICATION_MAP_KEY = DiskArtifactCache.class.getName();
+
+    private static final String[] ARTIFACT_SUFFIXES = { PROCESSED_FILE_SUFFIX, COMPRESSED_FILE_SUFFIX };
+
+    /**
+     * Guards the creation of the DiskArtifactCache of an application (which reads the manifest).
+     */
+    private static final ReentrantLock INSTANCE_LOCK = new ReentrantLock();
+
+    private final File directory;
+    private final long maxSize;
+    private final ArtifactManifest manifest;
+
+    /**
+     * Guards the index, the contents and the size. It is held while artifacts are deleted and the manifest is
+     * written (see the locking policy in RelativeResourceHandler).
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Content digest per key in access order (guarded by lock).
+     */
+    private final LinkedHashMap<String, String> index = new LinkedHashMap<String, String>(16, 0.75f, true);
+
+    /**
+     * Referenced contents per content digest (guarded by lock).
+     */
+    private final Map<String, Content> contents = new HashMap<String, Content>();
+    private long size = 0L;
+
+    /**
+     * Creates a DiskArtifactCache for the given directory.
+     *
+     * @param directory
+     * @param maxSize max size in bytes, or a value &lt;= 0 for an unlimited cache
+     */
+    public DiskArtifactCache(File directory, long maxSize)
+    {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.manifest = new ArtifactManifest(new File(directory, ArtifactManifest.MANIFEST_FILE_NAME));
+
+        for (Map.Entry<String, ArtifactManifest.Entry> entry : manifest.getEntries().entrySet())
+        {
+            index.put(entry.getKey(), entry.getValue().getContentDigest());
+            reference(entry.getValue().getContentDigest(), entry.getValue().getArtifactLength());
+        }
+        evict(null);
+    }
+
+    /**
+     * Returns the DiskArtifactCache of the application with the given ApplicationMap,
+     * or null if it has not been created yet.
+     *
+     * @param applicationMap
+     * @return
+     */
+    public static DiskArtifactCache getExistingInstance(Map<String, Object> applicationMap)
+    {
+        return (DiskArtifactCache) applicationMap.get(APPLICATION_MAP_KEY);
+    }
+
+    /**
+     * Returns the DiskArtifactCache of the current application.
+     *
+     * @param facesContext
+     * @return
+     */
+    public static DiskArtifactCache getInstance(FacesContext facesContext)
+    {
+        Map<String, Object> applicationMap = facesContext.getExternalContext().getApplicationMap();
+
+        DiskArtifactCache cache = (DiskArtifactCache) applicationMap.get(APPLICATION_MAP_KEY);
+        if (cache == null)
+        {
+            INSTANCE_LOCK.lock();
+            try
+            {
+                cache = (DiskArtifactCache) applicationMap.get(APPLICATION_MAP_KEY);
+                if (cache == null)
+                {
+                    cache = new DiskArtifactCache(ResourceUtils.getDiskCacheDir(facesContext),
+                            ResourceUtils.getDiskCacheMaxSize(facesContext));
+                    applicationMap.put(APPLICATION_MAP_KEY, cache);
+                }
+            }
+            finally
+            {
+                INSTANCE_LOCK.unlock();
+            }
+        }
+
+        return cache;
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Returns the current size of all (distinct) artifacts in bytes.
+     *
+     * @return
+     */
+    public long getSize()
+    {
+        lock.lock();
+        try
+        {
+            return size;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the artifact file with the given suffix of the content referenced by the given key,
+     * or null if the key does not exist.
+     *
+     * @param key
+     * @param suffix
+     * @return
+     */
+    public File getFile(String key, String suffix)
+    {
+        ArtifactManifest.Entry entry = manifest.getEntry(key);
+        return (entry == null ? null : getContentFile(entry.getContentDigest(), suffix));
+    }
+
+    /**
+     * Opens the artifact file with the given suffix of the content referenced by the given key. In contrast to
+     * {@link #getFile(String, String)}, the file is opened under the lock of the cache, thus it cannot be evicted
+     * or removed between the lookup and the open (an open file stays readable after it has been deleted).
+     *
+     * @param key
+     * @param suffix
+     * @return the opened artifact file, or null if the key or its artifact does not exist
+     */
+    public FileInputStream openFile(String key, String suffix)
+    {
+        lock.lock();
+        try
+        {
+            File file = getFile(key, suffix);
+            return (file == null ? null : new FileInputStream(file));
+        }
+        catch (FileNotFoundException e)
+        {
+            return null;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the artifact file with the given suffix of the content with the given digest.
+     * The artifacts of a content must be published before a key referencing the content is put.
+     *
+     * @param contentDigest
+     * @param suffix
+     * @return
+     */
+    public File getContentFile(String contentDigest, String suffix)
+    {
+        return new File(new File(directory, CONTENT_DIR), contentDigest + suffix);
+    }
+
+    /**
+     * Returns the manifest entry for the given key, or null if no such entry exists.
+     *
+     * @param key
+     * @return
+     */
+    public ArtifactManifest.Entry getEntry(String key)
+    {
+        return manifest.getEntry(key);
+    }
+
+    /**
+     * Stores the manifest entry for the given key, whose artifacts (identified by the content digest of the entry)
+     * have just been published, and evicts the least recently accessed keys if the max size is exceeded.
+     *
+     * @param key
+     * @param entry
+     * @throws IOException
+     */
+    public void put(String key, ArtifactManifest.Entry entry) throws IOException
+    {
+        lock.lock();
+        try
+        {
+            manifest.putEntry(key, entry);
+
+            // reference the new content before the previous one is released (could be the same)
+            reference(entry.getContentDigest(), entry.getArtifactLength());
+            String previousDigest = index.put(key, entry.getContentDigest());
+            if (previousDigest != null)
+            {
+                release(previousDigest);
+            }
+
+            evict(key);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the artifacts with the given key as recently accessed.
+     *
+     * @param key
+     */
+    public void touch(String key)
+    {
+        lock.lock();
+        try
+        {
+            index.get(key);  // access order
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the given key and deletes its artifacts, if they are not referenced by another key.
+     *
+     * @param key
+     */
+    public void remove(String key)
+    {
+        lock.lock();
+        try
+        {
+            String contentDigest = index.remove(key);
+            removeManifestEntry(key);
+            if (contentDigest != null)
+            {
+                release(contentDigest);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all keys, which match the given predicate (see {@link #remove(String)}).
+     *
+     * @param keyPredicate
+     * @return the number of removed keys
+     */
+    public int removeAll(Predicate<String> keyPredicate)
+    {
+        lock.lock();
+        try
+        {
+            int count = 0;
+            Iterator<Map.Entry<String, String>> iterator = index.entrySet().iterator();
+            while (iterator.hasNext())
+            {
+                Map.Entry<String, String> entry = iterator.next();
+                if (keyPredicate.apply(entry.getKey()))
+                {
+                    iterator.remove();
+                    removeManifestEntry(entry.getKey());
+                    release(entry.getValue());
+                    count++;
+                }
+            }
+            return count;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the least recently accessed keys (except the given one) until the max size is met.
+     *
+     * @param keep
+     */
+    private void evict(String keep)
+    {
+        if (maxSize <= 0)
+        {
+            return;  // unlimited
+        }
+
+        Iterator<Map.Entry<String, String>> iterator = index.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext())
+        {
+            Map.Entry<String, String> eldest = iterator.next();
+            if (eldest.getKey().equals(keep))
+            {
+                continue;
+            }
+
+            iterator.remove();
+            removeManifestEntry(eldest.getKey());
+            release(eldest.getValue());
+
+            if (log.isLoggable(Level.FINE))
+            {
+                log.fine("Evicted artifacts of " + eldest.getKey() + " from disk cache " + directory);
+            }
+        }
+    }
+
+    private void reference(String contentDigest, long length)
+    {
+        Content content = contents.get(contentDigest);
+        if (content == null)
+        {
+            content = new Content();
+            contents.put(contentDigest, content);
+        }
+        content.references++;
+
+        // the artifacts of a content could have been completed by a later key (e.g. compressed version)
+        if (length > content.length)
+        {
+            size += length - content.length;
+            content.length = length;
+        }
+    }
+
+    private void release(String contentDigest)
+    {
+        Content content = contents.get(contentDigest);
+        if (content != null && --content.references == 0)
+        {
+            contents.remove(contentDigest);
+            size -= content.length;
+            for (String suffix : ARTIFACT_SUFFIXES)
+            {
+                ArtifactUtils.delete(getContentFile(contentDigest, suffix));
+            }
+        }
+    }
+
+    private void removeManifestEntry(String key)
+    {
+        try
+        {
+            manifest.removeEntry(key);
+        }
+        catch (IOException e)
+        {
+            // a stale manifest entry only leads to recreation (its artifacts are not valid anymore)
+            log.log(Level.WARNING, "Could not remove " + key + " from artifact manifest", e);
+        }
+    }
+
+    /**
+     * Reference count and size of the artifacts of a content.
+     */
+    private static final class Content
+    {
+
+        private int references = 0;
+        private long length = 0L;
+
+    }
+
+}
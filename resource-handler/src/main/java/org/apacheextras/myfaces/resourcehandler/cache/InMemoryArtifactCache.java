@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.cache;
+
+import com.google.common.collect.MapMaker;
+
+import javax.faces.context.FacesContext;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Application scoped cache for the artifacts of small resources, which are kept in memory instead of being
+ * written to the DiskArtifactCache (see
+ * {@link org.apacheextras.myfaces.resourcehandler.RelativeResourceHandler#IN_MEMORY_ARTIFACT_MAX_SIZE_PARAM}).
+ *
+ * Like on disk, the artifacts are keyed by the digest of their content, thus resource variants with identical
+ * content (e.g. several locales of a resource) share a single copy. The artifacts are only weakly referenced,
+ * thus they are released as soon as no resource variant uses them anymore (e.g. after it has been evicted from
+ * the RelativeResourceCache).
+ *
+ * @author Jakob Korherr
+ */
+public class InMemoryArtifactCache
+{
+
+    /**
+     * ApplicationMap key for the InMemoryArtifactCache of the current application.
+     */
+    private static final String APPLICATION_MAP_KEY = InMemoryArtifactCache.class.getName();
+
+    /**
+     * Guards the creation of the InMemoryArtifactCache of an application.
+     */
+    private static final ReentrantLock INSTANCE_LOCK = new ReentrantLock();
+
+    /**
+     * The artifacts per content digest and suffix.
+     */
+    private final ConcurrentMap<String, byte[]> artifacts = new MapMaker().weakValues().makeMap();
+
+    /**
+     * Returns the InMemoryArtifactCache of the current application.
+     *
+     * @param facesContext
+     * @return
+     */
+    public static InMemoryArtifactCache getInstance(FacesContext facesContext)
+    {
+        Map<String, Object> applicationMap = facesContext.getExternalContext().getApplicationMap();
+
+        InMemoryArtifactCache cache = (InMemoryArtifactCache) applicationMap.get(APPLICATION_MAP_KEY);
+        if (cache == null)
+        {
+            INSTANCE_LOCK.lock();
+            try
+            {
+                cache = (InMemoryArtifactCache) applicationMap.get(APPLICATION_MAP_KEY);
+                if (cache == null)
+                {
+                    cache = new InMemoryArtifactCache();
+                    applicationMap.put(APPLICATION_MAP_KEY, cache);
+                }
+            }
+            finally
+            {
+                INSTANCE_LOCK.unlock();
+            }
+        }
+
+        return cache;
+    }
+
+    /**
+     * Returns the artifact with the given content digest and suffix, or null if no resource variant uses it.
+     *
+     * @param contentDigest
+     * @param suffix
+     * @return
+     */
+    public byte[] get(String contentDigest, String suffix)
+    {
+        return artifacts.get(contentDigest + suffix);
+    }
+
+    /**
+     * Stores the given artifact, unless another resource variant has already stored one with the same content
+     * digest and suffix. The caller must use the returned artifact (and keep a reference to it).
+     *
+     * @param contentDigest
+     * @param suffix
+     * @param artifact
+     * @return the shared artifact
+     */
+    public byte[] share(String contentDigest, String suffix, byte[] artifact)
+    {
+        byte[] existing = artifacts.putIfAbsent(contentDigest + suffix, artifact);
+        return (existing != null ? existing : artifact);
+    }
+
+    /**
+     * Returns the number of artifacts, which are currently used by resource variants.
+     *
+     * @return
+     */
+    public int size()
+    {
+        return artifacts.size();
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.cache;
+
+import com.google.common.base.Predicate;
+import org.apacheextras.myfaces.resourcehandler.RelativeResourceImpl;
+import org.apacheextras.myfaces.resourcehandler.ResourceId;
+import org.apacheextras.myfaces.resourcehandler.ResourceUtils;
+
+/**
+ * Selects the relative resources (and their artifacts in the DiskArtifactCache), which should be invalidated.
+ * A null property matches all resources.
+ *
+ * A locale prefix also matches more specific locales (e.g. "de" matches "de_AT"). As the locale of a
+ * ResourceId without a locale prefix is determined when the resource is initialized, such resources are
+ * always selected by a locale prefix. Artifact keys are matched by their path segments, thus in rare
+ * cases (e.g. a library named like a locale) more artifacts are selected than necessary, which only leads
+ * to their recreation.
+ *
+ * @author Jakob Korherr
+ */
+public class InvalidationFilter implements Predicate<ResourceId>
+{
+
+    private final String libraryName;
+    private final String resourceName;
+    private final String localePrefix;
+
+    public InvalidationFilter(String libraryName, String resourceName, String localePrefix)
+    {
+        if (resourceName != null && libraryName == null)
+        {
+            throw new IllegalArgumentException("Resource name " + resourceName + " requires a library name");
+        }
+
+        this.libraryName = ResourceUtils.trimSlashes(libraryName);
+        this.resourceName = ResourceUtils.trimSlashes(resourceName);
+        this.localePrefix = localePrefix;
+    }
+
+    public String getLibraryName()
+    {
+        return libraryName;
+    }
+
+    public String getResourceName()
+    {
+        return resourceName;
+    }
+
+    public String getLocalePrefix()
+    {
+        return localePrefix;
+    }
+
+    public boolean apply(ResourceId resourceId)
+    {
+        return (libraryName == null || libraryName.equals(ResourceUtils.trimSlashes(resourceId.getLibraryName())))
+                && (resourceName == null
+                        || resourceName.equals(ResourceUtils.trimSlashes(resourceId.getResourceName())))
+                && (localePrefix == null || resourceId.getRequestedLocalePrefix() == null
+                        || isLocale(resourceId.getRequestedLocalePrefix()));
+    }
+
+    /**
+     * Returns a predicate for the keys of the DiskArtifactCache
+     * ([localePrefix/]libraryName/resourceName[.localeVariant][@tenantVariant]).
+     *
+     * @return
+     */
+    public Predicate<String> getArtifactKeyPredicate()
+    {
+        return new Predicate<String>()
+        {
+            public boolean apply(String key)
+            {
+                if (matchesArtifactKey(null, key))
+                {
+                    return true;
+                }
+
+                // the first segment could be a locale prefix
+                int slashIndex = key.indexOf('/');
+                return slashIndex != -1 && matchesArtifactKey(key.substring(0, slashIndex),
+                        key.substring(slashIndex + 1));
+            }
+        };
+    }
+
+    private boolean matchesArtifactKey(String keyLocalePrefix, String path)
+    {
+        if (localePrefix != null && (keyLocalePrefix == null || !isLocale(keyLocalePrefix))
+                && !isLocale(getVariantSuffix(path)))
+        {
+            return false;
+        }
+        if (libraryName == null)
+        {
+            return true;
+        }
+        if (!path.startsWith(libraryName + "/"))
+        {
+            return false;
+        }
+
+        String name = path.substring(libraryName.length() + 1);
+        return resourceName == null || name.equals(resourceName) || name.startsWith(resourceName + ".")
+                || name.startsWith(resourceName + RelativeResourceImpl.TENANT_VARIANT_SEPARATOR);
+    }
+
+    private boolean isLocale(String requestedLocalePrefix)
+    {
+        return requestedLocalePrefix != null && (requestedLocalePrefix.equals(localePrefix)
+                || requestedLocalePrefix.startsWith(localePrefix + "_"));
+    }
+
+    private static String getVariantSuffix(String path)
+    {
+        int tenantIndex = path.lastIndexOf(RelativeResourceImpl.TENANT_VARIANT_SEPARATOR);
+        if (tenantIndex != -1)
+        {
+            path = path.substring(0, tenantIndex);
+        }
+
+        int dotIndex = path.lastIndexOf('.');
+        return (dotIndex == -1 ? null : path.substring(dotIndex + 1));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "InvalidationFilter[libraryName=" + libraryName + ", resourceName=" + resourceName
+                + ", localePrefix=" + localePrefix + "]";
+    }
+
+}
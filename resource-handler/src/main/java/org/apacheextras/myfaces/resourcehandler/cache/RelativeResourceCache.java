@@ -20,34 +20,80 @@
  */
 package org.apacheextras.myfaces.resourcehandler.cache;
 
+import com.google.common.base.Predicate;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import org.apacheextras.myfaces.resourcehandler.RelativeResource;
 import org.apacheextras.myfaces.resourcehandler.ResourceId;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 
 /**
  * Cache for relative resources.
  *
+ * The cache is partitioned by tenant (see {@link ResourceId#getTenantId()}): resources without tenant id are cached
+ * in a shared partition, the resources of each tenant in a separate partition with its own max size (quota).
+ * Thus the traffic of one tenant cannot evict the resources of other tenants.
+ *
+ * The total size of all tenant partitions is bounded by the max size of the shared partition: only
+ * maxCacheSize / maxTenantCacheSize (at least one) tenant partitions are kept, if this number is exceeded the
+ * partition of the least recently active tenant is dropped. Thus the cache holds at most 2 * maxCacheSize resources
+ * (plus one tenant quota, if the tenant quota is bigger than maxCacheSize), regardless of the number of tenants.
+ *
  * @author Jakob Korherr
  */
 public class RelativeResourceCache
 {
 
-    private Cache<ResourceId, RelativeResource> cache;
+    private final Cache<ResourceId, RelativeResource> cache;
+    private final int maxTenantCacheSize;
+
+    /**
+     * The partitions of the tenants per tenant id (least recently used ones are dropped, see class doc).
+     */
+    private final Cache<String, Cache<ResourceId, RelativeResource>> tenantCaches;
 
     public RelativeResourceCache(int maxCacheSize)
     {
-        cache = CacheBuilder.newBuilder().maximumSize(maxCacheSize).build();
+        this(maxCacheSize, getDefaultTenantCacheSize(maxCacheSize));
+    }
+
+    /**
+     * Creates a RelativeResourceCache.
+     *
+     * @param maxCacheSize max size of the shared partition and of all tenant partitions together
+     * @param maxTenantCacheSize max size of the partition of each tenant
+     */
+    public RelativeResourceCache(int maxCacheSize, int maxTenantCacheSize)
+    {
+        this.cache = CacheBuilder.newBuilder().maximumSize(maxCacheSize).build();
+        this.maxTenantCacheSize = maxTenantCacheSize;
+        this.tenantCaches = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(1, maxCacheSize / Math.max(1, maxTenantCacheSize)))
+                .build();
+    }
+
+    /**
+     * Returns the default max size of the partition of each tenant for the given max cache size: a tenth of it
+     * (at least one), thus the resources of the ten most active tenants are cached.
+     *
+     * @param maxCacheSize
+     * @return
+     */
+    public static int getDefaultTenantCacheSize(int maxCacheSize)
+    {
+        return Math.max(1, maxCacheSize / 10);
     }
 
     public RelativeResource get(ResourceId resourceId, Callable<RelativeResource> resourceCreator)
     {
         try
         {
-            return cache.get(resourceId, resourceCreator);
+            return getPartition(resourceId).get(resourceId, resourceCreator);
         }
         catch (ExecutionException e)
         {
@@ -55,4 +101,103 @@ public class RelativeResourceCache
         }
     }
 
+    /**
+     * Returns the number of cached resources of the tenant with the given id,
+     * or of the shared resources if the tenant id is null.
+     *
+     * @param tenantId
+     * @return
+     */
+    public long size(String tenantId)
+    {
+        Cache<ResourceId, RelativeResource> partition
+                = (tenantId == null ? cache : tenantCaches.getIfPresent(tenantId));
+        return (partition == null ? 0L : partition.size());
+    }
+
+    /**
+     * Removes the resource with the given id and discards its artifacts.
+     *
+     * @param resourceId
+     * @return true if the resource was cached
+     */
+    public boolean invalidate(ResourceId resourceId)
+    {
+        RelativeResource relativeResource = getPartition(resourceId).asMap().remove(resourceId);
+        if (relativeResource != null)
+        {
+            relativeResource.invalidate();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes all resources whose id matches the given predicate and discards their artifacts.
+     *
+     * @param predicate
+     * @return the number of removed resources
+     */
+    public int invalidateAll(Predicate<ResourceId> predicate)
+    {
+        List<Cache<ResourceId, RelativeResource>> partitions = new ArrayList<Cache<ResourceId, RelativeResource>>();
+        partitions.add(cache);
+        partitions.addAll(tenantCaches.asMap().values());
+
+        int count = 0;
+        for (Cache<ResourceId, RelativeResource> partition : partitions)
+        {
+            for (Map.Entry<ResourceId, RelativeResource> entry : partition.asMap().entrySet())
+            {
+                // only remove exactly this instance (a new one could already have been created concurrently)
+                if (predicate.apply(entry.getKey()) && partition.asMap().remove(entry.getKey(), entry.getValue()))
+                {
+                    entry.getValue().invalidate();
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Removes all resources and discards their artifacts.
+     *
+     * @return the number of removed resources
+     */
+    public int invalidateAll()
+    {
+        return invalidateAll(new Predicate<ResourceId>()
+        {
+            public boolean apply(ResourceId resourceId)
+            {
+                return true;
+            }
+        });
+    }
+
+    private Cache<ResourceId, RelativeResource> getPartition(ResourceId resourceId)
+    {
+        String tenantId = resourceId.getTenantId();
+        if (tenantId == null)
+        {
+            return cache;
+        }
+
+        try
+        {
+            return tenantCaches.get(tenantId, new Callable<Cache<ResourceId, RelativeResource>>()
+            {
+                public Cache<ResourceId, RelativeResource> call()
+                {
+                    return CacheBuilder.newBuilder().maximumSize(maxTenantCacheSize).build();
+                }
+            });
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException("Exception while creating the partition of tenant " + tenantId, e);
+        }
+    }
+
 }
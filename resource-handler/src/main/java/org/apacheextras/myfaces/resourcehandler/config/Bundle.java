@@ -0,0 +1,121 @@
+/*
+ * Copyright 2011-2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.config;
+
+import org.apacheextras.myfaces.resourcehandler.ResourceUtils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * DTO representing a bundle of a library: a virtual resource that consists of
+ * the concatenated content of an ordered list of resources of the same library.
+ *
+ * @author Jakob Korherr
+ */
+public class Bundle implements Serializable
+{
+
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final String version;
+    private final List<String> resourceNames;
+
+    public Bundle(String name, String version, List<String> resourceNames)
+    {
+        if (name == null || name.trim().length() == 0)
+        {
+            throw new IllegalArgumentException("Bundle name must not be empty");
+        }
+        name = ResourceUtils.trimSlashes(name.trim());
+        if (resourceNames == null || resourceNames.isEmpty())
+        {
+            throw new IllegalArgumentException("Bundle " + name + " must contain at least one resource");
+        }
+        if (version != null && (version.length() == 0 || version.contains("/") || version.contains(" ")))
+        {
+            throw new IllegalArgumentException("Version of bundle " + name
+                    + " must not be empty and may not contain slashes or white spaces.");
+        }
+
+        List<String> trimmedResourceNames = new ArrayList<String>(resourceNames.size());
+        for (String resourceName : resourceNames)
+        {
+            trimmedResourceNames.add(ResourceUtils.trimSlashes(resourceName));
+        }
+
+        this.name = name;
+        this.version = version;
+        this.resourceNames = Collections.unmodifiableList(trimmedResourceNames);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the url-version of this bundle, or null if the url-version of the config should be used.
+     *
+     * @return
+     */
+    public String getVersion()
+    {
+        return version;
+    }
+
+    public List<String> getResourceNames()
+    {
+        return resourceNames;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof Bundle))
+        {
+            return false;
+        }
+
+        Bundle bundle = (Bundle) o;
+
+        if (name != null ? !name.equals(bundle.name) : bundle.name != null)
+        {
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return name != null ? name.hashCode() : 0;
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.config;
+
+import java.io.Serializable;
+import java.util.Locale;
+
+/**
+ * DTO representing the HTTP cache policy of a library, which is sent as Cache-Control header
+ * for the resources of the library (e.g. "public, max-age=31536000, immutable").
+ *
+ * @author Jakob Korherr
+ */
+public class CachePolicy implements Serializable
+{
+
+    private static final long serialVersionUID = 1L;
+
+    public static enum Visibility
+    {
+        PUBLIC, PRIVATE
+    }
+
+    private final Long maxAge;
+    private final boolean immutable;
+    private final Visibility visibility;
+    private final Long staleWhileRevalidate;
+
+    /**
+     * Creates a CachePolicy.
+     *
+     * @param maxAge max-age in seconds, or null to use the max expire time of the application
+     * @param immutable
+     * @param visibility public or private, or null to omit the directive
+     * @param staleWhileRevalidate stale-while-revalidate in seconds, or null to omit the directive
+     */
+    public CachePolicy(Long maxAge, boolean immutable, Visibility visibility, Long staleWhileRevalidate)
+    {
+        if (maxAge != null && maxAge < 0)
+        {
+            throw new IllegalArgumentException("max-age must not be negative");
+        }
+        if (staleWhileRevalidate != null && staleWhileRevalidate < 0)
+        {
+            throw new IllegalArgumentException("stale-while-revalidate must not be negative");
+        }
+
+        this.maxAge = maxAge;
+        this.immutable = immutable;
+        this.visibility = visibility;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    /**
+     * Returns the max-age in seconds, or null if the max expire time of the application should be used.
+     *
+     * @return
+     */
+    public Long getMaxAge()
+    {
+        return maxAge;
+    }
+
+    public boolean isImmutable()
+    {
+        return immutable;
+    }
+
+    public Visibility getVisibility()
+    {
+        return visibility;
+    }
+
+    public Long getStaleWhileRevalidate()
+    {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * Returns the value of the Cache-Control header for this policy.
+     *
+     * @param defaultMaxAge max-age in seconds, which is used if this policy does not define one
+     * @return
+     */
+    public String toHeaderValue(long defaultMaxAge)
+    {
+        StringBuilder sb = new StringBuilder();
+        if (visibility != null)
+        {
+            sb.append(visibility.name().toLowerCase(Locale.ENGLISH)).append(", ");
+        }
+        sb.append("max-age=").append(maxAge != null ? maxAge : defaultMaxAge);
+        if (immutable)
+        {
+            sb.append(", immutable");
+        }
+        if (staleWhileRevalidate != null)
+        {
+            sb.append(", stale-while-revalidate=").append(staleWhileRevalidate);
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.config;
+
+import java.io.Serializable;
+import java.util.zip.Deflater;
+
+/**
+ * DTO representing the settings used to create the compressed (GZIP) artifacts of the relative resources.
+ *
+ * The compressed artifacts are created only once per resource, thus it is usually worth to spend more cpu time
+ * at creation (e.g. level 9) in order to save bytes on every request. If exhaustive mode is enabled, every
+ * deflate strategy is tried and the smallest output is kept.
+ *
+ * @author Jakob Korherr
+ */
+public class CompressionConfig implements Serializable
+{
+
+    private static final long serialVersionUID = 1L;
+
+    public static enum Strategy
+    {
+        DEFAULT(Deflater.DEFAULT_STRATEGY),
+        FILTERED(Deflater.FILTERED),
+        HUFFMAN_ONLY(Deflater.HUFFMAN_ONLY);
+
+        private final int deflaterStrategy;
+
+        private Strategy(int deflaterStrategy)
+        {
+            this.deflaterStrategy = deflaterStrategy;
+        }
+
+        /**
+         * Returns the related strategy constant of java.util.zip.Deflater.
+         *
+         * @return
+         */
+        public int getDeflaterStrategy()
+        {
+            return deflaterStrategy;
+        }
+    }
+
+    /**
+     * The settings of java.util.zip.GZIPOutputStream.
+     */
+    public static final CompressionConfig DEFAULT
+            = new CompressionConfig(Deflater.DEFAULT_COMPRESSION, Strategy.DEFAULT, false);
+
+    private final int level;
+    private final Strategy strategy;
+    private final boolean exhaustive;
+
+    /**
+     * Creates a CompressionConfig.
+     *
+     * @param level deflate level (0-9), or -1 for the default level of java.util.zip.Deflater
+     * @param strategy deflate strategy, or null for the default strategy
+     * @param exhaustive if true, all strategies are tried and the smallest output is used
+     */
+    public CompressionConfig(int level, Strategy strategy, boolean exhaustive)
+    {
+        if (level != Deflater.DEFAULT_COMPRESSION
+                && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION))
+        {
+            throw new IllegalArgumentException("Invalid compression level " + level + " (must be between 0 and 9)");
+        }
+
+        this.level = level;
+        this.strategy = (strategy == null ? Strategy.DEFAULT : strategy);
+        this.exhaustive = exhaustive;
+    }
+
+    public int getLevel()
+    {
+        return level;
+    }
+
+    public Strategy getStrategy()
+    {
+        return strategy;
+    }
+
+    public boolean isExhaustive()
+    {
+        return exhaustive;
+    }
+
+    /**
+     * Returns a String, which changes whenever the settings change. It is part of the processing config hash
+     * of the artifacts, thus the compressed artifacts are recreated if the settings are changed.
+     *
+     * @return
+     */
+    public String getSignature()
+    {
+        return "level=" + level + ",strategy=" + strategy + ",exhaustive=" + exhaustive;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CompressionConfig[" + getSignature() + "]";
+    }
+
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.config;
+
+import org.apacheextras.myfaces.resourcehandler.RelativeResourceHandler;
+import org.apacheextras.myfaces.resourcehandler.ResourceUtils;
+import org.apacheextras.myfaces.resourcehandler.cache.ArtifactUtils;
+import org.apacheextras.myfaces.resourcehandler.spi.RelativeResourceHandlerConfigProvider;
+import org.apacheextras.myfaces.resourcehandler.spi.RelativeResourceResolverProvider;
+
+import javax.faces.FacesException;
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serialized snapshot of the startup state of the RelativeResourceHandler: the parsed config and the class names
+ * of the SPI providers. It is created at build time (see {@link #main(String[])}) and stored as
+ * {@link RelativeResourceHandler#CONFIG_SNAPSHOT_FILE}, thus the handler can skip the XSD compilation, the XML
+ * parsing and the ServiceLoader scans at startup.
+ *
+ * The snapshot contains the digests of its sources (the config files, the XSD and the service files of the SPIs)
+ * in classpath order. It is only used if all of them are unchanged, otherwise the handler falls back to parsing.
+ * The config is only part of the snapshot if no RelativeResourceHandlerConfigProvider SPI implementation exists.
+ *
+ * @author Jakob Korherr
+ */
+public class ConfigSnapshot implements Serializable
+{
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger log = Logger.getLogger(ConfigSnapshot.class.getName());
+
+    /**
+     * The classpath resources, from which the snapshot is created.
+     */
+    private static final String[] SOURCES = {
+            RelativeResourceHandler.CONFIG_FILE,
+            RelativeResourceHandlerConfigParser.RELATIVE_RESOURCES_XSD,
+            "META-INF/services/" + RelativeResourceHandlerConfigProvider.class.getName(),
+            "META-INF/services/" + RelativeResourceResolverProvider.class.getName()
+    };
+
+    private static final String SERVICE_FILE_CHARSET = "UTF-8";
+
+    private final RelativeResourceHandlerConfig config;
+    private final Map<String, List<String>> serviceProviders;
+    private final Map<String, List<String>> sourceDigests;
+
+    private ConfigSnapshot(RelativeResourceHandlerConfig config, Map<String, List<String>> serviceProviders,
+                           Map<String, List<String>> sourceDigests)
+    {
+        this.config = config;
+        this.serviceProviders = serviceProviders;
+        this.sourceDigests = sourceDigests;
+    }
+
+    /**
+     * Creates a snapshot from the config files and service files available via the given ClassLoader.
+     *
+     * @param classLoader
+     * @return
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    public static ConfigSnapshot create(ClassLoader classLoader) throws IOException, XMLStreamException
+    {
+        Map<String, List<String>> serviceProviders = new HashMap<String, List<String>>();
+        for (Class<?> service : new Class<?>[] {
+                RelativeResourceHandlerConfigProvider.class, RelativeResourceResolverProvider.class })
+        {
+            serviceProviders.put(service.getName(), readServiceProviders(service, classLoader));
+        }
+
+        // a custom config provider is asked at startup (its config could be dynamic)
+        RelativeResourceHandlerConfig config = null;
+        if (serviceProviders.get(RelativeResourceHandlerConfigProvider.class.getName()).isEmpty())
+        {
+            config = new RelativeResourceHandlerConfig();
+            new RelativeResourceHandlerConfigParser().parseUrls(
+                    getResources(RelativeResourceHandler.CONFIG_FILE, classLoader), config);
+        }
+
+        return new ConfigSnapshot(config, serviceProviders, digestSources(classLoader));
+    }
+
+    /**
+     * Returns the snapshot available via the given ClassLoader, or null if there is no snapshot or if it is not
+     * up to date (or cannot be read).
+     *
+     * @param classLoader
+     * @return
+     */
+    public static ConfigSnapshot load(ClassLoader classLoader)
+    {
+        URL url = classLoader.getResource(RelativeResourceHandler.CONFIG_SNAPSHOT_FILE);
+        if (url == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            ConfigSnapshot snapshot = read(url);
+            if (snapshot.isUpToDate(classLoader))
+            {
+                return snapshot;
+            }
+            log.info("Config snapshot " + url + " is outdated, the config files will be parsed instead.");
+        }
+        catch (Exception e)
+        {
+            // e.g. created by another version of the RelativeResourceHandler
+            log.log(Level.WARNING, "Could not read config snapshot " + url
+                    + ", the config files will be parsed instead.", e);
+        }
+        return null;
+    }
+
+    /**
+     * Reads the snapshot from the given URL.
+     *
+     * @param url
+     * @return
+     * @throws IOException
+     */
+    public static ConfigSnapshot read(URL url) throws IOException
+    {
+        ObjectInputStream inputStream = new ObjectInputStream(url.openStream());
+        try
+        {
+            return (ConfigSnapshot) inputStream.readObject();
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IOException("Invalid config snapshot " + url + ": " + e.getMessage());
+        }
+        finally
+        {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Writes this snapshot to the given file.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void write(File file) throws IOException
+    {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ObjectOutputStream outputStream = new ObjectOutputStream(content);
+        outputStream.writeObject(this);
+        outputStream.close();
+
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        try
+        {
+            content.writeTo(fileOutputStream);
+        }
+        finally
+        {
+            fileOutputStream.close();
+        }
+    }
+
+    /**
+     * Checks if the sources of this snapshot, which are available via the given ClassLoader, are unchanged.
+     * NOTE that only their content is compared (not their URLs, which differ between build time and runtime).
+     *
+     * @param classLoader
+     * @return
+     * @throws IOException
+     */
+    public boolean isUpToDate(ClassLoader classLoader) throws IOException
+    {
+        return sourceDigests.equals(digestSources(classLoader));
+    }
+
+    /**
+     * Returns the parsed config, or null if it is provided by a RelativeResourceHandlerConfigProvider.
+     *
+     * @return
+     */
+    public RelativeResourceHandlerConfig getConfig()
+    {
+        return config;
+    }
+
+    /**
+     * Returns the instances of the SPI providers of the given service (like ServiceLoader, but without scanning
+     * the service files).
+     *
+     * @param service
+     * @param classLoader
+     * @return
+     * @throws FacesException if a provider cannot be instantiated
+     */
+    public <S> List<S> getServiceProviders(Class<S> service, ClassLoader classLoader) throws FacesException
+    {
+        List<String> classNames = serviceProviders.get(service.getName());
+        if (classNames == null)
+        {
+            throw new IllegalArgumentException(service.getName() + " is not part of the config snapshot");
+        }
+
+        List<S> providers = new ArrayList<S>(classNames.size());
+        for (String className : classNames)
+        {
+            try
+            {
+                providers.add(service.cast(Class.forName(className, true, classLoader).newInstance()));
+            }
+            catch (Exception e)
+            {
+                throw new FacesException("Could not instantiate SPI provider " + className, e);
+            }
+        }
+        return providers;
+    }
+
+    /**
+     * Creates the snapshot from the classpath and writes it to the given file. It has to run in the build of the
+     * webapp (not of this library) with the classpath of the webapp, e.g. via exec-maven-plugin (goal java,
+     * classpathScope compile) in the prepare-package phase with the argument
+     * ${project.build.outputDirectory}/META-INF/relative-resources.ser (see the standard example).
+     * Without this step there is no snapshot and the handler parses the config files at startup.
+     *
+     * @param args the target file
+     * @throws IllegalArgumentException if not exactly one argument is given (exec:java runs in the JVM of Maven,
+     *                                  thus the build must fail instead of the JVM being exited)
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length != 1)
+        {
+            throw new IllegalArgumentException("Usage: " + ConfigSnapshot.class.getName() + " <target file>");
+        }
+
+        create(ResourceUtils.getContextClassLoader()).write(new File(args[0]));
+    }
+
+    private static Map<String, List<String>> digestSources(ClassLoader classLoader) throws IOException
+    {
+        Map<String, List<String>> digests = new HashMap<String, List<String>>();
+        for (String source : SOURCES)
+        {
+            List<String> sourceDigests = new ArrayList<String>();
+            for (URL url : getResources(source, classLoader))
+            {
+                sourceDigests.add(ArtifactUtils.digest(read(url.openStream())));
+            }
+            digests.put(source, sourceDigests);
+        }
+        return digests;
+    }
+
+    private static List<String> readServiceProviders(Class<?> service, ClassLoader classLoader) throws IOException
+    {
+        // same format as used by java.util.ServiceLoader
+        List<String> classNames = new ArrayList<String>();
+        for (URL url : getResources("META-INF/services/" + service.getName(), classLoader))
+        {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), SERVICE_FILE_CHARSET));
+            try
+            {
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    int commentIndex = line.indexOf('#');
+                    String className = (commentIndex == -1 ? line : line.substring(0, commentIndex)).trim();
+                    if (className.length() > 0 && !classNames.contains(className))
+                    {
+                        classNames.add(className);
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        return classNames;
+    }
+
+    private static List<URL> getResources(String name, ClassLoader classLoader) throws IOException
+    {
+        Enumeration<URL> resources = classLoader.getResources(name);
+        return (resources == null ? Collections.<URL>emptyList() : Collections.list(resources));
+    }
+
+    private static byte[] read(InputStream inputStream) throws IOException
+    {
+        try
+        {
+            return ResourceUtils.readBytes(inputStream);
+        }
+        finally
+        {
+            inputStream.close();
+        }
+    }
+
+}
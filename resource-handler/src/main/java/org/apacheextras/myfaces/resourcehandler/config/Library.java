@@ -24,8 +24,12 @@ import org.apacheextras.myfaces.resourcehandler.ResourceUtils;
 import org.apacheextras.myfaces.resourcehandler.provider.ResourceProvider;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * DTO representing a library for the relative resource handler.
@@ -35,6 +39,8 @@ import java.util.List;
 public class Library implements Serializable
 {
 
+    private static final long serialVersionUID = 1L;
+
     public static enum LocationType
     {
         CLASSPATH, WEBAPP, EXTERNAL
@@ -44,7 +50,11 @@ public class Library implements Serializable
     private final LocationType locationType;
     private final String location;
     private List<String> elEvaluationFileMasks;
-    private ResourceProvider resourceProvider;
+    private Map<String, Bundle> bundles;
+    private List<String> processorNames;
+    private CachePolicy cachePolicy;
+    private transient volatile ResourceProvider resourceProvider;
+    private volatile boolean frozen = false;
 
     public Library(String name)
     {
@@ -52,6 +62,24 @@ public class Library implements Serializable
     }
 
     public Library(String name, LocationType locationType, String location, List<String> elEvaluationFileMasks)
+    {
+        this(name, locationType, location, elEvaluationFileMasks, Collections.<Bundle>emptyList());
+    }
+
+    public Library(String name, LocationType locationType, String location, List<String> elEvaluationFileMasks,
+                   List<Bundle> bundles)
+    {
+        this(name, locationType, location, elEvaluationFileMasks, bundles, Collections.<String>emptyList());
+    }
+
+    public Library(String name, LocationType locationType, String location, List<String> elEvaluationFileMasks,
+                   List<Bundle> bundles, List<String> processorNames)
+    {
+        this(name, locationType, location, elEvaluationFileMasks, bundles, processorNames, null);
+    }
+
+    public Library(String name, LocationType locationType, String location, List<String> elEvaluationFileMasks,
+                   List<Bundle> bundles, List<String> processorNames, CachePolicy cachePolicy)
     {
         name = ResourceUtils.trimSlashes(name);
         if (name.contains("/"))
@@ -66,6 +94,20 @@ public class Library implements Serializable
         this.locationType = locationType;
         this.location = location;
         this.elEvaluationFileMasks = elEvaluationFileMasks;
+        this.processorNames = processorNames;
+        this.cachePolicy = cachePolicy;
+
+        // keep the bundles in declaration order
+        this.bundles = new LinkedHashMap<String, Bundle>();
+        for (Bundle bundle : bundles)
+        {
+            if (this.bundles.containsKey(bundle.getName()))
+            {
+                throw new IllegalArgumentException("Library " + name + " already contains a bundle named "
+                        + bundle.getName());
+            }
+            this.bundles.put(bundle.getName(), bundle);
+        }
     }
 
     public String getName()
@@ -88,16 +130,71 @@ public class Library implements Serializable
         return elEvaluationFileMasks;
     }
 
+    /**
+     * Returns the names of the ResourceProcessors of this library, in the order in which they are applied.
+     *
+     * @return
+     */
+    public List<String> getProcessorNames()
+    {
+        return processorNames;
+    }
+
+    /**
+     * Returns the HTTP cache policy of this library, or null if the default Expires header should be used.
+     *
+     * @return
+     */
+    public CachePolicy getCachePolicy()
+    {
+        return cachePolicy;
+    }
+
+    /**
+     * Returns the bundle with the given (trimmed) resource name if exists, or null otherwise.
+     *
+     * @param resourceName
+     * @return
+     */
+    public Bundle getBundle(String resourceName)
+    {
+        return bundles.get(resourceName);
+    }
+
+    public Collection<Bundle> getBundles()
+    {
+        return Collections.unmodifiableCollection(bundles.values());
+    }
+
     public ResourceProvider getResourceProvider()
     {
         return resourceProvider;
     }
 
-    public void setResourceProvider(ResourceProvider resourceProvider)
+    /**
+     * Sets the ResourceProvider of this library.
+     *
+     * @param resourceProvider
+     * @throws IllegalStateException if the config of this library has already been frozen.
+     */
+    public void setResourceProvider(ResourceProvider resourceProvider) throws IllegalStateException
     {
+        if (frozen)
+        {
+            throw new IllegalStateException("The ResourceProvider of library " + name
+                    + " cannot be set after the config has been frozen");
+        }
         this.resourceProvider = resourceProvider;
     }
 
+    /**
+     * Freezes this library (see {@link RelativeResourceHandlerConfig#freeze()}).
+     */
+    void freeze()
+    {
+        frozen = true;
+    }
+
     @Override
     public boolean equals(Object o)
     {
@@ -23,8 +23,11 @@ package org.apacheextras.myfaces.resourcehandler.config;
 import org.apacheextras.myfaces.resourcehandler.ResourceUtils;
 
 import java.io.Serializable;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Config for the relative resource handler.
@@ -34,40 +37,66 @@ import java.util.concurrent.ConcurrentHashMap;
 public class RelativeResourceHandlerConfig implements Serializable
 {
 
+    private static final long serialVersionUID = 1L;
+
     public static final String URL_VERSION_DEFAULT = "1";
     public static final boolean GZIP_ENABLED_DEFAULT = true;
     public static final boolean LOCALE_SUPPORT_ENABLED_DEFAULT = true;
 
-    private Map<String, Library> libraries;
-    private String urlVersion;
-    private Boolean gzipEnabled;
-    private Boolean localeSupportEnabled;
+    /**
+     * The libraries sorted by name. The table is immutable and replaced on addLibrary() (which only happens at
+     * startup, before the config is frozen), thus the lookups on every createResource() neither lock nor copy.
+     * The other properties are volatile as well, because they are read on every request without a lock.
+     */
+    private volatile LibraryTable libraries = LibraryTable.EMPTY;
+    private volatile boolean frozen = false;
+    private volatile String urlVersion;
+    private volatile Boolean gzipEnabled;
+    private volatile Boolean localeSupportEnabled;
+    private volatile CompressionConfig compressionConfig;
 
     /**
      * Creates and fills the config (with the help of the related parser).
      */
     public RelativeResourceHandlerConfig()
     {
-        // use concurrent hash map to avoid concurrency problems
-        // NOTE that multiple threads may simultaneously serve/create resources
-        libraries = new ConcurrentHashMap<String, Library>();
     }
 
     /**
      * Adds the given library to the libraries which are handled by the RelativeResourceHandler.
-     * Should only be called at startup (e.g. by the config parser).
+     * Must only be called at startup by a single thread (e.g. by the config parser), before the config is frozen.
      *
      * @param library
      * @throws IllegalArgumentException if a library with the same name does already exist.
+     * @throws IllegalStateException if the config has already been frozen.
      */
-    public void addLibrary(Library library) throws IllegalArgumentException
+    public void addLibrary(Library library) throws IllegalArgumentException, IllegalStateException
     {
-        if (isRelativeLibrary(library.getName()))
+        checkNotFrozen();
+        if (libraries.indexOf(library.getName()) >= 0)
         {
             throw new IllegalArgumentException("Config already contains a library named " + library.getName());
         }
 
-        libraries.put(library.getName(), library);
+        libraries = libraries.with(library);
+    }
+
+    /**
+     * Freezes this config and its libraries. Called by the RelativeResourceHandler once it has obtained the config
+     * at startup, any later call of a setter (or of addLibrary()) fails with an IllegalStateException.
+     */
+    public void freeze()
+    {
+        for (Library library : libraries.libraries)
+        {
+            library.freeze();
+        }
+        frozen = true;
+    }
+
+    public boolean isFrozen()
+    {
+        return frozen;
     }
 
     /**
@@ -78,7 +107,19 @@ public class RelativeResourceHandlerConfig implements Serializable
      */
     public boolean isRelativeLibrary(String name)
     {
-        return libraries.containsKey(ResourceUtils.trimSlashes(name));
+        return isRelativeLibraryByTrimmedName(ResourceUtils.trimSlashes(name));
+    }
+
+    /**
+     * Like {@link #isRelativeLibrary(String)}, but for a name without leading or trailing slashes
+     * (e.g. the library name of a ResourceId).
+     *
+     * @param trimmedName
+     * @return
+     */
+    public boolean isRelativeLibraryByTrimmedName(String trimmedName)
+    {
+        return libraries.indexOf(trimmedName) >= 0;
     }
 
     /**
@@ -89,7 +130,31 @@ public class RelativeResourceHandlerConfig implements Serializable
      */
     public Library getLibrary(String name)
     {
-        return libraries.get(ResourceUtils.trimSlashes(name));
+        return getLibraryByTrimmedName(ResourceUtils.trimSlashes(name));
+    }
+
+    /**
+     * Like {@link #getLibrary(String)}, but for a name without leading or trailing slashes
+     * (e.g. the library name of a ResourceId).
+     *
+     * @param trimmedName
+     * @return
+     */
+    public Library getLibraryByTrimmedName(String trimmedName)
+    {
+        LibraryTable table = libraries;
+        int index = table.indexOf(trimmedName);
+        return (index >= 0 ? table.libraries[index] : null);
+    }
+
+    /**
+     * Returns all libraries which are handled by the RelativeResourceHandler (sorted by name).
+     *
+     * @return
+     */
+    public Collection<Library> getLibraries()
+    {
+        return Collections.unmodifiableList(Arrays.asList(libraries.libraries));
     }
 
     /**
@@ -111,9 +176,11 @@ public class RelativeResourceHandlerConfig implements Serializable
      *
      * @param urlVersion
      * @throws IllegalArgumentException if a different urlVersion has already been set.
+     * @throws IllegalStateException if the config has already been frozen.
      */
-    public void setUrlVersion(String urlVersion) throws IllegalArgumentException
+    public void setUrlVersion(String urlVersion) throws IllegalArgumentException, IllegalStateException
     {
+        checkNotFrozen();
         if (this.urlVersion != null && !this.urlVersion.equals(urlVersion))
         {
             throw new IllegalArgumentException("urlVersion has already been set to a different value.");
@@ -152,9 +219,11 @@ public class RelativeResourceHandlerConfig implements Serializable
      *
      * @param gzipEnabled
      * @throws IllegalArgumentException if a different value for gzipEnabled has already been set.
+     * @throws IllegalStateException if the config has already been frozen.
      */
-    public void setGzipEnabled(boolean gzipEnabled) throws IllegalArgumentException
+    public void setGzipEnabled(boolean gzipEnabled) throws IllegalArgumentException, IllegalStateException
     {
+        checkNotFrozen();
         if (this.gzipEnabled != null && this.gzipEnabled != gzipEnabled)
         {
             throw new IllegalArgumentException("gzipEnabled has already been set to a different value.");
@@ -182,13 +251,179 @@ public class RelativeResourceHandlerConfig implements Serializable
      *
      * @param localeSupportEnabled
      * @throws IllegalArgumentException if a different value for localeSupportEnabled has already been set.
+     * @throws IllegalStateException if the config has already been frozen.
      */
-    public void setLocaleSupportEnabled(boolean localeSupportEnabled) throws IllegalArgumentException
+    public void setLocaleSupportEnabled(boolean localeSupportEnabled)
+            throws IllegalArgumentException, IllegalStateException
     {
+        checkNotFrozen();
         if (this.localeSupportEnabled != null && this.localeSupportEnabled != localeSupportEnabled)
         {
             throw new IllegalArgumentException("localeSupportEnabled has already been set to a different value.");
         }
         this.localeSupportEnabled = localeSupportEnabled;
     }
+
+    /**
+     * Returns the compression settings of this config, or CompressionConfig.DEFAULT if no value has been set.
+     *
+     * @return
+     */
+    public CompressionConfig getCompressionConfig()
+    {
+        if (compressionConfig == null)
+        {
+            return CompressionConfig.DEFAULT;
+        }
+        return compressionConfig;
+    }
+
+    /**
+     * Sets the compression settings of this config.
+     *
+     * @param compressionConfig
+     * @throws IllegalArgumentException if different compression settings have already been set.
+     * @throws IllegalStateException if the config has already been frozen.
+     */
+    public void setCompressionConfig(CompressionConfig compressionConfig)
+            throws IllegalArgumentException, IllegalStateException
+    {
+        checkNotFrozen();
+        if (this.compressionConfig != null
+                && !this.compressionConfig.getSignature().equals(compressionConfig.getSignature()))
+        {
+            throw new IllegalArgumentException("compression has already been set to different values.");
+        }
+        this.compressionConfig = compressionConfig;
+    }
+
+    private void checkNotFrozen() throws IllegalStateException
+    {
+        if (frozen)
+        {
+            throw new IllegalStateException("The config cannot be modified after it has been frozen");
+        }
+    }
+
+    /**
+     * Merges the given config (e.g. parsed from another config file) into this config.
+     * Conflicting values are skipped and reported, thus all conflicts are known at once.
+     *
+     * @param other
+     * @return the messages of the conflicts, or an empty list if there were no conflicts
+     */
+    public List<String> merge(RelativeResourceHandlerConfig other)
+    {
+        List<String> conflicts = new ArrayList<String>();
+
+        // sorted by name, thus the conflicts are reported in a deterministic order
+        for (Library library : other.getLibraries())
+        {
+            try
+            {
+                addLibrary(library);
+            }
+            catch (IllegalArgumentException e)
+            {
+                conflicts.add(e.getMessage());
+            }
+        }
+
+        try
+        {
+            if (other.urlVersion != null)
+            {
+                setUrlVersion(other.urlVersion);
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            conflicts.add(e.getMessage());
+        }
+
+        try
+        {
+            if (other.gzipEnabled != null)
+            {
+                setGzipEnabled(other.gzipEnabled);
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            conflicts.add(e.getMessage());
+        }
+
+        try
+        {
+            if (other.localeSupportEnabled != null)
+            {
+                setLocaleSupportEnabled(other.localeSupportEnabled);
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            conflicts.add(e.getMessage());
+        }
+
+        try
+        {
+            if (other.compressionConfig != null)
+            {
+                setCompressionConfig(other.compressionConfig);
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            conflicts.add(e.getMessage());
+        }
+
+        return conflicts;
+    }
+
+    /**
+     * Immutable table of the libraries, sorted by name (binary search).
+     */
+    private static final class LibraryTable implements Serializable
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final LibraryTable EMPTY = new LibraryTable(new String[0], new Library[0]);
+
+        private final String[] names;
+        private final Library[] libraries;
+
+        private LibraryTable(String[] names, Library[] libraries)
+        {
+            this.names = names;
+            this.libraries = libraries;
+        }
+
+        private int indexOf(String name)
+        {
+            return (name == null ? -1 : Arrays.binarySearch(names, name));
+        }
+
+        /**
+         * Returns a new table, which additionally contains the given library.
+         */
+        private LibraryTable with(Library library)
+        {
+            int insertionPoint = -(indexOf(library.getName()) + 1);
+
+            String[] newNames = new String[names.length + 1];
+            Library[] newLibraries = new Library[libraries.length + 1];
+            System.arraycopy(names, 0, newNames, 0, insertionPoint);
+            System.arraycopy(libraries, 0, newLibraries, 0, insertionPoint);
+            newNames[insertionPoint] = library.getName();
+            newLibraries[insertionPoint] = library;
+            System.arraycopy(names, insertionPoint, newNames, insertionPoint + 1, names.length - insertionPoint);
+            System.arraycopy(libraries, insertionPoint, newLibraries, insertionPoint + 1,
+                    libraries.length - insertionPoint);
+
+            return new LibraryTable(newNames, newLibraries);
+        }
+
+    }
+
 }
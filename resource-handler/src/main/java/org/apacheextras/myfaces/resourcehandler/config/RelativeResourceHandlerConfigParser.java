@@ -21,9 +21,11 @@
 package org.apacheextras.myfaces.resourcehandler.config;
 
 import org.apacheextras.myfaces.resourcehandler.ResourceUtils;
+import org.apacheextras.myfaces.resourcehandler.processor.ResourceProcessorRegistry;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
+import javax.faces.context.FacesContext;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
@@ -31,13 +33,25 @@ import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 /**
  * XML-parser for RelativeResourceHandlerConfig.
@@ -60,18 +74,47 @@ public class RelativeResourceHandlerConfigParser
     /**
      * The XSD schema file for our config file, relative-resources.xml
      */
-    private static final String RELATIVE_RESOURCES_XSD = "META-INF/relative-resources.xsd";
+    static final String RELATIVE_RESOURCES_XSD = "META-INF/relative-resources.xsd";
 
     /**
-     * The validator for our XSD.
+     * The validator for our XSD (Validators are not thread-safe, thus every parser has its own one).
      */
     private Validator validator;
 
+    /**
+     * The registry used to check the processor names of the libraries.
+     */
+    private final ResourceProcessorRegistry processorRegistry;
+
     public RelativeResourceHandlerConfigParser()
     {
+        this(getDefaultProcessorRegistry());
+    }
+
+    /**
+     * Creates a RelativeResourceHandlerConfigParser, which checks the processor names against the given registry.
+     *
+     * @param processorRegistry
+     */
+    public RelativeResourceHandlerConfigParser(ResourceProcessorRegistry processorRegistry)
+    {
+        this.processorRegistry = processorRegistry;
         initializeXsdValidator();
     }
 
+    /**
+     * The compiled XSD schema and the StAX factory, which are thread-safe and shared by all parsers
+     * (created on first use).
+     */
+    private static final class SharedFactories
+    {
+
+        private static final Schema SCHEMA = compileSchema();
+
+        private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    }
+
     public void parseClasspathResource(String resource, RelativeResourceHandlerConfig config)
             throws IOException, XMLStreamException
     {
@@ -79,22 +122,145 @@ public class RelativeResourceHandlerConfigParser
         Enumeration<URL> configUrls = classLoader.getResources(resource);
         if (configUrls != null)
         {
-            while (configUrls.hasMoreElements())
+            parseUrls(Collections.list(configUrls), config);
+        }
+    }
+
+    /**
+     * Parses the given config files concurrently into partial configs, which are merged into the given config
+     * in the order of the given list afterwards. If the config files fail to parse, the exception of the first
+     * failing file is thrown.
+     *
+     * @param urls
+     * @param config
+     * @throws IOException
+     * @throws XMLStreamException
+     * @throws IllegalArgumentException if the config files conflict (e.g. the same library in two files),
+     *                                  the message contains all conflicts.
+     */
+    public void parseUrls(List<URL> urls, RelativeResourceHandlerConfig config)
+            throws IOException, XMLStreamException, IllegalArgumentException
+    {
+        List<RelativeResourceHandlerConfig> partialConfigs = parsePartialConfigs(urls);
+
+        List<String> conflicts = new ArrayList<String>();
+        for (int i = 0; i < urls.size(); i++)
+        {
+            for (String conflict : config.merge(partialConfigs.get(i)))
+            {
+                conflicts.add(urls.get(i).toExternalForm() + ": " + conflict);
+            }
+        }
+
+        if (!conflicts.isEmpty())
+        {
+            StringBuilder message = new StringBuilder("Found ").append(conflicts.size())
+                    .append(" conflict(s) between the config files:");
+            for (String conflict : conflicts)
+            {
+                message.append("\n  ").append(conflict);
+            }
+            throw new IllegalArgumentException(message.toString());
+        }
+    }
+
+    private List<RelativeResourceHandlerConfig> parsePartialConfigs(List<URL> urls)
+            throws IOException, XMLStreamException
+    {
+        List<RelativeResourceHandlerConfig> partialConfigs = new ArrayList<RelativeResourceHandlerConfig>(urls.size());
+        if (urls.size() <= 1)
+        {
+            for (URL url : urls)
+            {
+                RelativeResourceHandlerConfig partialConfig = new RelativeResourceHandlerConfig();
+                parseUrl(url, partialConfig);
+                partialConfigs.add(partialConfig);
+            }
+            return partialConfigs;
+        }
+
+        // a webapp with dozens of jars has dozens of config files --> parse them concurrently in a bounded pool,
+        // which only lives as long as this method
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(urls.size(), Runtime.getRuntime().availableProcessors()),
+                new ParserThreadFactory(ResourceUtils.getContextClassLoader()));
+        try
+        {
+            List<Future<RelativeResourceHandlerConfig>> futures
+                    = new ArrayList<Future<RelativeResourceHandlerConfig>>(urls.size());
+            for (final URL url : urls)
+            {
+                futures.add(executor.submit(new Callable<RelativeResourceHandlerConfig>()
+                {
+                    public RelativeResourceHandlerConfig call() throws Exception
+                    {
+                        // every thread needs its own parser (Validators are not thread-safe)
+                        RelativeResourceHandlerConfig partialConfig = new RelativeResourceHandlerConfig();
+                        new RelativeResourceHandlerConfigParser(processorRegistry).parseUrl(url, partialConfig);
+                        return partialConfig;
+                    }
+                }));
+            }
+
+            for (Future<RelativeResourceHandlerConfig> future : futures)
             {
-                parseUrl(configUrls.nextElement(), config);
+                partialConfigs.add(getPartialConfig(future));
             }
+            return partialConfigs;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static RelativeResourceHandlerConfig getPartialConfig(Future<RelativeResourceHandlerConfig> future)
+            throws IOException, XMLStreamException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing the config files");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            if (cause instanceof XMLStreamException)
+            {
+                throw (XMLStreamException) cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
         }
     }
 
     public void parseUrl(URL url, RelativeResourceHandlerConfig config)
             throws IOException, XMLStreamException
     {
+        // read the config file only once, it is validated and parsed in memory
+        byte[] content = readContent(url);
+
         // validate config file via XML schema
         if (shouldValidateSchema())
         {
             try
             {
-                validateSchema(url);
+                validator.validate(new StreamSource(new ByteArrayInputStream(content)));
             }
             catch (SAXParseException validationException)
             {
@@ -112,12 +278,9 @@ public class RelativeResourceHandlerConfigParser
         }
 
         XMLStreamReader streamReader = null;
-        InputStream urlInputStream = url.openStream();
         try
         {
-            // create XMLInputFactory
-            XMLInputFactory factory = XMLInputFactory.newInstance();
-            streamReader = factory.createXMLStreamReader(urlInputStream);
+            streamReader = SharedFactories.XML_INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(content));
 
             while (streamReader.hasNext())
             {
@@ -145,6 +308,11 @@ public class RelativeResourceHandlerConfigParser
                         // read locale-support-enabled and set it on config
                         config.setLocaleSupportEnabled(readLocaleSupportEnabled(streamReader));
                     }
+                    else if ("compression".equals(streamReader.getLocalName()))
+                    {
+                        // read compression and set it on config
+                        config.setCompressionConfig(readCompressionConfig(streamReader));
+                    }
                 }
             }
         }
@@ -155,11 +323,6 @@ public class RelativeResourceHandlerConfigParser
             {
                 streamReader.close();
             }
-            // close InputStream or URL
-            if (urlInputStream != null)
-            {
-                urlInputStream.close();
-            }
         }
     }
 
@@ -177,6 +340,16 @@ public class RelativeResourceHandlerConfigParser
         String localName = null;
         boolean insideElEvaluation = false;
         List<String> elEvaluationFileMasks = new LinkedList<String>();
+        boolean insideBundles = false;
+        String bundleName = null;
+        String bundleVersion = null;
+        List<String> bundleResourceNames = null;
+        StringBuilder sbBundleResource = null;
+        List<Bundle> bundles = new ArrayList<Bundle>();
+        boolean insideProcessing = false;
+        StringBuilder sbProcessor = null;
+        List<String> processorNames = new ArrayList<String>();
+        CachePolicy cachePolicy = null;
 
         while (streamReader.hasNext())
         {
@@ -226,6 +399,61 @@ public class RelativeResourceHandlerConfigParser
 
                     sbFileMask = new StringBuilder();
                 }
+                else if ("bundles".equals(localName))
+                {
+                    insideBundles = true;
+                }
+                else if ("processing".equals(localName))
+                {
+                    insideProcessing = true;
+                }
+                else if ("processor".equals(localName))
+                {
+                    if (!insideProcessing)
+                    {
+                        throw new XMLStreamException("<processor> is only allowed inside of <processing>",
+                            streamReader.getLocation());
+                    }
+
+                    sbProcessor = new StringBuilder();
+                }
+                else if ("cache-control".equals(localName))
+                {
+                    if (cachePolicy != null)
+                    {
+                        throw new XMLStreamException("Only one <cache-control> element is allowed inside <library>",
+                                streamReader.getLocation());
+                    }
+
+                    cachePolicy = readCachePolicy(streamReader);
+                }
+                else if ("bundle".equals(localName))
+                {
+                    if (!insideBundles)
+                    {
+                        throw new XMLStreamException("<bundle> is only allowed inside of <bundles>",
+                            streamReader.getLocation());
+                    }
+
+                    bundleName = streamReader.getAttributeValue(null, "name");
+                    if (bundleName == null)
+                    {
+                        throw new XMLStreamException("<bundle> element without name attribute",
+                                streamReader.getLocation());
+                    }
+                    bundleVersion = streamReader.getAttributeValue(null, "version");
+                    bundleResourceNames = new ArrayList<String>();
+                }
+                else if ("resource".equals(localName))
+                {
+                    if (bundleResourceNames == null)
+                    {
+                        throw new XMLStreamException("<resource> is only allowed inside of <bundle>",
+                            streamReader.getLocation());
+                    }
+
+                    sbBundleResource = new StringBuilder();
+                }
                 else
                 {
                     throw new XMLStreamException("Invalid child element <" + localName + "> of <library>",
@@ -244,6 +472,16 @@ public class RelativeResourceHandlerConfigParser
                     // use StringBuilder.append(), b/c characters can get called multiple times
                     sbFileMask.append(streamReader.getText());
                 }
+                else if ("resource".equals(localName))
+                {
+                    // use StringBuilder.append(), b/c characters can get called multiple times
+                    sbBundleResource.append(streamReader.getText());
+                }
+                else if ("processor".equals(localName))
+                {
+                    // use StringBuilder.append(), b/c characters can get called multiple times
+                    sbProcessor.append(streamReader.getText());
+                }
             }
             else if (streamReader.isEndElement())
             {
@@ -263,7 +501,20 @@ public class RelativeResourceHandlerConfigParser
                                 streamReader.getLocation());
                     }
 
-                    return new Library(libraryName, locationType, location, elEvaluationFileMasks);
+                    if (Library.LocationType.EXTERNAL.equals(locationType) && !bundles.isEmpty())
+                    {
+                        throw new XMLStreamException("Bundles are not available for external resources",
+                                streamReader.getLocation());
+                    }
+
+                    if (Library.LocationType.EXTERNAL.equals(locationType) && !processorNames.isEmpty())
+                    {
+                        throw new XMLStreamException("Processing is not available for external resources",
+                                streamReader.getLocation());
+                    }
+
+                    return new Library(libraryName, locationType, location, elEvaluationFileMasks, bundles,
+                            processorNames, cachePolicy);
                 }
                 else if ("el-evaluation".equals(localName))
                 {
@@ -273,7 +524,41 @@ public class RelativeResourceHandlerConfigParser
                 {
                     elEvaluationFileMasks.add(sbFileMask.toString().trim());
                 }
-                else if (!"location".equals(localName))
+                else if ("bundles".equals(localName))
+                {
+                    insideBundles = false;
+                }
+                else if ("processing".equals(localName))
+                {
+                    insideProcessing = false;
+                }
+                else if ("processor".equals(localName))
+                {
+                    String processorName = sbProcessor.toString().trim();
+                    if (processorRegistry.getProcessor(processorName) == null)
+                    {
+                        throw new XMLStreamException("Unknown processor " + processorName,
+                                streamReader.getLocation());
+                    }
+                    processorNames.add(processorName);
+                }
+                else if ("bundle".equals(localName))
+                {
+                    try
+                    {
+                        bundles.add(new Bundle(bundleName, bundleVersion, bundleResourceNames));
+                    }
+                    catch (IllegalArgumentException e)
+                    {
+                        throw new XMLStreamException(e.getMessage(), streamReader.getLocation());
+                    }
+                    bundleResourceNames = null;
+                }
+                else if ("resource".equals(localName))
+                {
+                    bundleResourceNames.add(sbBundleResource.toString().trim());
+                }
+                else if (!"location".equals(localName) && !"cache-control".equals(localName))
                 {
                     throw new XMLStreamException("Invalid end element <" + localName + "> inside <library>",
                             streamReader.getLocation());
@@ -289,6 +574,95 @@ public class RelativeResourceHandlerConfigParser
         throw new XMLStreamException("Could not find end element of library");
     }
 
+    private CachePolicy readCachePolicy(XMLStreamReader streamReader) throws XMLStreamException
+    {
+        Long maxAge = readSecondsAttribute("max-age", streamReader);
+        boolean immutable = Boolean.parseBoolean(streamReader.getAttributeValue(null, "immutable"));
+        Long staleWhileRevalidate = readSecondsAttribute("stale-while-revalidate", streamReader);
+
+        CachePolicy.Visibility visibility = null;
+        String visibilityString = streamReader.getAttributeValue(null, "visibility");
+        if (visibilityString != null)
+        {
+            try
+            {
+                visibility = CachePolicy.Visibility.valueOf(visibilityString.trim().toUpperCase());
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new XMLStreamException("Invalid visibility attribute " + visibilityString,
+                        streamReader.getLocation());
+            }
+        }
+
+        return new CachePolicy(maxAge, immutable, visibility, staleWhileRevalidate);
+    }
+
+    private Long readSecondsAttribute(String attributeName, XMLStreamReader streamReader) throws XMLStreamException
+    {
+        String value = streamReader.getAttributeValue(null, attributeName);
+        if (value == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            long seconds = Long.parseLong(value.trim());
+            if (seconds >= 0)
+            {
+                return seconds;
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            // handled below
+        }
+        throw new XMLStreamException("Invalid " + attributeName + " attribute " + value
+                + " (must be a non-negative number of seconds)", streamReader.getLocation());
+    }
+
+    private CompressionConfig readCompressionConfig(XMLStreamReader streamReader) throws XMLStreamException
+    {
+        int level = Deflater.DEFAULT_COMPRESSION;
+        String levelString = streamReader.getAttributeValue(null, "level");
+        if (levelString != null)
+        {
+            try
+            {
+                level = Integer.parseInt(levelString.trim());
+            }
+            catch (NumberFormatException e)
+            {
+                level = Integer.MIN_VALUE;  // handled below
+            }
+            if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            {
+                throw new XMLStreamException("Invalid level attribute " + levelString + " (must be between 0 and 9)",
+                        streamReader.getLocation());
+            }
+        }
+
+        CompressionConfig.Strategy strategy = null;
+        String strategyString = streamReader.getAttributeValue(null, "strategy");
+        if (strategyString != null)
+        {
+            try
+            {
+                strategy = CompressionConfig.Strategy.valueOf(strategyString.trim().toUpperCase().replace('-', '_'));
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new XMLStreamException("Invalid strategy attribute " + strategyString,
+                        streamReader.getLocation());
+            }
+        }
+
+        boolean exhaustive = Boolean.parseBoolean(streamReader.getAttributeValue(null, "exhaustive"));
+
+        return new CompressionConfig(level, strategy, exhaustive);
+    }
+
     private String readUrlVersion(XMLStreamReader streamReader) throws XMLStreamException
     {
         return readDataElement("url-version", streamReader);
@@ -343,26 +717,48 @@ public class RelativeResourceHandlerConfigParser
         return sbValue.toString();
     }
 
+    /**
+     * Returns the ResourceProcessorRegistry of the current application, or a registry for the context ClassLoader
+     * if the parser is used outside of JSF (e.g. by ConfigSnapshot at build time).
+     *
+     * @return
+     */
+    private static ResourceProcessorRegistry getDefaultProcessorRegistry()
+    {
+        FacesContext facesContext = FacesContext.getCurrentInstance();
+        if (facesContext != null)
+        {
+            return ResourceProcessorRegistry.getInstance(facesContext);
+        }
+        return new ResourceProcessorRegistry(ResourceUtils.getContextClassLoader());
+    }
+
     private void initializeXsdValidator()
+    {
+        // get a validator from the shared schema.
+        Schema schema = SharedFactories.SCHEMA;
+        if (schema != null)
+        {
+            validator = schema.newValidator();
+        }
+    }
+
+    private static Schema compileSchema()
     {
         // lookup a factory for the W3C XML Schema language
         SchemaFactory factory = SchemaFactory.newInstance(W3C_XML_SCHEMA_URI);
 
-        // compile the schema.
-        ClassLoader classLoader = ResourceUtils.getContextClassLoader();
-        URL schemaUrl = classLoader.getResource(RELATIVE_RESOURCES_XSD);
-        Schema schema;
+        // compile the schema (shipped together with this class, thus not looked up via the context ClassLoader)
+        URL schemaUrl = RelativeResourceHandlerConfigParser.class.getClassLoader().getResource(RELATIVE_RESOURCES_XSD);
         try
         {
-            schema = factory.newSchema(schemaUrl);
-
-            // get a validator from the schema.
-            validator = schema.newValidator();
+            return factory.newSchema(schemaUrl);
         }
         catch (SAXException e)
         {
             log.warning("Could not initialize XSD schema validator, " +
                     "thus relative-resources.xml will not be validated before parsing.");
+            return null;
         }
     }
 
@@ -371,21 +767,43 @@ public class RelativeResourceHandlerConfigParser
         return (validator != null);
     }
 
-    private void validateSchema(URL url) throws SAXException, IOException
+    private static byte[] readContent(URL url) throws IOException
     {
         InputStream inputStream = url.openStream();
         try
         {
-            // validate the xml
-            validator.validate(new StreamSource(inputStream));
+            return ResourceUtils.readBytes(inputStream);
         }
         finally
         {
-            if (inputStream != null)
-            {
-                inputStream.close();
-            }
+            inputStream.close();
         }
     }
 
+    /**
+     * Creates the named daemon threads of the parser pool, which use the context ClassLoader of the webapp
+     * (needed to lookup the ResourceProcessors) and thus never keep the container from shutting down.
+     */
+    private static final class ParserThreadFactory implements ThreadFactory
+    {
+
+        private final ClassLoader contextClassLoader;
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        private ParserThreadFactory(ClassLoader contextClassLoader)
+        {
+            this.contextClassLoader = contextClassLoader;
+        }
+
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable,
+                    "RelativeResourceHandler-ConfigParser-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(contextClassLoader);
+            return thread;
+        }
+
+    }
+
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.dependency;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the relative url(...) and @import targets of a css resource, which are located in the same library.
+ *
+ * Absolute urls, urls with a scheme (e.g. data: or http:), EL expressions and paths leaving the library are ignored,
+ * because they are not resolved relative to the css resource by RelativeResourceHandler.
+ *
+ * @author Jakob Korherr
+ */
+public class CssDependencyAnalyzer
+{
+
+    private static final Pattern COMMENT_PATTERN = Pattern.compile("/\\*.*?\\*/", Pattern.DOTALL);
+
+    private static final Pattern URL_PATTERN = Pattern.compile("url\\(\\s*(['\"]?)(.*?)\\1\\s*\\)");
+
+    private static final Pattern IMPORT_PATTERN = Pattern.compile("@import\\s+(['\"])(.*?)\\1");
+
+    /**
+     * Returns the library relative resource names referenced by the given css content in declaration order.
+     *
+     * @param resourceName the resource name of the css resource (relative to its library)
+     * @param css
+     * @return
+     */
+    public static List<String> getDependencies(String resourceName, String css)
+    {
+        String directory = "";
+        int lastSlash = resourceName.lastIndexOf('/');
+        if (lastSlash != -1)
+        {
+            directory = resourceName.substring(0, lastSlash + 1);
+        }
+
+        String content = COMMENT_PATTERN.matcher(css).replaceAll("");
+        Set<String> dependencies = new LinkedHashSet<String>();
+        collect(IMPORT_PATTERN.matcher(content), directory, dependencies);
+        collect(URL_PATTERN.matcher(content), directory, dependencies);
+
+        return new ArrayList<String>(dependencies);
+    }
+
+    private static void collect(Matcher matcher, String directory, Set<String> dependencies)
+    {
+        while (matcher.find())
+        {
+            String resolved = resolve(directory, matcher.group(2).trim());
+            if (resolved != null)
+            {
+                dependencies.add(resolved);
+            }
+        }
+    }
+
+    /**
+     * Resolves the given url relative to the given directory, or returns null if the url is not
+     * a relative path inside of the library.
+     *
+     * @param directory
+     * @param url
+     * @return
+     */
+    static String resolve(String directory, String url)
+    {
+        // skip the query string and the fragment (e.g. font.eot?#iefix or icons.svg#icon)
+        int end = url.length();
+        int queryIndex = url.indexOf('?');
+        if (queryIndex != -1)
+        {
+            end = queryIndex;
+        }
+        int fragmentIndex = url.indexOf('#');
+        if (fragmentIndex != -1 && fragmentIndex < end && !url.startsWith("#{", fragmentIndex))
+        {
+            end = fragmentIndex;
+        }
+        url = url.substring(0, end);
+
+        if (url.length() == 0 || url.startsWith("/") || url.contains(":")
+                || url.contains("#{") || url.contains("${") || url.contains("\\"))
+        {
+            return null;
+        }
+
+        LinkedList<String> segments = new LinkedList<String>();
+        for (String segment : (directory + url).split("/"))
+        {
+            if ("..".equals(segment))
+            {
+                if (segments.isEmpty())
+                {
+                    return null;  // leaves the library
+                }
+                segments.removeLast();
+            }
+            else if (segment.length() > 0 && !".".equals(segment))
+            {
+                segments.add(segment);
+            }
+        }
+        if (segments.isEmpty())
+        {
+            return null;
+        }
+
+        StringBuilder resourceName = new StringBuilder();
+        for (String segment : segments)
+        {
+            if (resourceName.length() > 0)
+            {
+                resourceName.append('/');
+            }
+            resourceName.append(segment);
+        }
+        return resourceName.toString();
+    }
+
+}
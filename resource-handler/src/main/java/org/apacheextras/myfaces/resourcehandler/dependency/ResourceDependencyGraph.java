@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.dependency;
+
+import javax.faces.context.FacesContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Dependency graph of the relative resources per library, e.g. the images and fonts referenced by a stylesheet
+ * via relative url(...) paths or other stylesheets referenced via @import (see {@link CssDependencyAnalyzer}).
+ *
+ * The dependencies of a resource are stored when the resource is initialized. RelativeResourceHandler uses them
+ * to initialize the dependencies of a stylesheet before the browser requests them, and the
+ * {@link org.apacheextras.myfaces.resourcehandler.preload.PreloadPhaseListener} to announce them.
+ *
+ * @author Jakob Korherr
+ */
+public class ResourceDependencyGraph
+{
+
+    /**
+     * ApplicationMap key for the ResourceDependencyGraph of the current application.
+     */
+    private static final String APPLICATION_MAP_KEY = ResourceDependencyGraph.class.getName();
+
+    /**
+     * Guards the creation of the ResourceDependencyGraph of an application.
+     */
+    private static final ReentrantLock INSTANCE_LOCK = new ReentrantLock();
+
+    /**
+     * Direct dependencies per resource name per library name (the lists are immutable).
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, List<String>>> libraries
+            = new ConcurrentHashMap<String, ConcurrentMap<String, List<String>>>();
+
+    /**
+     * Returns the ResourceDependencyGraph of the current application.
+     *
+     * @param facesContext
+     * @return
+     */
+    public static ResourceDependencyGraph getInstance(FacesContext facesContext)
+    {
+        Map<String, Object> applicationMap = facesContext.getExternalContext().getApplicationMap();
+
+        ResourceDependencyGraph graph = (ResourceDependencyGraph) applicationMap.get(APPLICATION_MAP_KEY);
+        if (graph == null)
+        {
+            INSTANCE_LOCK.lock();
+            try
+            {
+                graph = (ResourceDependencyGraph) applicationMap.get(APPLICATION_MAP_KEY);
+                if (graph == null)
+                {
+                    graph = new ResourceDependencyGraph();
+                    applicationMap.put(APPLICATION_MAP_KEY, graph);
+                }
+            }
+            finally
+            {
+                INSTANCE_LOCK.unlock();
+            }
+        }
+
+        return graph;
+    }
+
+    /**
+     * Stores the direct dependencies of the given resource (replacing the previous ones).
+     *
+     * @param libraryName
+     * @param resourceName
+     * @param dependencies
+     */
+    public void setDependencies(String libraryName, String resourceName, List<String> dependencies)
+    {
+        ConcurrentMap<String, List<String>> library = libraries.get(libraryName);
+        if (library == null)
+        {
+            ConcurrentMap<String, List<String>> newLibrary = new ConcurrentHashMap<String, List<String>>();
+            library = libraries.putIfAbsent(libraryName, newLibrary);
+            if (library == null)
+            {
+                library = newLibrary;
+            }
+        }
+
+        library.put(resourceName, Collections.unmodifiableList(new ArrayList<String>(dependencies)));
+    }
+
+    /**
+     * Returns the direct dependencies of the given resource, or an empty list if they are not known (yet).
+     *
+     * @param libraryName
+     * @param resourceName
+     * @return
+     */
+    public List<String> getDependencies(String libraryName, String resourceName)
+    {
+        ConcurrentMap<String, List<String>> library = libraries.get(libraryName);
+        List<String> dependencies = (library != null ? library.get(resourceName) : null);
+        return (dependencies != null ? dependencies : Collections.<String>emptyList());
+    }
+
+    /**
+     * Returns the (known) transitive dependencies of the given resource in breadth-first order,
+     * without the resource itself.
+     *
+     * @param libraryName
+     * @param resourceName
+     * @return
+     */
+    public List<String> getTransitiveDependencies(String libraryName, String resourceName)
+    {
+        Set<String> visited = new LinkedHashSet<String>();
+        visited.add(resourceName);
+
+        LinkedList<String> queue = new LinkedList<String>();
+        queue.add(resourceName);
+        while (!queue.isEmpty())
+        {
+            for (String dependency : getDependencies(libraryName, queue.removeFirst()))
+            {
+                if (visited.add(dependency))
+                {
+                    queue.add(dependency);
+                }
+            }
+        }
+
+        visited.remove(resourceName);
+        return new ArrayList<String>(visited);
+    }
+
+}
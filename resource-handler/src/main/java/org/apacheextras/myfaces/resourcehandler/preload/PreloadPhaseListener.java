@@ -0,0 +1,188 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.preload;
+
+import org.apacheextras.myfaces.resourcehandler.ResourceId;
+import org.apacheextras.myfaces.resourcehandler.dependency.ResourceDependencyGraph;
+
+import javax.faces.application.Resource;
+import javax.faces.application.ResourceHandler;
+import javax.faces.context.ExternalContext;
+import javax.faces.context.FacesContext;
+import javax.faces.event.PhaseEvent;
+import javax.faces.event.PhaseId;
+import javax.faces.event.PhaseListener;
+import javax.servlet.ServletResponseWrapper;
+import java.lang.reflect.Method;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * PhaseListener, which announces the relative resources recorded for the current view (see {@link PreloadRegistry})
+ * and their dependencies (see {@link ResourceDependencyGraph}) via a Link preload header before the view is
+ * rendered. If enabled, the header is also sent as 103 Early Hints response, if the container supports them
+ * (via a public sendEarlyHints() method of its response, wrappers of the response are unwrapped first).
+ *
+ * @author Jakob Korherr
+ */
+public class PreloadPhaseListener implements PhaseListener
+{
+
+    private static final Logger log = Logger.getLogger(PreloadPhaseListener.class.getName());
+
+    private static final String LINK_HEADER = "Link";
+
+    private static final String SEND_EARLY_HINTS_METHOD = "sendEarlyHints";
+
+    /**
+     * The sendEarlyHints() method per response class, a missing method is cached as null.
+     */
+    private static final ConcurrentMap<Class<?>, EarlyHintsMethod> earlyHintsMethods
+            = new ConcurrentHashMap<Class<?>, EarlyHintsMethod>();
+
+    public PhaseId getPhaseId()
+    {
+        return PhaseId.RENDER_RESPONSE;
+    }
+
+    public void beforePhase(PhaseEvent event)
+    {
+        FacesContext facesContext = event.getFacesContext();
+        PreloadRegistry preloadRegistry = PreloadRegistry.getInstance(facesContext);
+        ExternalContext externalContext = facesContext.getExternalContext();
+        if (preloadRegistry == null || facesContext.getViewRoot() == null || externalContext.isResponseCommitted())
+        {
+            return;
+        }
+
+        List<ResourceId> resources = preloadRegistry.getResources(facesContext.getViewRoot().getViewId());
+        if (resources.isEmpty())
+        {
+            return;
+        }
+
+        // add the dependencies of the recorded resources (e.g. the fonts of a stylesheet)
+        ResourceDependencyGraph dependencyGraph = ResourceDependencyGraph.getInstance(facesContext);
+        Set<ResourceId> preloads = new LinkedHashSet<ResourceId>(resources);
+        for (ResourceId resourceId : resources)
+        {
+            for (String dependency : dependencyGraph.getTransitiveDependencies(
+                    resourceId.getLibraryName(), resourceId.getResourceName()))
+            {
+                preloads.add(new ResourceId(dependency, resourceId.getLibraryName(), null));
+            }
+        }
+
+        // re-create the resources to get the request paths for the current request (e.g. locale or tenant)
+        ResourceHandler resourceHandler = facesContext.getApplication().getResourceHandler();
+        StringBuilder links = new StringBuilder();
+        for (ResourceId resourceId : preloads)
+        {
+            Resource resource = resourceHandler.createResource(
+                    resourceId.getResourceName(), resourceId.getLibraryName());
+            String link = (resource != null ? PreloadRegistry.createLinkValue(resource) : null);
+            if (link != null)
+            {
+                if (links.length() > 0)
+                {
+                    links.append(", ");
+                }
+                links.append(link);
+            }
+        }
+
+        if (links.length() > 0)
+        {
+            externalContext.addResponseHeader(LINK_HEADER, links.toString());
+            if (preloadRegistry.isEarlyHintsEnabled())
+            {
+                sendEarlyHints(externalContext.getResponse());
+            }
+        }
+    }
+
+    public void afterPhase(PhaseEvent event)
+    {
+        // nothing to do
+    }
+
+    private void sendEarlyHints(Object response)
+    {
+        // the method is provided by the response of the container, not by the wrappers of filters or frameworks
+        while (response instanceof ServletResponseWrapper)
+        {
+            response = ((ServletResponseWrapper) response).getResponse();
+        }
+
+        Class<?> responseClass = response.getClass();
+        EarlyHintsMethod earlyHintsMethod = earlyHintsMethods.get(responseClass);
+        if (earlyHintsMethod == null)
+        {
+            Method method;
+            try
+            {
+                method = responseClass.getMethod(SEND_EARLY_HINTS_METHOD);
+            }
+            catch (NoSuchMethodException e)
+            {
+                log.info("103 Early Hints are not supported by " + responseClass.getName()
+                        + ", only Link headers are sent.");
+                method = null;
+            }
+            earlyHintsMethod = new EarlyHintsMethod(method);
+            earlyHintsMethods.put(responseClass, earlyHintsMethod);
+        }
+
+        if (earlyHintsMethod.method != null)
+        {
+            try
+            {
+                earlyHintsMethod.method.invoke(response);
+            }
+            catch (Exception e)
+            {
+                // the Link header of the final response still works
+                log.log(Level.FINE, "Could not send 103 Early Hints", e);
+            }
+        }
+    }
+
+    /**
+     * Holder for a (possibly null) sendEarlyHints() method.
+     */
+    private static final class EarlyHintsMethod
+    {
+
+        private final Method method;
+
+        private EarlyHintsMethod(Method method)
+        {
+            this.method = method;
+        }
+
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.preload;
+
+import org.apacheextras.myfaces.resourcehandler.ResourceId;
+
+import javax.faces.application.Resource;
+import javax.faces.context.FacesContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the relative resources, which are referenced by the views of the application.
+ *
+ * A resource is recorded, when its request path is rendered into a view. The next responses of the view announce
+ * the recorded stylesheets, scripts and fonts via Link preload headers (see {@link PreloadPhaseListener}), thus the
+ * browser can start to download them before it has parsed the HTML.
+ *
+ * Only the resource names are recorded, because the request path depends on the current request (e.g. locale or
+ * tenant). The registry only exists if preloading is enabled (see
+ * {@link org.apacheextras.myfaces.resourcehandler.RelativeResourceHandler#PRELOAD_ENABLED_PARAM}).
+ *
+ * @author Jakob Korherr
+ */
+public class PreloadRegistry
+{
+
+    /**
+     * Max number of resources, which are announced per view.
+     */
+    public static final int MAX_RESOURCES_PER_VIEW = 16;
+
+    /**
+     * ApplicationMap key for the PreloadRegistry of the current application.
+     */
+    private static final String APPLICATION_MAP_KEY = PreloadRegistry.class.getName();
+
+    private final boolean earlyHintsEnabled;
+
+    /**
+     * Recorded resources per view id in the order of their first reference. The lists are immutable,
+     * thus they can be read without locking (the resources of a view rarely change after the first requests).
+     */
+    private final ConcurrentMap<String, List<ResourceId>> resources = new ConcurrentHashMap<String, List<ResourceId>>();
+
+    public PreloadRegistry(boolean earlyHintsEnabled)
+    {
+        this.earlyHintsEnabled = earlyHintsEnabled;
+    }
+
+    /**
+     * Installs a PreloadRegistry for the application with the given ApplicationMap.
+     *
+     * @param applicationMap
+     * @param earlyHintsEnabled
+     */
+    public static void install(Map<String, Object> applicationMap, boolean earlyHintsEnabled)
+    {
+        applicationMap.put(APPLICATION_MAP_KEY, new PreloadRegistry(earlyHintsEnabled));
+    }
+
+    /**
+     * Returns the PreloadRegistry of the current application, or null if preloading is disabled.
+     *
+     * @param facesContext
+     * @return
+     */
+    public static PreloadRegistry getInstance(FacesContext facesContext)
+    {
+        return (PreloadRegistry) facesContext.getExternalContext().getApplicationMap().get(APPLICATION_MAP_KEY);
+    }
+
+    /**
+     * Returns true if the Link headers should also be sent as 103 Early Hints (if supported by the container).
+     *
+     * @return
+     */
+    public boolean isEarlyHintsEnabled()
+    {
+        return earlyHintsEnabled;
+    }
+
+    /**
+     * Records that the given view references the given resource.
+     *
+     * @param viewId
+     * @param libraryName
+     * @param resourceName
+     */
+    public void record(String viewId, String libraryName, String resourceName)
+    {
+        ResourceId resourceId = new ResourceId(resourceName, libraryName, null);
+        while (true)
+        {
+            List<ResourceId> current = resources.get(viewId);
+            if (current == null)
+            {
+                if (resources.putIfAbsent(viewId, Collections.singletonList(resourceId)) == null)
+                {
+                    return;
+                }
+            }
+            else
+            {
+                if (current.contains(resourceId) || current.size() >= MAX_RESOURCES_PER_VIEW)
+                {
+                    return;  // fast path for all following requests
+                }
+
+                List<ResourceId> updated = new ArrayList<ResourceId>(current);
+                updated.add(resourceId);
+                if (resources.replace(viewId, current, Collections.unmodifiableList(updated)))
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the recorded resources of the given view.
+     *
+     * @param viewId
+     * @return
+     */
+    public List<ResourceId> getResources(String viewId)
+    {
+        List<ResourceId> viewResources = resources.get(viewId);
+        return (viewResources != null ? viewResources : Collections.<ResourceId>emptyList());
+    }
+
+    /**
+     * Creates the value of a Link preload header for the given resource,
+     * or null if the resource type can not be preloaded.
+     *
+     * @param resource
+     * @return
+     */
+    public static String createLinkValue(Resource resource)
+    {
+        String contentType = resource.getContentType();
+        if (contentType == null)
+        {
+            return null;
+        }
+
+        String as;
+        if (contentType.startsWith("text/css"))
+        {
+            as = "style";
+        }
+        else if (contentType.contains("javascript"))
+        {
+            as = "script";
+        }
+        else if (contentType.startsWith("font/") || contentType.startsWith("application/font")
+                || contentType.startsWith("application/x-font"))
+        {
+            // fonts are always fetched in cors mode
+            as = "font; crossorigin";
+        }
+        else
+        {
+            return null;  // e.g. images, which are often not on the critical path
+        }
+
+        return "<" + resource.getRequestPath() + ">; rel=preload; as=" + as;
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.processor;
+
+import org.apacheextras.myfaces.resourcehandler.RelativeResource;
+
+/**
+ * Pure java css minifier. It removes comments (except "important" comments starting with /*!)
+ * and all whitespace that is not significant. Strings are never changed.
+ *
+ * Whitespace is only removed around characters where it can never be significant
+ * (i.e. { } ; , &gt; and after : or (), thus e.g. the descendant combinator
+ * in "a :hover" or the whitespace in calc(1px + 2px) is preserved.
+ *
+ * @author Jakob Korherr
+ */
+public class CssMinifier extends TextResourceProcessor
+{
+
+    /**
+     * Name of this processor in relative-resources.xml.
+     */
+    public static final String NAME = "css-minifier";
+
+    /**
+     * Characters after which whitespace is not significant.
+     */
+    private static final String NO_SPACE_AFTER = "{};,>:(";
+
+    /**
+     * Characters before which whitespace is not significant.
+     */
+    private static final String NO_SPACE_BEFORE = "{};,>)";
+
+    public String getName()
+    {
+        return NAME;
+    }
+
+    public boolean isApplicable(RelativeResource resource)
+    {
+        return resource.getResourceName().endsWith(".css");
+    }
+
+    @Override
+    public String process(String css)
+    {
+        StringBuilder out = new StringBuilder(css.length());
+        boolean pendingSpace = false;
+        int length = css.length();
+        int i = 0;
+
+        while (i < length)
+        {
+            char c = css.charAt(i);
+
+            if (c == '/' && i + 1 < length && css.charAt(i + 1) == '*')
+            {
+                int end = css.indexOf("*/", i + 2);
+                end = (end == -1 ? length : end + 2);
+                if (i + 2 < length && css.charAt(i + 2) == '!')
+                {
+                    // keep important comments (e.g. license headers)
+                    appendPendingSpace(out, pendingSpace, c);
+                    out.append(css, i, end);
+                    pendingSpace = false;
+                }
+                else
+                {
+                    // a comment is treated like whitespace
+                    pendingSpace = true;
+                }
+                i = end;
+            }
+            else if (isWhitespace(c))
+            {
+                pendingSpace = true;
+                i++;
+            }
+            else if (c == '"' || c == '\'')
+            {
+                appendPendingSpace(out, pendingSpace, c);
+                pendingSpace = false;
+                int end = findStringEnd(css, i);
+                out.append(css, i, end);
+                i = end;
+            }
+            else
+            {
+                appendPendingSpace(out, pendingSpace, c);
+                pendingSpace = false;
+
+                if (c == '}' && out.length() > 0 && out.charAt(out.length() - 1) == ';')
+                {
+                    // remove the last semicolon in a block
+                    out.setLength(out.length() - 1);
+                }
+                out.append(c);
+                i++;
+            }
+        }
+
+        return out.toString();
+    }
+
+    private static void appendPendingSpace(StringBuilder out, boolean pendingSpace, char next)
+    {
+        if (pendingSpace && out.length() > 0
+                && NO_SPACE_AFTER.indexOf(out.charAt(out.length() - 1)) == -1
+                && NO_SPACE_BEFORE.indexOf(next) == -1)
+        {
+            out.append(' ');
+        }
+    }
+
+    /**
+     * Returns the index after the closing quote of the string starting at the given index.
+     *
+     * @param css
+     * @param start
+     * @return
+     */
+    private static int findStringEnd(String css, int start)
+    {
+        char quote = css.charAt(start);
+        int i = start + 1;
+        while (i < css.length())
+        {
+            char c = css.charAt(i);
+            if (c == '\\')
+            {
+                i += 2;  // skip escaped character
+            }
+            else if (c == quote || c == '\n')
+            {
+                return i + 1;
+            }
+            else
+            {
+                i++;
+            }
+        }
+        return css.length();
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.processor;
+
+import org.apacheextras.myfaces.resourcehandler.RelativeResource;
+import org.apacheextras.myfaces.resourcehandler.RelativeResourceHandler;
+import org.apacheextras.myfaces.resourcehandler.ResourceUtils;
+import org.apacheextras.myfaces.resourcehandler.el.ValueExpressionEvaluationInputStream;
+
+import javax.faces.context.FacesContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * ResourceProcessor that evaluates the el expressions of a resource using ValueExpressionEvaluationInputStream.
+ *
+ * This processor is not referenced by name in relative-resources.xml, but applied to all resources that match
+ * one of the el-evaluation file masks of the library. It is always the first stage of the processing chain.
+ *
+ * @author Jakob Korherr
+ */
+public class ElEvaluationProcessor implements ResourceProcessor
+{
+
+    /**
+     * Name of this processor.
+     */
+    public static final String NAME = "el-evaluation";
+
+    private final List<String> fileMasks;
+
+    public ElEvaluationProcessor(List<String> fileMasks)
+    {
+        this.fileMasks = fileMasks;
+    }
+
+    public String getName()
+    {
+        return NAME;
+    }
+
+    public boolean isApplicable(RelativeResource resource)
+    {
+        for (String fileMask : fileMasks)
+        {
+            if (fileMaskMatches(fileMask, resource.getResourceName()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * #{resource['']} expressions are resolved to request paths, which contain the current locale prefix.
+     *
+     * @return
+     */
+    public boolean isLocaleDependent()
+    {
+        return true;
+    }
+
+    /**
+     * #{resource['']} expressions are resolved to request paths, which contain the library name
+     * (which can be tenant specific).
+     *
+     * @return
+     */
+    public boolean isTenantDependent()
+    {
+        return true;
+    }
+
+    public void process(FacesContext facesContext, RelativeResource resource,
+                        InputStream inputStream, OutputStream outputStream) throws IOException
+    {
+        // indicate that we are currently evaluating EL expressions of a resource.
+        // we need to know this, b/c ResourceHandler.createResource() can be called while
+        // evaluating #{resource['']} expressions, and we need to treat this case differently in the ResourceHandler.
+        facesContext.getAttributes().put(RelativeResourceHandler.EVALUATING_RESOURCE_EL_EXPRESSIONS, Boolean.TRUE);
+        try
+        {
+            // NOTE that el expressions must be application scoped in order to be correct
+            InputStream evaluatingInputStream = new ValueExpressionEvaluationInputStream(facesContext, inputStream);
+            ResourceUtils.pipeBytes(evaluatingInputStream, outputStream,
+                    ResourceUtils.createPipeBuffer(inputStream.available()));
+        }
+        finally
+        {
+            facesContext.getAttributes().put(RelativeResourceHandler.EVALUATING_RESOURCE_EL_EXPRESSIONS, Boolean.FALSE);
+        }
+    }
+
+    private static boolean fileMaskMatches(String fileMask, String resourceName)
+    {
+        fileMask = fileMask.replace("*", "\\E.*\\Q");
+        fileMask = "\\Q" + fileMask + "\\E";
+
+        return resourceName.matches(fileMask);
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.processor;
+
+import org.apacheextras.myfaces.resourcehandler.RelativeResource;
+import org.apacheextras.myfaces.resourcehandler.ResourceUtils;
+import org.apacheextras.myfaces.resourcehandler.config.CompressionConfig;
+
+import javax.faces.context.FacesContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ResourceProcessor that compresses the content using GZIP.
+ *
+ * This processor is not part of the processing chain of a library. It is applied to the final output
+ * of the chain in order to create the compressed artifact of a resource (if GZIP compression is enabled).
+ *
+ * The deflate level and strategy are configured via CompressionConfig (&lt;compression&gt; in
+ * relative-resources.xml). In exhaustive mode, the content is compressed with every strategy and the smallest
+ * output is kept (with the best level, if no level is configured).
+ *
+ * @author Jakob Korherr
+ */
+public class GzipProcessor implements ResourceProcessor
+{
+
+    /**
+     * Name of this processor.
+     */
+    public static final String NAME = "gzip";
+
+    private final CompressionConfig compressionConfig;
+
+    /**
+     * Creates a GzipProcessor with the settings of java.util.zip.GZIPOutputStream.
+     */
+    public GzipProcessor()
+    {
+        this(CompressionConfig.DEFAULT);
+    }
+
+    /**
+     * Creates a GzipProcessor with the given settings.
+     *
+     * @param compressionConfig
+     */
+    public GzipProcessor(CompressionConfig compressionConfig)
+    {
+        this.compressionConfig = compressionConfig;
+    }
+
+    public CompressionConfig getCompressionConfig()
+    {
+        return compressionConfig;
+    }
+
+    public String getName()
+    {
+        return NAME;
+    }
+
+    /**
+     * GZIP compression is supported for .css and .js files.
+     *
+     * @param resource
+     * @return
+     */
+    public boolean isApplicable(RelativeResource resource)
+    {
+        return resource.getResourceName().endsWith(".css") || resource.getResourceName().endsWith(".js");
+    }
+
+    public boolean isLocaleDependent()
+    {
+        return false;
+    }
+
+    public boolean isTenantDependent()
+    {
+        return false;
+    }
+
+    public void process(FacesContext facesContext, RelativeResource resource,
+                        InputStream inputStream, OutputStream outputStream) throws IOException
+    {
+        if (!compressionConfig.isExhaustive())
+        {
+            compress(inputStream, outputStream, compressionConfig.getLevel(),
+                    compressionConfig.getStrategy().getDeflaterStrategy());
+            return;
+        }
+
+        byte[] bytes = ResourceUtils.readBytes(inputStream);
+
+        int level = (compressionConfig.getLevel() == Deflater.DEFAULT_COMPRESSION
+                ? Deflater.BEST_COMPRESSION : compressionConfig.getLevel());
+        ByteArrayOutputStream smallest = null;
+        for (CompressionConfig.Strategy strategy : CompressionConfig.Strategy.values())
+        {
+            ByteArrayOutputStream candidate = new ByteArrayOutputStream(bytes.length / 2 + 32);
+            compress(new ByteArrayInputStream(bytes), candidate, level, strategy.getDeflaterStrategy());
+            if (smallest == null || candidate.size() < smallest.size())
+            {
+                smallest = candidate;
+            }
+        }
+        smallest.writeTo(outputStream);
+    }
+
+    private static void compress(InputStream inputStream, OutputStream outputStream, int level, int strategy)
+            throws IOException
+    {
+        byte[] buffer = ResourceUtils.createPipeBuffer(inputStream.available());
+        ConfigurableGZIPOutputStream gzipOutputStream
+                = new ConfigurableGZIPOutputStream(outputStream, buffer.length, level, strategy);
+        try
+        {
+            ResourceUtils.pipeBytes(inputStream, gzipOutputStream, buffer);
+
+            // finish() writes the trailer without closing the underlying stream
+            gzipOutputStream.finish();
+        }
+        finally
+        {
+            gzipOutputStream.end();
+        }
+    }
+
+    /**
+     * GZIPOutputStream with the given deflate level and strategy, whose Deflater can be released
+     * without closing the underlying stream.
+     */
+    private static final class ConfigurableGZIPOutputStream extends GZIPOutputStream
+    {
+
+        private ConfigurableGZIPOutputStream(OutputStream outputStream, int size, int level, int strategy)
+                throws IOException
+        {
+            super(outputStream, size);
+
+            // the header has already been written, but nothing has been deflated yet
+            def.setLevel(level);
+            def.setStrategy(strategy);
+        }
+
+        private void end()
+        {
+            def.end();
+        }
+
+    }
+
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.processor;
+
+import org.apacheextras.myfaces.resourcehandler.RelativeResource;
+
+/**
+ * Pure java javascript whitespace and comment stripper. It removes comments (except "important"
+ * comments starting with /*!), indentation, trailing whitespace and empty lines, and collapses
+ * other whitespace to a single space.
+ *
+ * Line breaks are preserved, because they can be significant due to automatic semicolon insertion.
+ * Strings, template literals and regular expression literals are never changed.
+ *
+ * @author Jakob Korherr
+ */
+public class JsMinifier extends TextResourceProcessor
+{
+
+    /**
+     * Name of this processor in relative-resources.xml.
+     */
+    public static final String NAME = "js-minifier";
+
+    /**
+     * If the last significant character is one of these, a '/' starts a regular expression literal.
+     */
+    private static final String REGEX_PRECEDING_CHARS = "(,=:[!&|?{};+-*%<>~^";
+
+    /**
+     * If the last word is one of these keywords, a '/' starts a regular expression literal.
+     */
+    private static final String[] REGEX_PRECEDING_KEYWORDS =
+    {
+        "return", "typeof", "instanceof", "in", "of", "new", "delete", "void", "throw", "case", "do", "else"
+    };
+
+    public String getName()
+    {
+        return NAME;
+    }
+
+    public boolean isApplicable(RelativeResource resource)
+    {
+        return resource.getResourceName().endsWith(".js");
+    }
+
+    @Override
+    public String process(String js)
+    {
+        StringBuilder out = new StringBuilder(js.length());
+        boolean pendingSpace = false;
+        boolean pendingNewline = false;
+        int length = js.length();
+        int i = 0;
+
+        while (i < length)
+        {
+            char c = js.charAt(i);
+            char next = (i + 1 < length ? js.charAt(i + 1) : 0);
+
+            if (c == '/' && next == '/')
+            {
+                // line comment, the line break itself is handled in the next iteration
+                int end = js.indexOf('\n', i);
+                i = (end == -1 ? length : end);
+            }
+            else if (c == '/' && next == '*')
+            {
+                int end = js.indexOf("*/", i + 2);
+                end = (end == -1 ? length : end + 2);
+                if (i + 2 < length && js.charAt(i + 2) == '!')
+                {
+                    // keep important comments (e.g. license headers)
+                    appendPending(out, pendingSpace, pendingNewline);
+                    pendingSpace = false;
+                    pendingNewline = false;
+                    out.append(js, i, end);
+                }
+                else if (js.substring(i, end).indexOf('\n') != -1)
+                {
+                    pendingNewline = true;  // a multi-line comment counts as a line break
+                }
+                else
+                {
+                    pendingSpace = true;
+                }
+                i = end;
+            }
+            else if (c == '\n' || c == '\r')
+            {
+                pendingNewline = true;
+                i++;
+            }
+            else if (isWhitespace(c))
+            {
+                pendingSpace = true;
+                i++;
+            }
+            else
+            {
+                appendPending(out, pendingSpace, pendingNewline);
+                pendingSpace = false;
+                pendingNewline = false;
+
+                int end;
+                if (c == '"' || c == '\'' || c == '`')
+                {
+                    end = findLiteralEnd(js, i, c);
+                }
+                else if (c == '/' && isRegexAllowed(out))
+                {
+                    end = findRegexEnd(js, i);
+                }
+                else
+                {
+                    end = i + 1;
+                }
+                out.append(js, i, end);
+                i = end;
+            }
+        }
+
+        if (pendingNewline && out.length() > 0)
+        {
+            out.append('\n');
+        }
+
+        return out.toString();
+    }
+
+    private static void appendPending(StringBuilder out, boolean pendingSpace, boolean pendingNewline)
+    {
+        if (out.length() == 0)
+        {
+            return;  // no leading whitespace
+        }
+        if (pendingNewline)
+        {
+            out.append('\n');
+        }
+        else if (pendingSpace)
+        {
+            out.append(' ');
+        }
+    }
+
+    private static boolean isRegexAllowed(StringBuilder out)
+    {
+        // find last significant character
+        int i = out.length() - 1;
+        while (i >= 0 && isWhitespace(out.charAt(i)))
+        {
+            i--;
+        }
+        if (i < 0)
+        {
+            return true;
+        }
+
+        char last = out.charAt(i);
+        if (REGEX_PRECEDING_CHARS.indexOf(last) != -1)
+        {
+            return true;
+        }
+        if (!Character.isLetter(last))
+        {
+            return false;  // e.g. ) ] or a number --> division
+        }
+
+        // find last word
+        int end = i + 1;
+        while (i >= 0 && Character.isJavaIdentifierPart(out.charAt(i)))
+        {
+            i--;
+        }
+        String word = out.substring(i + 1, end);
+        for (String keyword : REGEX_PRECEDING_KEYWORDS)
+        {
+            if (keyword.equals(word))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the index after the end of the string or template literal starting at the given index.
+     */
+    private static int findLiteralEnd(String js, int start, char quote)
+    {
+        int i = start + 1;
+        while (i < js.length())
+        {
+            char c = js.charAt(i);
+            if (c == '\\')
+            {
+                i += 2;  // skip escaped character
+            }
+            else if (c == quote)
+            {
+                return i + 1;
+            }
+            else if (c == '\n' && quote != '`')
+            {
+                return i;  // unterminated string, do not swallow the rest of the file
+            }
+            else
+            {
+                i++;
+            }
+        }
+        return js.length();
+    }
+
+    /**
+     * Returns the index after the end of the regular expression literal (incl. flags)
+     * starting at the given index.
+     */
+    private static int findRegexEnd(String js, int start)
+    {
+        boolean insideClass = false;
+        int i = start + 1;
+        while (i < js.length())
+        {
+            char c = js.charAt(i);
+            if (c == '\\')
+            {
+                i += 2;  // skip escaped character
+                continue;
+            }
+            if (c == '\n')
+            {
+                return i;  // not a regex literal after all
+            }
+            if (c == '[')
+            {
+                insideClass = true;
+            }
+            else if (c == ']')
+            {
+                insideClass = false;
+            }
+            else if (c == '/' && !insideClass)
+            {
+                i++;
+                while (i < js.length() && Character.isLetter(js.charAt(i)))
+                {
+                    i++;  // flags
+                }
+                return i;
+            }
+            i++;
+        }
+        return js.length();
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.processor;
+
+import org.apacheextras.myfaces.resourcehandler.RelativeResource;
+import org.apacheextras.myfaces.resourcehandler.ResourceUtils;
+
+import javax.faces.context.FacesContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered chain of the ResourceProcessors that are applicable for a resource.
+ * The content is passed from stage to stage in memory, thus no intermediate results are persisted.
+ *
+ * @author Jakob Korherr
+ */
+public class ResourceProcessingPipeline
+{
+
+    private final List<ResourceProcessor> stages;
+
+    public ResourceProcessingPipeline(List<ResourceProcessor> stages)
+    {
+        this.stages = Collections.unmodifiableList(new ArrayList<ResourceProcessor>(stages));
+    }
+
+    public List<ResourceProcessor> getStages()
+    {
+        return stages;
+    }
+
+    public boolean isEmpty()
+    {
+        return stages.isEmpty();
+    }
+
+    /**
+     * Returns true if the output of at least one stage depends on the locale of the request.
+     *
+     * @return
+     */
+    public boolean isLocaleDependent()
+    {
+        for (ResourceProcessor stage : stages)
+        {
+            if (stage.isLocaleDependent())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the output of at least one stage depends on the tenant of the request.
+     *
+     * @return
+     */
+    public boolean isTenantDependent()
+    {
+        for (ResourceProcessor stage : stages)
+        {
+            if (stage.isTenantDependent())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a String identifying the stages of this pipeline (names and implementation classes), which can be
+     * used to detect artifacts that were created with a different configuration.
+     *
+     * @return
+     */
+    public String getSignature()
+    {
+        StringBuilder signature = new StringBuilder();
+        for (ResourceProcessor stage : stages)
+        {
+            if (signature.length() > 0)
+            {
+                signature.append(',');
+            }
+            signature.append(stage.getName()).append(':').append(stage.getClass().getName());
+        }
+        return signature.toString();
+    }
+
+    /**
+     * Applies all stages to the content of the given InputStream and returns the result.
+     * The given InputStream is not closed.
+     *
+     * @param facesContext
+     * @param resource
+     * @param inputStream
+     * @return
+     * @throws IOException
+     */
+    public byte[] process(FacesContext facesContext, RelativeResource resource, InputStream inputStream)
+            throws IOException
+    {
+        byte[] content = ResourceUtils.readBytes(inputStream);
+
+        for (ResourceProcessor stage : stages)
+        {
+            content = apply(stage, facesContext, resource, content);
+        }
+
+        return content;
+    }
+
+    /**
+     * Applies the given ResourceProcessor to the given content and returns the result.
+     *
+     * @param processor
+     * @param facesContext
+     * @param resource
+     * @param content
+     * @return
+     * @throws IOException
+     */
+    public static byte[] apply(ResourceProcessor processor, FacesContext facesContext,
+                               RelativeResource resource, byte[] content) throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(content.length);
+        processor.process(facesContext, resource, new ByteArrayInputStream(content), outputStream);
+        return outputStream.toByteArray();
+    }
+
+}
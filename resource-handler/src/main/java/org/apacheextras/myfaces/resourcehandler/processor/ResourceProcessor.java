@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.processor;
+
+import org.apacheextras.myfaces.resourcehandler.RelativeResource;
+
+import javax.faces.context.FacesContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * SPI for a processing stage for the content of relative resources (e.g. minification).
+ *
+ * Besides the built-in processors, implementations are discovered via java.util.ServiceLoader
+ * (META-INF/services mechanism) and can be referenced by their name in the processing chain of a library
+ * in relative-resources.xml. The stages are applied once, when the resource is initialized, and stream
+ * their content to each other in memory. Only the final artifacts are cached in the tmp dir.
+ *
+ * Implementations must be stateless and thread-safe.
+ *
+ * @author Jakob Korherr
+ */
+public interface ResourceProcessor
+{
+
+    /**
+     * Returns the name of this processor, which is used to reference it in relative-resources.xml.
+     *
+     * @return
+     */
+    public String getName();
+
+    /**
+     * Returns true if this processor should be applied to the given resource.
+     *
+     * @param resource
+     * @return
+     */
+    public boolean isApplicable(RelativeResource resource);
+
+    /**
+     * Returns true if the output of this processor depends on the locale of the request
+     * (and not only on the content of the resource), e.g. if it contains links to localized resources.
+     * In this case a separate artifact is created for each requested locale.
+     *
+     * @return
+     */
+    public boolean isLocaleDependent();
+
+    /**
+     * Returns true if the output of this processor depends on the tenant of the request
+     * (and not only on the content of the resource).
+     *
+     * @return
+     */
+    public boolean isTenantDependent();
+
+    /**
+     * Reads the content from the given InputStream, processes it and writes the result to the given OutputStream.
+     * Implementations must not close the streams.
+     *
+     * @param facesContext
+     * @param resource
+     * @param inputStream
+     * @param outputStream
+     * @throws IOException
+     */
+    public void process(FacesContext facesContext, RelativeResource resource,
+                        InputStream inputStream, OutputStream outputStream) throws IOException;
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.processor;
+
+import org.apacheextras.myfaces.resourcehandler.ResourceUtils;
+
+import javax.faces.FacesException;
+import javax.faces.context.FacesContext;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the ResourceProcessors that can be used in the processing chain of a library.
+ *
+ * Contains the built-in processors and all implementations of ResourceProcessor, which are
+ * discovered via java.util.ServiceLoader (META-INF/services mechanism). The registry of an application
+ * is kept in its application map, thus every application uses the processors of its own ClassLoader.
+ *
+ * @author Jakob Korherr
+ */
+public class ResourceProcessorRegistry
+{
+
+    private static final Logger log = Logger.getLogger(ResourceProcessorRegistry.class.getName());
+
+    /**
+     * ApplicationMap key for the ResourceProcessorRegistry of the current application.
+     */
+    private static final String APPLICATION_MAP_KEY = ResourceProcessorRegistry.class.getName();
+
+    /**
+     * Guards the creation of the ResourceProcessorRegistry of an application.
+     */
+    private static final ReentrantLock INSTANCE_LOCK = new ReentrantLock();
+
+    private final Map<String, ResourceProcessor> processors;
+
+    /**
+     * Creates a ResourceProcessorRegistry with the built-in processors and the SPI implementations
+     * found by the given ClassLoader.
+     *
+     * @param classLoader
+     * @throws FacesException if two ResourceProcessors with the same name exist
+     */
+    public ResourceProcessorRegistry(ClassLoader classLoader) throws FacesException
+    {
+        Map<String, ResourceProcessor> allProcessors = new HashMap<String, ResourceProcessor>();
+        register(allProcessors, new CssMinifier());
+        register(allProcessors, new JsMinifier());
+
+        // use ServiceLoader to load the SPI implementations
+        ServiceLoader<ResourceProcessor> serviceLoader = ServiceLoader.load(ResourceProcessor.class, classLoader);
+        for (ResourceProcessor processor : serviceLoader)
+        {
+            register(allProcessors, processor);
+            log.info("Using SPI ResourceProcessor " + processor.getClass().getName()
+                    + " with name " + processor.getName());
+        }
+
+        processors = Collections.unmodifiableMap(allProcessors);
+    }
+
+    /**
+     * Returns the ResourceProcessorRegistry of the current application.
+     *
+     * @param facesContext
+     * @return
+     * @throws FacesException if two ResourceProcessors with the same name exist
+     */
+    public static ResourceProcessorRegistry getInstance(FacesContext facesContext) throws FacesException
+    {
+        Map<String, Object> applicationMap = facesContext.getExternalContext().getApplicationMap();
+
+        ResourceProcessorRegistry registry = (ResourceProcessorRegistry) applicationMap.get(APPLICATION_MAP_KEY);
+        if (registry == null)
+        {
+            INSTANCE_LOCK.lock();
+            try
+            {
+                registry = (ResourceProcessorRegistry) applicationMap.get(APPLICATION_MAP_KEY);
+                if (registry == null)
+                {
+                    registry = new ResourceProcessorRegistry(ResourceUtils.getContextClassLoader());
+                    applicationMap.put(APPLICATION_MAP_KEY, registry);
+                }
+            }
+            finally
+            {
+                INSTANCE_LOCK.unlock();
+            }
+        }
+
+        return registry;
+    }
+
+    /**
+     * Returns the ResourceProcessor with the given name, or null if no such processor exists.
+     *
+     * @param name
+     * @return
+     */
+    public ResourceProcessor getProcessor(String name)
+    {
+        return processors.get(name);
+    }
+
+    private static void register(Map<String, ResourceProcessor> processors, ResourceProcessor processor)
+    {
+        ResourceProcessor existing = processors.put(processor.getName(), processor);
+        if (existing != null)
+        {
+            throw new FacesException("Found more than one ResourceProcessor with name " + processor.getName()
+                    + ": " + existing.getClass().getName() + " and " + processor.getClass().getName());
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.processor;
+
+import org.apacheextras.myfaces.resourcehandler.RelativeResource;
+import org.apacheextras.myfaces.resourcehandler.ResourceUtils;
+
+import javax.faces.context.FacesContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Base class for ResourceProcessors that transform text content.
+ *
+ * The content is converted using {@link ResourceUtils#BYTE_PRESERVING_CHARSET}, thus the charset of the resource
+ * does not need to be known.
+ *
+ * @author Jakob Korherr
+ */
+public abstract class TextResourceProcessor implements ResourceProcessor
+{
+
+    public void process(FacesContext facesContext, RelativeResource resource,
+                        InputStream inputStream, OutputStream outputStream) throws IOException
+    {
+        String content = new String(ResourceUtils.readBytes(inputStream), ResourceUtils.BYTE_PRESERVING_CHARSET);
+
+        String processed = process(content);
+
+        outputStream.write(processed.getBytes(ResourceUtils.BYTE_PRESERVING_CHARSET));
+    }
+
+    /**
+     * Text transformations only depend on the content of the resource.
+     *
+     * @return
+     */
+    public boolean isLocaleDependent()
+    {
+        return false;
+    }
+
+    /**
+     * Text transformations only depend on the content of the resource.
+     *
+     * @return
+     */
+    public boolean isTenantDependent()
+    {
+        return false;
+    }
+
+    /**
+     * Transforms the given text.
+     *
+     * @param content
+     * @return
+     */
+    public abstract String process(String content);
+
+    /**
+     * Checks for ASCII whitespace characters only (see class comment).
+     *
+     * @param c
+     * @return
+     */
+    protected static boolean isWhitespace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+}
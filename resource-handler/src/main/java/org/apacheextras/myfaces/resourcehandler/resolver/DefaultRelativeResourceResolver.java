@@ -21,9 +21,12 @@
 package org.apacheextras.myfaces.resourcehandler.resolver;
 
 import org.apacheextras.myfaces.resourcehandler.RelativeResource;
+import org.apacheextras.myfaces.resourcehandler.RelativeResourceBundle;
 import org.apacheextras.myfaces.resourcehandler.RelativeResourceImpl;
 import org.apacheextras.myfaces.resourcehandler.ResourceId;
 import org.apacheextras.myfaces.resourcehandler.ResourceUtils;
+import org.apacheextras.myfaces.resourcehandler.config.Bundle;
+import org.apacheextras.myfaces.resourcehandler.config.Library;
 import org.apacheextras.myfaces.resourcehandler.config.RelativeResourceHandlerConfig;
 
 /**
@@ -37,15 +40,39 @@ public class DefaultRelativeResourceResolver implements RelativeResourceResolver
     public RelativeResource createRelativeResource(ResourceId resourceId, String contentType,
                                                    RelativeResourceHandlerConfig config)
     {
-        // Return default impl of RelativeResource w/ the information given in resourceId
-        return new RelativeResourceImpl(
-                resourceId.getResourceName(),
-                config.getLibrary(resourceId.getLibraryName()),
-                contentType,
-                resourceId.getRequestedLocalePrefix(),
-                config.isGzipEnabled(),
-                config.isLocaleSupportEnabled(),
-                config.getUrlVersion());
+        // the library name of a ResourceId has no leading or trailing slashes (see calculateRelativeId())
+        Library library = config.getLibraryByTrimmedName(resourceId.getLibraryName());
+
+        // bundles are virtual resources of the library
+        Bundle bundle = library.getBundle(ResourceUtils.trimSlashes(resourceId.getResourceName()));
+        RelativeResourceImpl relativeResource;
+        if (bundle != null)
+        {
+            relativeResource = new RelativeResourceBundle(
+                    bundle,
+                    library,
+                    contentType,
+                    resourceId.getRequestedLocalePrefix(),
+                    config.isGzipEnabled(),
+                    config.isLocaleSupportEnabled(),
+                    bundle.getVersion() != null ? bundle.getVersion() : config.getUrlVersion());
+        }
+        else
+        {
+            // default impl of RelativeResource w/ the information given in resourceId
+            relativeResource = new RelativeResourceImpl(
+                    resourceId.getResourceName(),
+                    library,
+                    contentType,
+                    resourceId.getRequestedLocalePrefix(),
+                    config.isGzipEnabled(),
+                    config.isLocaleSupportEnabled(),
+                    config.getUrlVersion());
+        }
+
+        relativeResource.setTenantId(resourceId.getTenantId());
+        relativeResource.setCompressionConfig(config.getCompressionConfig());
+        return relativeResource;
     }
 
     public ResourceId calculateRelativeId(String path, RelativeResourceHandlerConfig config)
@@ -89,24 +116,27 @@ public class DefaultRelativeResourceResolver implements RelativeResourceResolver
             resourceName = resourceNameToParse;
         }
 
-        // create the resource id
-        return calculateRelativeId(resourceName, libraryName, requestedLocalePrefix, config);
+        // create the resource id (the libraryName is between two slashes, thus it needs no trimming)
+        return createRelativeId(resourceName, libraryName, requestedLocalePrefix, config);
     }
 
     public ResourceId calculateRelativeId(String resourceName, String libraryName,
                                           String requestedLocalePrefix,
                                           RelativeResourceHandlerConfig config)
     {
-        if (libraryName != null)
-        {
-            // trim any slashes at beginning or end or libraryName
-            libraryName = ResourceUtils.trimSlashes(libraryName);
+        // trim any slashes at beginning or end or libraryName
+        return createRelativeId(resourceName, (libraryName == null ? null : ResourceUtils.trimSlashes(libraryName)),
+                requestedLocalePrefix, config);
+    }
 
-            if (!libraryName.contains("/") && config.isRelativeLibrary(libraryName))
-            {
-                // create resource id
-                return new ResourceId(resourceName, libraryName, requestedLocalePrefix);
-            }
+    private ResourceId createRelativeId(String resourceName, String trimmedLibraryName,
+                                        String requestedLocalePrefix, RelativeResourceHandlerConfig config)
+    {
+        if (trimmedLibraryName != null && trimmedLibraryName.indexOf('/') == -1
+                && config.isRelativeLibraryByTrimmedName(trimmedLibraryName))
+        {
+            // create resource id
+            return new ResourceId(resourceName, trimmedLibraryName, requestedLocalePrefix);
         }
 
         return null;
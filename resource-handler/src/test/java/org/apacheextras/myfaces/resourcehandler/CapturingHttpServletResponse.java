@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Response wrapper for the tests, which captures the body written to its ServletOutputStream
+ * (status and headers are set on the wrapped response).
+ *
+ * @author Jakob Korherr
+ */
+public class CapturingHttpServletResponse extends HttpServletResponseWrapper
+{
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    private final ServletOutputStream outputStream = new ServletOutputStream()
+    {
+
+        @Override
+        public boolean isReady()
+        {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener)
+        {
+            throw new UnsupportedOperationException("Blocking writes only");
+        }
+
+        @Override
+        public void write(int b)
+        {
+            body.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            body.write(b, off, len);
+        }
+
+    };
+
+    public CapturingHttpServletResponse(HttpServletResponse response)
+    {
+        super(response);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream()
+    {
+        return outputStream;
+    }
+
+    public byte[] getBody()
+    {
+        return body.toByteArray();
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2011-2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler;
+
+import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
+import org.apache.myfaces.test.mock.resource.MockResourceHandler;
+import org.apacheextras.myfaces.resourcehandler.config.Bundle;
+import org.apacheextras.myfaces.resourcehandler.config.Library;
+import org.apacheextras.myfaces.resourcehandler.config.RelativeResourceHandlerConfig;
+import org.apacheextras.myfaces.resourcehandler.provider.ClassPathResourceProvider;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.faces.application.ProjectStage;
+import javax.faces.application.Resource;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+
+/**
+ * Test class for RelativeResourceBundle.
+ *
+ * @author Jakob Korherr
+ */
+@RunWith(JUnit4.class)
+public class RelativeResourceBundleTest extends AbstractJsfTestCase
+{
+
+    private RelativeResourceHandler relativeResourceHandler;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        servletContext.addInitParameter(ProjectStage.PROJECT_STAGE_PARAM_NAME, ProjectStage.Development.name());
+        request.setPathElements("/webapp", "/faces", "", "");
+
+        relativeResourceHandler = new RelativeResourceHandler((MockResourceHandler) application.getResourceHandler());
+        // the config of the handler is frozen at startup, the test fills its own one
+        relativeResourceHandler.setConfig(new RelativeResourceHandlerConfig());
+        relativeResourceHandler.getConfig().setLocaleSupportEnabled(false);
+    }
+
+    @Test
+    public void testRewriteCssReferences_sameDirectory_unchanged() throws Exception
+    {
+        String css = "a { background: url(images/a.png); }";
+
+        Assert.assertSame(css, RelativeResourceBundle.rewriteCssReferences(css, "a.css", "all.css"));
+        Assert.assertSame(css, RelativeResourceBundle.rewriteCssReferences(css, "css/a.css", "css/all.css"));
+    }
+
+    @Test
+    public void testRewriteCssReferences() throws Exception
+    {
+        // resource in a sub directory of the bundle
+        Assert.assertEquals("url(widgets/images/a.png)",
+                RelativeResourceBundle.rewriteCssReferences("url(images/a.png)", "widgets/tree.css", "all.css"));
+        Assert.assertEquals("url('images/a.png')",
+                RelativeResourceBundle.rewriteCssReferences("url('../images/a.png')", "widgets/tree.css", "all.css"));
+
+        // resource in a sibling directory of the bundle
+        Assert.assertEquals("url(\"../widgets/a.png?v=1#top\")",
+                RelativeResourceBundle.rewriteCssReferences("url(\"a.png?v=1#top\")", "widgets/tree.css", "css/all.css"));
+        Assert.assertEquals("@import \"../widgets/base.css\"",
+                RelativeResourceBundle.rewriteCssReferences("@import \"base.css\"", "widgets/tree.css", "css/all.css"));
+
+        // resource in a parent directory of the bundle
+        Assert.assertEquals("url(../a.png)",
+                RelativeResourceBundle.rewriteCssReferences("url(a.png)", "tree.css", "css/all.css"));
+        Assert.assertEquals("url(../../other-library/a.png)",
+                RelativeResourceBundle.rewriteCssReferences("url(../other-library/a.png)", "tree.css", "css/all.css"));
+
+        // non-relative references
+        Assert.assertEquals("url(/webapp/a.png) url(data:image/png;base64,AAAA) url(http://host/a.png) url(#id)",
+                RelativeResourceBundle.rewriteCssReferences(
+                        "url(/webapp/a.png) url(data:image/png;base64,AAAA) url(http://host/a.png) url(#id)",
+                        "widgets/tree.css", "all.css"));
+    }
+
+    @Test
+    public void testHoistCssImportRules()
+    {
+        Assert.assertEquals("@charset \"UTF-8\";\n@import \"a.css\";\n@import url(b.css) screen;\n"
+                + "a { color: red; }\nb { color: blue; }\n",
+                RelativeResourceBundle.hoistCssImportRules("@charset \"UTF-8\";\n@import \"a.css\";\n"
+                        + "a { color: red; }\n@import url(b.css) screen;\nb { color: blue; }\n"));
+
+        String css = "a { color: red; }";
+        Assert.assertSame(css, RelativeResourceBundle.hoistCssImportRules(css));
+    }
+
+    @Test
+    public void testCreateResource_bundle_importRulesOfLaterMembersHoisted() throws Exception
+    {
+        Bundle bundle = new Bundle("all.css", null, Arrays.asList("resource.css", "widgets/icons.css"));
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Arrays.asList(bundle)));
+
+        Resource resource = relativeResourceHandler.createResource("all.css", "my-library");
+
+        // the rewritten @import rule of icons.css precedes all rules of the bundle
+        String content = read(resource.getInputStream());
+        Assert.assertTrue(content.startsWith("@import \"widgets/tree.css\";\n"));
+        Assert.assertEquals(content.indexOf("@import"), content.lastIndexOf("@import"));
+    }
+
+    @Test
+    public void testCreateResource_bundle_concatenatesResourcesAndRewritesUrls() throws Exception
+    {
+        Bundle bundle = new Bundle("all.css", "2.0", Arrays.asList("resource.css", "widgets/tree.css"));
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Arrays.asList(bundle)));
+
+        Resource resource = relativeResourceHandler.createResource("all.css", "my-library");
+
+        Assert.assertTrue(resource instanceof RelativeResourceBundle);
+        Assert.assertEquals("2.0/my-library/all.css", ((RelativeResource) resource).getRelativePath());
+
+        String content = read(resource.getInputStream());
+        Assert.assertTrue(content.startsWith(read(getClass().getResourceAsStream(
+                "/META-INF/resources/my-library/resource.css"))));
+        Assert.assertTrue(content.contains("url(widgets/images/tree.png)"));
+        Assert.assertTrue(content.contains("url(\"images/node.png\")"));
+    }
+
+    @Test
+    public void testCreateResource_bundleWithLocalizedAndUnlocalizedResources_localeResolvedPerResource()
+            throws Exception
+    {
+        facesContext.getViewRoot().setLocale(Locale.GERMANY);
+        relativeResourceHandler.setConfig(new RelativeResourceHandlerConfig());
+        relativeResourceHandler.getConfig().setLocaleSupportEnabled(true);
+
+        // style.css exists for de (and de_AT), print.css only without locale prefix
+        Bundle bundle = new Bundle("all.css", null, Arrays.asList("style.css", "print.css"));
+        Library localizedLibrary = new Library("css", null, null, Collections.<String>emptyList(),
+                Arrays.asList(bundle));
+        localizedLibrary.setResourceProvider(new ClassPathResourceProvider("META-INF/localized-resources", true));
+        relativeResourceHandler.getConfig().addLibrary(localizedLibrary);
+
+        Resource resource = relativeResourceHandler.createResource("all.css", "css");
+
+        Assert.assertTrue(resource instanceof RelativeResourceBundle);
+        String content = read(resource.getInputStream());
+        Assert.assertTrue(content.contains("/* de locale */"));
+        Assert.assertFalse(content.contains("/* default locale */"));
+        Assert.assertTrue(content.contains("/* print, not localized */"));
+    }
+
+    @Test
+    public void testCreateResource_bundleWithMissingResource_doesNotExist() throws Exception
+    {
+        Bundle bundle = new Bundle("all.css", null, Arrays.asList("resource.css", "missing.css"));
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Arrays.asList(bundle)));
+
+        Resource resource = relativeResourceHandler.createResource("all.css", "my-library");
+
+        // falls back to the wrapped ResourceHandler
+        Assert.assertFalse(resource instanceof RelativeResourceBundle);
+    }
+
+    // BEGIN: helper methods
+
+    private static String read(InputStream inputStream) throws Exception
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try
+        {
+            ResourceUtils.pipeBytes(inputStream, outputStream, new byte[4096]);
+        }
+        finally
+        {
+            inputStream.close();
+        }
+        return outputStream.toString("ISO-8859-1");
+    }
+
+}
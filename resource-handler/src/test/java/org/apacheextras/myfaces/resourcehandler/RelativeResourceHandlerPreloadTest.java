@@ -0,0 +1,218 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler;
+
+import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
+import org.apache.myfaces.test.mock.MockHttpServletResponse;
+import org.apacheextras.myfaces.resourcehandler.cache.ArtifactCreationScheduler;
+import org.apacheextras.myfaces.resourcehandler.config.Library;
+import org.apacheextras.myfaces.resourcehandler.config.RelativeResourceHandlerConfig;
+import org.apacheextras.myfaces.resourcehandler.dependency.ResourceDependencyGraph;
+import org.apacheextras.myfaces.resourcehandler.preload.PreloadPhaseListener;
+import org.apacheextras.myfaces.resourcehandler.preload.PreloadRegistry;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.faces.application.Resource;
+import javax.faces.event.PhaseEvent;
+import javax.faces.event.PhaseId;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.util.Arrays;
+
+/**
+ * Test class for the Link preload headers of RelativeResourceHandler (see PreloadPhaseListener).
+ *
+ * @author Jakob Korherr
+ */
+public class RelativeResourceHandlerPreloadTest extends AbstractJsfTestCase
+{
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Test
+    public void testRenderedResources_linkHeaderOnNextResponseOfView() throws Exception
+    {
+        servletContext.addInitParameter(RelativeResourceHandler.PRELOAD_ENABLED_PARAM, "true");
+        RelativeResourceHandler relativeResourceHandler = createRelativeResourceHandler();
+
+        // render the view
+        facesContext.getViewRoot().setViewId("/index.xhtml");
+        Resource style = relativeResourceHandler.createResource("resource.css", "my-library");
+        Resource tree = relativeResourceHandler.createResource("widgets/tree.css", "my-library");
+        style.getRequestPath();
+        tree.getRequestPath();
+        style.getRequestPath();
+
+        // next response of the view
+        renderResponse();
+        Assert.assertEquals("<" + style.getRequestPath() + ">; rel=preload; as=style, "
+                + "<" + tree.getRequestPath() + ">; rel=preload; as=style", response.getHeader("Link"));
+    }
+
+    @Test
+    public void testOtherView_noLinkHeader() throws Exception
+    {
+        servletContext.addInitParameter(RelativeResourceHandler.PRELOAD_ENABLED_PARAM, "true");
+        RelativeResourceHandler relativeResourceHandler = createRelativeResourceHandler();
+
+        facesContext.getViewRoot().setViewId("/index.xhtml");
+        relativeResourceHandler.createResource("resource.css", "my-library").getRequestPath();
+
+        facesContext.getViewRoot().setViewId("/other.xhtml");
+        renderResponse();
+        Assert.assertNull(response.getHeader("Link"));
+    }
+
+    @Test
+    public void testPreloadDisabled_noLinkHeader() throws Exception
+    {
+        RelativeResourceHandler relativeResourceHandler = createRelativeResourceHandler();
+
+        facesContext.getViewRoot().setViewId("/index.xhtml");
+        relativeResourceHandler.createResource("resource.css", "my-library").getRequestPath();
+
+        Assert.assertNull(PreloadRegistry.getInstance(facesContext));
+        renderResponse();
+        Assert.assertNull(response.getHeader("Link"));
+    }
+
+    @Test
+    public void testStylesheetDependencies_warmedUpAndFontsPreloaded() throws Exception
+    {
+        servletContext.addInitParameter(RelativeResourceHandler.PRELOAD_ENABLED_PARAM, "true");
+        RelativeResourceHandler relativeResourceHandler = createRelativeResourceHandler();
+
+        facesContext.getViewRoot().setViewId("/index.xhtml");
+        Resource icons = relativeResourceHandler.createResource("widgets/icons.css", "my-library");
+        icons.getRequestPath();
+
+        // the imported stylesheet, the font and the (missing) images have been initialized with the stylesheet
+        Assert.assertEquals(5, relativeResourceHandler.invalidateLibrary("my-library"));
+        Assert.assertEquals(Arrays.asList("widgets/tree.css", "fonts/icons.woff",
+                "widgets/images/tree.png", "images/node.png"),
+                ResourceDependencyGraph.getInstance(facesContext)
+                        .getTransitiveDependencies("my-library", "widgets/icons.css"));
+
+        // images are not preloaded
+        renderResponse();
+        Resource tree = relativeResourceHandler.createResource("widgets/tree.css", "my-library");
+        Resource font = relativeResourceHandler.createResource("fonts/icons.woff", "my-library");
+        Assert.assertEquals("<" + icons.getRequestPath() + ">; rel=preload; as=style, "
+                + "<" + tree.getRequestPath() + ">; rel=preload; as=style, "
+                + "<" + font.getRequestPath() + ">; rel=preload; as=font; crossorigin", response.getHeader("Link"));
+    }
+
+    @Test
+    public void testNoFreeCreationSlot_dependenciesNotWarmedUp() throws Exception
+    {
+        servletContext.addInitParameter(RelativeResourceHandler.MAX_CONCURRENT_ARTIFACT_CREATIONS_PARAM, "1");
+        RelativeResourceHandler relativeResourceHandler = createRelativeResourceHandler();
+
+        // occupy the only slot in another thread (e.g. by the initialization of another resource)
+        final ArtifactCreationScheduler scheduler = ArtifactCreationScheduler.getInstance(facesContext);
+        Thread occupant = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                Assert.assertTrue(scheduler.tryAcquire());
+            }
+        };
+        occupant.start();
+        occupant.join();
+
+        try
+        {
+            relativeResourceHandler.createResource("widgets/icons.css", "my-library").getRequestPath();
+
+            // only the stylesheet itself has been initialized, its dependencies are initialized by their requests
+            Assert.assertEquals(1, relativeResourceHandler.invalidateLibrary("my-library"));
+        }
+        finally
+        {
+            scheduler.release();
+        }
+    }
+
+    @Test
+    public void testEarlyHintsEnabled_sentViaWrappedContainerResponse() throws Exception
+    {
+        servletContext.addInitParameter(RelativeResourceHandler.PRELOAD_ENABLED_PARAM, "true");
+        servletContext.addInitParameter(RelativeResourceHandler.EARLY_HINTS_ENABLED_PARAM, "true");
+        RelativeResourceHandler relativeResourceHandler = createRelativeResourceHandler();
+        EarlyHintsResponse containerResponse = new EarlyHintsResponse();
+        externalContext.setResponse(new HttpServletResponseWrapper(new HttpServletResponseWrapper(containerResponse)));
+
+        // render the view
+        facesContext.getViewRoot().setViewId("/index.xhtml");
+        Resource style = relativeResourceHandler.createResource("resource.css", "my-library");
+        style.getRequestPath();
+
+        // next response of the view
+        renderResponse();
+        Assert.assertEquals("<" + style.getRequestPath() + ">; rel=preload; as=style",
+                containerResponse.getHeader("Link"));
+        Assert.assertEquals(1, containerResponse.earlyHints);
+    }
+
+    // BEGIN: helper methods
+
+    private RelativeResourceHandler createRelativeResourceHandler()
+    {
+        servletContext.addMimeType("css", "text/css");
+        servletContext.addMimeType("woff", "font/woff");
+        servletContext.addInitParameter(RelativeResourceHandler.FACES_SERVLET_PREFIX_PARAM, "/faces");
+
+        // the stylesheets are warmed up --> keep their artifacts out of the working directory
+        servletContext.setAttribute("javax.servlet.context.tempdir", tmpDir.getRoot());
+
+        RelativeResourceHandler relativeResourceHandler = new RelativeResourceHandler(application.getResourceHandler());
+        // the config of the handler is frozen at startup, the test fills its own one
+        relativeResourceHandler.setConfig(new RelativeResourceHandlerConfig());
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library"));
+        application.setResourceHandler(relativeResourceHandler);
+        return relativeResourceHandler;
+    }
+
+    private void renderResponse()
+    {
+        new PreloadPhaseListener().beforePhase(new PhaseEvent(facesContext, PhaseId.RENDER_RESPONSE, lifecycle));
+    }
+
+    /**
+     * Response of a container, which supports 103 Early Hints.
+     */
+    public static class EarlyHintsResponse extends MockHttpServletResponse
+    {
+
+        private int earlyHints;
+
+        public void sendEarlyHints()
+        {
+            earlyHints++;
+        }
+
+    }
+
+}
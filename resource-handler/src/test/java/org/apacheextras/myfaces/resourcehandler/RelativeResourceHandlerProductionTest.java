@@ -22,17 +22,51 @@ package org.apacheextras.myfaces.resourcehandler;
 
 import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
 import org.apache.myfaces.test.mock.resource.MockResourceHandler;
+import org.apacheextras.myfaces.resourcehandler.cache.ArtifactCreationScheduler;
+import org.apacheextras.myfaces.resourcehandler.cache.ArtifactUtils;
+import org.apacheextras.myfaces.resourcehandler.cache.DiskArtifactCache;
+import org.apacheextras.myfaces.resourcehandler.cache.InMemoryArtifactCache;
+import org.apacheextras.myfaces.resourcehandler.config.Bundle;
+import org.apacheextras.myfaces.resourcehandler.config.CachePolicy;
 import org.apacheextras.myfaces.resourcehandler.config.Library;
+import org.apacheextras.myfaces.resourcehandler.config.RelativeResourceHandlerConfig;
+import org.apacheextras.myfaces.resourcehandler.dependency.ResourceDependencyGraph;
+import org.apacheextras.myfaces.resourcehandler.processor.CssMinifier;
+import org.apacheextras.myfaces.resourcehandler.processor.HeaderInjectionProcessor;
+import org.apacheextras.myfaces.resourcehandler.processor.JsMinifier;
+import org.apacheextras.myfaces.resourcehandler.resolver.DefaultRelativeResourceResolver;
 import org.junit.After;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
 import javax.faces.application.ProjectStage;
 import javax.faces.application.Resource;
+import javax.faces.context.FacesContext;
+import javax.faces.context.FacesContextWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Test class for RelativeResourceHandler (ProjectStage = Production).
@@ -55,6 +89,8 @@ public class RelativeResourceHandlerProductionTest extends AbstractJsfTestCase
 
         mockResourceHandler = (MockResourceHandler) application.getResourceHandler();
         relativeResourceHandler = new RelativeResourceHandler(mockResourceHandler);
+        // the config of the handler is frozen at startup, the test fills its own one
+        relativeResourceHandler.setConfig(new RelativeResourceHandlerConfig());
     }
 
     @After
@@ -108,9 +144,611 @@ public class RelativeResourceHandlerProductionTest extends AbstractJsfTestCase
         Assert.assertArrayEquals(directOutputStream.toByteArray(), resourceHandlerOutputStream.toByteArray());
     }
 
+    @Test
+    public void testResourceRequestWithProcessingChain_processedResourceStream() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+
+        // add test library with a processing chain (incl. a ResourceProcessor from the SPI) as relative library
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Collections.<Bundle>emptyList(),
+                Arrays.asList(HeaderInjectionProcessor.NAME, CssMinifier.NAME, JsMinifier.NAME)));
+
+        Resource resource = relativeResourceHandler.createResource("/1/de/my-library/widgets/tree.css");
+
+        // the js-minifier is not applicable for css files
+        Assert.assertEquals(2, ((RelativeResourceImpl) resource).getProcessingPipeline().getStages().size());
+
+        // read resource directly from classpath and apply the processing chain
+        InputStream directInputStream = RelativeResourceHandlerTest.class
+                .getResourceAsStream("/META-INF/resources/my-library/widgets/tree.css");
+        ByteArrayOutputStream directOutputStream = new ByteArrayOutputStream();
+        ResourceUtils.pipeBytes(directInputStream, directOutputStream, new byte[4096]);
+        directInputStream.close();
+        String expected = new CssMinifier().process(
+                HeaderInjectionProcessor.HEADER + directOutputStream.toString("ISO-8859-1"));
+        Assert.assertTrue(expected.startsWith("/*! injected header */"));
+
+        // read resource via ResourceHandler (served from the processed file)
+        InputStream resourceHandlerInputStream = resource.getInputStream();
+        ByteArrayOutputStream resourceHandlerOutputStream = new ByteArrayOutputStream();
+        ResourceUtils.pipeBytes(resourceHandlerInputStream, resourceHandlerOutputStream, new byte[4096]);
+        resourceHandlerInputStream.close();
+
+        Assert.assertEquals(expected, resourceHandlerOutputStream.toString("ISO-8859-1"));
+        Assert.assertTrue(getArtifactFile(((RelativeResource) resource).getResourceFilePath(),
+                RelativeResourceImpl.PROCESSED_FILE_SUFFIX).exists());
+    }
+
+    @Test
+    public void testResourceRequestWithElEvaluation_oneKeyPerRequestedLocale_identicalContentShared() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+
+        // el-evaluation is locale dependent (#{resource['']} expressions contain the locale prefix)
+        relativeResourceHandler.getConfig().setLocaleSupportEnabled(true);
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Arrays.asList("*.css")));
+
+        RelativeResource resourceDe = (RelativeResource) relativeResourceHandler
+                .createResource("/1/de/my-library/resource.css");
+        RelativeResource resourceEn = (RelativeResource) relativeResourceHandler
+                .createResource("/1/en/my-library/resource.css");
+
+        // both resources use the same (not localized) resource file, but have separate keys in the disk cache
+        Assert.assertEquals("my-library/resource.css", resourceDe.getResourceFilePath());
+        Assert.assertEquals("my-library/resource.css", resourceEn.getResourceFilePath());
+
+        File processedFileDe = getArtifactFile("my-library/resource.css.de", RelativeResourceImpl.PROCESSED_FILE_SUFFIX);
+        File processedFileEn = getArtifactFile("my-library/resource.css.en", RelativeResourceImpl.PROCESSED_FILE_SUFFIX);
+        Assert.assertTrue(processedFileDe.exists());
+        Assert.assertTrue(processedFileEn.exists());
+        Assert.assertEquals(processedFileDe, processedFileEn);  // no locale specific output --> stored once
+        Assert.assertNull(getArtifactFile("my-library/resource.css", RelativeResourceImpl.PROCESSED_FILE_SUFFIX));
+    }
+
+    @Test
+    public void testTenants_tenantIndependentProcessing_artifactsShared() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Collections.<Bundle>emptyList(), Arrays.asList(CssMinifier.NAME)));
+
+        RelativeResource resourceA = createTenantResource("tenant-a");
+        RelativeResource resourceB = createTenantResource("tenant-b");
+
+        Assert.assertEquals("tenant-a", resourceA.getTenantId());
+        Assert.assertEquals(read(resourceA.getInputStream()), read(resourceB.getInputStream()));
+        Assert.assertTrue(getArtifactFile("my-library/resource.css", RelativeResourceImpl.PROCESSED_FILE_SUFFIX).exists());
+        Assert.assertNull(getArtifactFile("my-library/resource.css@tenant-a", RelativeResourceImpl.PROCESSED_FILE_SUFFIX));
+    }
+
+    @Test
+    public void testTenants_tenantDependentProcessing_oneArtifactPerTenant() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+
+        // el-evaluation is tenant dependent
+        relativeResourceHandler.getConfig().setLocaleSupportEnabled(true);
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Arrays.asList("*.css")));
+
+        createTenantResource("tenant-a");
+        createTenantResource("tenant-b");
+
+        Assert.assertTrue(getArtifactFile("my-library/resource.css.de@tenant-a",
+                RelativeResourceImpl.PROCESSED_FILE_SUFFIX).exists());
+        Assert.assertTrue(getArtifactFile("my-library/resource.css.de@tenant-b",
+                RelativeResourceImpl.PROCESSED_FILE_SUFFIX).exists());
+    }
+
+    @Test
+    public void testRestart_unchangedResourceReusesArtifacts_changedConfigRecreatesThem() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Collections.<Bundle>emptyList(), Arrays.asList(CssMinifier.NAME)));
+        RelativeResource resource = (RelativeResource) relativeResourceHandler
+                .createResource("/1/de/my-library/resource.css");
+
+        // replace the processed artifact with a (valid) marker
+        File processedFile = getArtifactFile(resource.getResourceFilePath(), RelativeResourceImpl.PROCESSED_FILE_SUFFIX);
+        ArtifactUtils.publish(processedFile, "marker".getBytes("UTF-8"));
+
+        // restart with the same config --> the artifact is reused
+        simulateRestart();
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Collections.<Bundle>emptyList(), Arrays.asList(CssMinifier.NAME)));
+        Assert.assertEquals("marker", read(relativeResourceHandler
+                .createResource("/1/de/my-library/resource.css").getInputStream()));
+
+        // restart with a different processing config --> the artifact is recreated
+        simulateRestart();
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Collections.<Bundle>emptyList(),
+                Arrays.asList(HeaderInjectionProcessor.NAME)));
+        Assert.assertTrue(read(relativeResourceHandler.createResource("/1/de/my-library/resource.css")
+                .getInputStream()).startsWith(HeaderInjectionProcessor.HEADER));
+    }
+
+    @Test
+    public void testDiskCacheMaxSizeExceeded_evictedArtifactsRecreatedOnDemand() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+
+        File diskCacheDir = new File(ResourceUtils.getServletContextTmpDir(facesContext),
+                RelativeResourceImpl.CACHE_BASE_DIR + "configured");
+        servletContext.addInitParameter(RelativeResourceHandler.DISK_CACHE_DIR_PARAM, diskCacheDir.getPath());
+        servletContext.addInitParameter(RelativeResourceHandler.DISK_CACHE_MAX_SIZE_PARAM, "1");
+
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Collections.<Bundle>emptyList(),
+                Arrays.asList(HeaderInjectionProcessor.NAME)));
+        RelativeResource resource = (RelativeResource) relativeResourceHandler
+                .createResource("/1/de/my-library/resource.css");
+        File processedFile = getArtifactFile(resource.getResourceFilePath(), RelativeResourceImpl.PROCESSED_FILE_SUFFIX);
+        Assert.assertEquals(diskCacheDir, DiskArtifactCache.getInstance(facesContext).getDirectory());
+        Assert.assertTrue(processedFile.exists());
+
+        // the artifacts of another resource exceed the max size --> the artifacts of the first one are evicted
+        relativeResourceHandler.createResource("/1/de/my-library/widgets/tree.css");
+        Assert.assertFalse(processedFile.exists());
+
+        // the artifacts are recreated when the resource is served again
+        Assert.assertTrue(read(resource.getInputStream()).startsWith(HeaderInjectionProcessor.HEADER));
+        Assert.assertTrue(processedFile.exists());
+    }
+
+    @Test
+    public void testRangeRequestForCompressedResponse_completeContent() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library"));
+
+        request.setPathElements("/webapp", "/faces", "/javax.faces.resource/1/de/my-library/resource.css", "");
+        request.addHeader("Accept-Encoding", "gzip");
+        request.addHeader("Range", "bytes=3-9");
+        CapturingHttpServletResponse capturingResponse = new CapturingHttpServletResponse(response);
+        externalContext.setResponse(capturingResponse);
+
+        relativeResourceHandler.handleResourceRequest(facesContext);
+
+        // the range would refer to the gzip encoding, which another Accept-Encoding would not get
+        Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        Assert.assertNull(response.getHeader("Content-Range"));
+        Assert.assertNull(response.getHeader("Accept-Ranges"));
+        Assert.assertEquals("gzip", response.getHeader("Content-Encoding"));
+        Assert.assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        Assert.assertEquals(read(RelativeResourceHandlerTest.class
+                .getResourceAsStream("/META-INF/resources/my-library/resource.css")),
+                read(new GZIPInputStream(new ByteArrayInputStream(capturingResponse.getBody()))));
+    }
+
+    @Test
+    public void testSmallResource_artifactsKeptInMemory() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+        servletContext.addInitParameter(RelativeResourceHandler.IN_MEMORY_ARTIFACT_MAX_SIZE_PARAM, "65536");
+
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Collections.<Bundle>emptyList(),
+                Arrays.asList(HeaderInjectionProcessor.NAME)));
+        Resource resource = relativeResourceHandler.createResource("/1/de/my-library/resource.css");
+
+        // no artifacts in the disk cache
+        String key = ((RelativeResource) resource).getResourceFilePath();
+        Assert.assertNull(DiskArtifactCache.getInstance(facesContext).getEntry(key));
+        Assert.assertNull(getArtifactFile(key, RelativeResourceImpl.PROCESSED_FILE_SUFFIX));
+
+        String processed = read(resource.getInputStream());
+        Assert.assertTrue(processed.startsWith(HeaderInjectionProcessor.HEADER));
+
+        request.addHeader("Accept-Encoding", "gzip");
+        Assert.assertEquals("gzip", resource.getResponseHeaders().get("Content-Encoding"));
+        Assert.assertEquals(processed, read(new GZIPInputStream(resource.getInputStream())));
+    }
+
+    @Test
+    public void testSmallResource_variantsWithIdenticalContentShareInMemoryArtifacts() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+        servletContext.addInitParameter(RelativeResourceHandler.IN_MEMORY_ARTIFACT_MAX_SIZE_PARAM, "65536");
+
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Collections.<Bundle>emptyList(),
+                Arrays.asList(HeaderInjectionProcessor.NAME)));
+        Resource german = relativeResourceHandler.createResource("/1/de/my-library/resource.css");
+        Resource english = relativeResourceHandler.createResource("/1/en/my-library/resource.css");
+        Assert.assertNotSame(german, english);
+
+        // one processed and one compressed artifact for both locales
+        Assert.assertEquals(read(german.getInputStream()), read(english.getInputStream()));
+        Assert.assertEquals(2, InMemoryArtifactCache.getInstance(facesContext).size());
+    }
+
+    @Test
+    public void testDiskArtifacts_contentBufferMappedWithoutCopy() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Collections.<Bundle>emptyList(),
+                Arrays.asList(HeaderInjectionProcessor.NAME)));
+        RelativeResource resource = (RelativeResource) relativeResourceHandler
+                .createResource("/1/de/my-library/resource.css");
+
+        ByteBuffer processed = resource.getContentBuffer();
+        Assert.assertTrue(processed.isReadOnly());
+        Assert.assertEquals(read(resource.getInputStream()), read(processed));
+
+        request.addHeader("Accept-Encoding", "gzip");
+        ByteBuffer compressed = resource.getContentBuffer();
+        Assert.assertEquals(read(processed), read(new GZIPInputStream(new ByteArrayInputStream(toArray(compressed)))));
+    }
+
+    @Test
+    public void testDiskArtifacts_contentBufferMappedOnceAndDroppedOnEviction() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Collections.<Bundle>emptyList(),
+                Arrays.asList(HeaderInjectionProcessor.NAME)));
+        RelativeResource resource = (RelativeResource) relativeResourceHandler
+                .createResource("/1/de/my-library/resource.css");
+
+        // every request gets its own position in the shared mapping
+        ByteBuffer first = resource.getContentBuffer();
+        String content = read(first);
+        first.position(first.limit());
+        Assert.assertEquals(content, read(resource.getContentBuffer()));
+
+        // the evicted artifact is recreated and mapped again
+        String key = resource.getResourceFilePath();
+        DiskArtifactCache.getInstance(facesContext).remove(key);
+        Assert.assertNull(getArtifactFile(key, RelativeResourceImpl.PROCESSED_FILE_SUFFIX));
+        Assert.assertEquals(content, read(resource.getContentBuffer()));
+        Assert.assertTrue(getArtifactFile(key, RelativeResourceImpl.PROCESSED_FILE_SUFFIX).exists());
+    }
+
+    @Test
+    public void testPureResource_noContentBuffer() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library"));
+        RelativeResource resource = (RelativeResource) relativeResourceHandler
+                .createResource("/1/de/my-library/resource.css");
+
+        // not compressed, the content must be read from the resource itself
+        Assert.assertNull(resource.getContentBuffer());
+    }
+
+    @Test
+    public void testNoFreeCreationSlot_compressionDeferred() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+        request.addHeader("Accept-Encoding", "gzip");
+        servletContext.addInitParameter(RelativeResourceHandler.MAX_CONCURRENT_ARTIFACT_CREATIONS_PARAM, "1");
+
+        // occupy the only slot (e.g. by the initialization of another resource)
+        ArtifactCreationScheduler scheduler = ArtifactCreationScheduler.getInstance(facesContext);
+        occupySlot(scheduler);
+
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library"));
+        Resource resource = relativeResourceHandler.createResource("/1/de/my-library/resource.css");
+
+        // the pure content is served uncompressed
+        Assert.assertNull(resource.getResponseHeaders().get("Content-Encoding"));
+        String content = read(resource.getInputStream());
+
+        // as soon as the slot is free, the compressed version is created by the next request
+        scheduler.release();
+        Assert.assertEquals("gzip", resource.getResponseHeaders().get("Content-Encoding"));
+        Assert.assertEquals(content, read(new GZIPInputStream(resource.getInputStream())));
+        Assert.assertEquals(1, scheduler.getAvailableSlots());
+    }
+
+    @Test
+    public void testNoFreeCreationSlot_processingWaitsForSlot() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+        request.addHeader("Accept-Encoding", "gzip");
+        servletContext.addInitParameter(RelativeResourceHandler.MAX_CONCURRENT_ARTIFACT_CREATIONS_PARAM, "1");
+
+        // occupy the only slot (e.g. by the initialization of another resource)
+        ArtifactCreationScheduler scheduler = ArtifactCreationScheduler.getInstance(facesContext);
+        occupySlot(scheduler);
+        DiskArtifactCache.getInstance(facesContext);
+        ResourceDependencyGraph.getInstance(facesContext);
+
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Collections.<Bundle>emptyList(),
+                Arrays.asList(HeaderInjectionProcessor.NAME)));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            Future<Resource> result = executor.submit(new Callable<Resource>()
+            {
+                public Resource call() throws Exception
+                {
+                    CurrentFacesContext.set(facesContext);
+                    try
+                    {
+                        return relativeResourceHandler.createResource("/1/de/my-library/resource.css");
+                    }
+                    finally
+                    {
+                        CurrentFacesContext.set(null);
+                    }
+                }
+            });
+
+            // the processing is not started beyond the max number of concurrent creations
+            try
+            {
+                result.get(200, TimeUnit.MILLISECONDS);
+                Assert.fail("the processing must wait for a free slot");
+            }
+            catch (TimeoutException expected)
+            {
+            }
+
+            // as soon as the slot is free, the processed version is created (the compression is deferred)
+            scheduler.release();
+            Resource resource = result.get(10, TimeUnit.SECONDS);
+            String key = ((RelativeResource) resource).getResourceFilePath();
+            Assert.assertTrue(getArtifactFile(key, RelativeResourceImpl.PROCESSED_FILE_SUFFIX).exists());
+            Assert.assertFalse(getArtifactFile(key, RelativeResourceImpl.COMPRESSED_FILE_SUFFIX).exists());
+            Assert.assertEquals(1, scheduler.getAvailableSlots());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentRequests_resourceInitializedOnce() throws Exception
+    {
+        final int threadCount = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try
+        {
+            assertResourceInitializedOnce(executor, threadCount);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Only runs on Java 21+. The virtual threads of the requests are recorded with JFR, which emits a
+     * jdk.VirtualThreadPinned event for every virtual thread that blocks while pinned to its carrier thread.
+     * The JFR API is used via reflection, because the tests are compiled against the Java 8 API.
+     */
+    @Test
+    public void testConcurrentRequestsOnVirtualThreads_carrierThreadsNotPinned() throws Exception
+    {
+        Method newVirtualThreadPerTaskExecutor;
+        try
+        {
+            newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch (NoSuchMethodException e)
+        {
+            Assume.assumeNoException(e);
+            return;
+        }
+
+        Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        Object recording = recordingClass.getConstructor().newInstance();
+        Object pinnedEventSettings = recordingClass.getMethod("enable", String.class)
+                .invoke(recording, "jdk.VirtualThreadPinned");
+        Class.forName("jdk.jfr.EventSettings").getMethod("withThreshold", Duration.class)
+                .invoke(pinnedEventSettings, Duration.ZERO);
+        File recordingFile = File.createTempFile("virtual-threads", ".jfr");
+        try
+        {
+            recordingClass.getMethod("start").invoke(recording);
+            ExecutorService executor = (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+            try
+            {
+                // many more threads than carriers, which all block on the initialization of the same resource
+                assertResourceInitializedOnce(executor, 200);
+            }
+            finally
+            {
+                executor.shutdownNow();
+                recordingClass.getMethod("stop").invoke(recording);
+            }
+
+            recordingClass.getMethod("dump", Path.class).invoke(recording, recordingFile.toPath());
+            List<?> pinnedEvents = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+                    .getMethod("readAllEvents", Path.class).invoke(null, recordingFile.toPath());
+            Assert.assertEquals(Collections.emptyList(), pinnedEvents);
+        }
+        finally
+        {
+            recordingClass.getMethod("close").invoke(recording);
+            recordingFile.delete();
+        }
+    }
+
+    @Test
+    public void testCachePolicy_cacheControlHeaderPrecomputed() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Collections.<Bundle>emptyList(), Collections.<String>emptyList(),
+                new CachePolicy(31536000L, true, CachePolicy.Visibility.PUBLIC, 60L)));
+        Resource resource = relativeResourceHandler.createResource("/1/de/my-library/resource.css");
+
+        Map<String, String> headers = resource.getResponseHeaders();
+        Assert.assertEquals("public, max-age=31536000, immutable, stale-while-revalidate=60",
+                headers.get("Cache-Control"));
+        Assert.assertNotNull(headers.get("Last-Modified"));
+        Assert.assertFalse(headers.containsKey("Expires"));
+
+        // the headers are not created per request
+        Assert.assertSame(headers, resource.getResponseHeaders());
+        try
+        {
+            headers.put("Expires", "0");
+            Assert.fail("precomputed headers must be immutable");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNoCachePolicy_immutableExpiresHeaderPerVariant() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library"));
+        Resource resource = relativeResourceHandler.createResource("/1/de/my-library/resource.css");
+
+        Map<String, String> identityHeaders = resource.getResponseHeaders();
+        Assert.assertNotNull(identityHeaders.get("Expires"));
+        Assert.assertFalse(identityHeaders.containsKey("Cache-Control"));
+        Assert.assertFalse(identityHeaders.containsKey("Content-Encoding"));
+        try
+        {
+            identityHeaders.put("Expires", "0");
+            Assert.fail("response headers must be immutable");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // expected
+        }
+
+        request.addHeader("Accept-Encoding", "gzip");
+        Map<String, String> compressedHeaders = resource.getResponseHeaders();
+        Assert.assertEquals("gzip", compressedHeaders.get("Content-Encoding"));
+        Assert.assertEquals(identityHeaders.get("Last-Modified"), compressedHeaders.get("Last-Modified"));
+    }
+
+    @Test
+    public void testInvalidateLibrary_artifactsDeletedAndResourceRecreated() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Collections.<Bundle>emptyList(),
+                Arrays.asList(HeaderInjectionProcessor.NAME)));
+        RelativeResource resource = (RelativeResource) relativeResourceHandler
+                .createResource("/1/de/my-library/resource.css");
+        File processedFile = getArtifactFile(resource.getResourceFilePath(), RelativeResourceImpl.PROCESSED_FILE_SUFFIX);
+        Assert.assertTrue(processedFile.exists());
+
+        Assert.assertEquals(0, relativeResourceHandler.invalidateLibrary("other-library"));
+        Assert.assertTrue(processedFile.exists());
+
+        Assert.assertEquals(1, relativeResourceHandler.invalidateLibrary("my-library"));
+        Assert.assertFalse(processedFile.exists());
+
+        // the invalidated instance does not recreate its artifacts, a new instance does
+        Assert.assertTrue(read(resource.getInputStream()).startsWith(HeaderInjectionProcessor.HEADER));
+        Assert.assertFalse(processedFile.exists());
+        Resource recreated = relativeResourceHandler.createResource("/1/de/my-library/resource.css");
+        Assert.assertNotSame(resource, recreated);
+        Assert.assertTrue(processedFile.exists());
+    }
+
+    @Test
+    public void testInvalidateAll_artifactsFromBeforeRestartDeleted() throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Collections.<Bundle>emptyList(),
+                Arrays.asList(HeaderInjectionProcessor.NAME)));
+        RelativeResource resource = (RelativeResource) relativeResourceHandler
+                .createResource("/1/de/my-library/resource.css");
+        File processedFile = getArtifactFile(resource.getResourceFilePath(), RelativeResourceImpl.PROCESSED_FILE_SUFFIX);
+
+        // the resource is not cached in the new RelativeResourceHandler, but its artifacts exist
+        simulateRestart();
+        Assert.assertEquals(0, relativeResourceHandler.invalidateAll());
+        Assert.assertFalse(processedFile.exists());
+    }
 
     // BEGIN: helper methods
 
+    private void simulateRestart()
+    {
+        // a new RelativeResourceHandler and a new DiskArtifactCache (manifest loaded from disk)
+        servletContext.removeAttribute(DiskArtifactCache.class.getName());
+        relativeResourceHandler = new RelativeResourceHandler(mockResourceHandler);
+        // the config of the handler is frozen at startup, the test fills its own one
+        relativeResourceHandler.setConfig(new RelativeResourceHandlerConfig());
+    }
+
+    private File getArtifactFile(String key, String suffix)
+    {
+        return DiskArtifactCache.getInstance(facesContext).getFile(key, suffix);
+    }
+
+    private RelativeResource createTenantResource(String tenantId)
+    {
+        RelativeResource resource = new DefaultRelativeResourceResolver().createRelativeResource(
+                new ResourceId("resource.css", "my-library", "de", tenantId), null,
+                relativeResourceHandler.getConfig());
+        resource.initialize(facesContext);
+        return resource;
+    }
+
+    private static String read(InputStream inputStream) throws Exception
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try
+        {
+            ResourceUtils.pipeBytes(inputStream, outputStream, new byte[4096]);
+        }
+        finally
+        {
+            inputStream.close();
+        }
+        return outputStream.toString("ISO-8859-1");
+    }
+
+    private static String read(ByteBuffer content) throws Exception
+    {
+        return new String(toArray(content), "ISO-8859-1");
+    }
+
+    private static byte[] toArray(ByteBuffer content)
+    {
+        byte[] array = new byte[content.remaining()];
+        content.duplicate().get(array);
+        return array;
+    }
+
     private static void deleteRecursively(File file)
     {
         if (!file.exists())
@@ -129,4 +767,89 @@ public class RelativeResourceHandlerProductionTest extends AbstractJsfTestCase
         file.delete();
     }
 
+    /**
+     * Binds the FacesContext of the test to the threads of the concurrency tests.
+     */
+    /**
+     * Acquires a slot of the given scheduler in another thread, thus the current thread does not hold it.
+     */
+    private void occupySlot(final ArtifactCreationScheduler scheduler) throws InterruptedException
+    {
+        Thread occupant = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                Assert.assertTrue(scheduler.tryAcquire());
+            }
+        };
+        occupant.start();
+        occupant.join();
+        Assert.assertEquals(0, scheduler.getAvailableSlots());
+    }
+
+    /**
+     * Requests the same processed resource from threadCount threads of the given executor at once and asserts
+     * that all of them get the same, initialized instance.
+     */
+    private void assertResourceInitializedOnce(ExecutorService executor, int threadCount) throws Exception
+    {
+        // we are in a resource request
+        setResourceRequest(true);
+
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library", null, null,
+                Collections.<String>emptyList(), Collections.<Bundle>emptyList(),
+                Arrays.asList(HeaderInjectionProcessor.NAME)));
+
+        // create the application scoped instances upfront (the mock application map is not thread-safe)
+        DiskArtifactCache.getInstance(facesContext);
+        ArtifactCreationScheduler.getInstance(facesContext);
+        ResourceDependencyGraph.getInstance(facesContext);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Resource>> results = new ArrayList<Future<Resource>>();
+        for (int i = 0; i < threadCount; i++)
+        {
+            results.add(executor.submit(new Callable<Resource>()
+            {
+                public Resource call() throws Exception
+                {
+                    CurrentFacesContext.set(facesContext);
+                    try
+                    {
+                        start.await();
+                        Resource resource = relativeResourceHandler.createResource(
+                                "/1/de/my-library/resource.css");
+                        Assert.assertTrue(read(resource.getInputStream())
+                                .startsWith(HeaderInjectionProcessor.HEADER));
+                        return resource;
+                    }
+                    finally
+                    {
+                        CurrentFacesContext.set(null);
+                    }
+                }
+            }));
+        }
+        start.countDown();
+
+        // all requests share the instance, which has been initialized by one of them
+        Resource resource = results.get(0).get(10, TimeUnit.SECONDS);
+        for (Future<Resource> result : results)
+        {
+            Assert.assertSame(resource, result.get(10, TimeUnit.SECONDS));
+        }
+        Assert.assertTrue(((RelativeResource) resource).isInitialized());
+    }
+
+    private abstract static class CurrentFacesContext extends FacesContextWrapper
+    {
+
+        private static void set(FacesContext facesContext)
+        {
+            setCurrentInstance(facesContext);
+        }
+
+    }
+
 }
@@ -23,6 +23,7 @@ package org.apacheextras.myfaces.resourcehandler;
 import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
 import org.apache.myfaces.test.mock.resource.MockResourceHandler;
 import org.apacheextras.myfaces.resourcehandler.config.Library;
+import org.apacheextras.myfaces.resourcehandler.config.RelativeResourceHandlerConfig;
 import org.apacheextras.myfaces.resourcehandler.provider.ClassPathResourceProvider;
 import org.junit.After;
 import org.junit.Assert;
@@ -33,6 +34,9 @@ import org.junit.runners.JUnit4;
 
 import javax.faces.application.ProjectStage;
 import javax.faces.application.Resource;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.util.Locale;
 
 /**
@@ -60,6 +64,8 @@ public class RelativeResourceHandlerTest extends AbstractJsfTestCase
 
         mockResourceHandler = (MockResourceHandler) application.getResourceHandler();
         relativeResourceHandler = new RelativeResourceHandler(mockResourceHandler);
+        // the config of the handler is frozen at startup, the test fills its own one
+        relativeResourceHandler.setConfig(new RelativeResourceHandlerConfig());
     }
 
     @After
@@ -77,6 +83,14 @@ public class RelativeResourceHandlerTest extends AbstractJsfTestCase
         facesContext.getAttributes().put(RelativeResourceHandler.HANDLING_RESOURCE_REQUEST, resourceRequest);
     }
 
+    @Test
+    public void testConstructor_configFrozenAtStartup() throws Exception
+    {
+        RelativeResourceHandler startedHandler = new RelativeResourceHandler(mockResourceHandler);
+
+        Assert.assertTrue(startedHandler.getConfig().isFrozen());
+    }
+
     @Test
     public void testCreateResourceInResourceRequestWithLibraryName_validResource() throws Exception
     {
@@ -266,6 +280,84 @@ public class RelativeResourceHandlerTest extends AbstractJsfTestCase
                 resource.getRequestPath().contains("en_GB"));
     }
 
+    @Test
+    public void testHandleResourceRequest_RangeHeader_partialContent() throws Exception
+    {
+        CapturingHttpServletResponse responseBody = prepareRangeRequest("bytes=3-9");
+
+        relativeResourceHandler.handleResourceRequest(facesContext);
+
+        byte[] expected = new byte[7];
+        System.arraycopy(readTestResource(), 3, expected, 0, 7);
+
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+        Assert.assertEquals("bytes 3-9/" + readTestResource().length, response.getHeader("Content-Range"));
+        Assert.assertArrayEquals(expected, responseBody.getBody());
+    }
+
+    @Test
+    public void testHandleResourceRequest_overlappingRanges_coalescedIntoOnePart() throws Exception
+    {
+        CapturingHttpServletResponse responseBody = prepareRangeRequest("bytes=6-12, 3-9");
+
+        relativeResourceHandler.handleResourceRequest(facesContext);
+
+        byte[] expected = new byte[10];
+        System.arraycopy(readTestResource(), 3, expected, 0, 10);
+
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+        Assert.assertEquals("bytes 3-12/" + readTestResource().length, response.getHeader("Content-Range"));
+        Assert.assertArrayEquals(expected, responseBody.getBody());
+    }
+
+    @Test
+    public void testHandleResourceRequest_RangeHeaderNotSatisfiable_416() throws Exception
+    {
+        CapturingHttpServletResponse responseBody = prepareRangeRequest("bytes=100000-");
+
+        relativeResourceHandler.handleResourceRequest(facesContext);
+
+        Assert.assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatus());
+        Assert.assertEquals("bytes */" + readTestResource().length, response.getHeader("Content-Range"));
+        Assert.assertEquals(0, responseBody.getBody().length);
+    }
+
+    @Test
+    public void testHandleResourceRequest_IfRangeDoesNotMatch_completeContent() throws Exception
+    {
+        CapturingHttpServletResponse responseBody = prepareRangeRequest("bytes=3-9");
+        request.addHeader("If-Range", "Thu, 01 Jan 1970 00:00:00 GMT");
+
+        relativeResourceHandler.handleResourceRequest(facesContext);
+
+        Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        Assert.assertNull(response.getHeader("Content-Range"));
+        Assert.assertArrayEquals(readTestResource(), responseBody.getBody());
+    }
+
+    private CapturingHttpServletResponse prepareRangeRequest(String range) throws Exception
+    {
+        setResourceRequest(true);
+        relativeResourceHandler.getConfig().addLibrary(new Library("my-library"));
+
+        request.setPathElements("/webapp", "/faces", "/javax.faces.resource/1/de/my-library/resource.css", "");
+        request.addHeader("Range", range);
+
+        CapturingHttpServletResponse capturingResponse = new CapturingHttpServletResponse(response);
+        externalContext.setResponse(capturingResponse);
+        return capturingResponse;
+    }
+
+    private byte[] readTestResource() throws Exception
+    {
+        InputStream inputStream = RelativeResourceHandlerTest.class
+                .getResourceAsStream("/META-INF/resources/my-library/resource.css");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ResourceUtils.pipeBytes(inputStream, outputStream, new byte[4096]);
+        inputStream.close();
+        return outputStream.toByteArray();
+    }
+
     private Resource genericResourceRequestLocaleTest(String localePrefix) throws Exception
     {
         setResourceRequest(true);
@@ -22,10 +22,17 @@ package org.apacheextras.myfaces.resourcehandler;
 
 import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
 import org.apacheextras.myfaces.resourcehandler.config.Library;
+import org.apacheextras.myfaces.resourcehandler.provider.ResourceProvider;
+import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import javax.faces.context.FacesContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
 /**
  * Test class for RelativeResource.
  *
@@ -51,5 +58,65 @@ public class RelativeResourceImplTest extends AbstractJsfTestCase
         new RelativeResourceImpl("style.css", new Library(validLibraryName), null, "de_AT", false, false, "1.0.0");
     }
 
-}
+    @Test
+    public void testResourceExistsNonExistingResource_providerQueriedOnlyOnce() throws Exception
+    {
+        CountingResourceProvider resourceProvider = new CountingResourceProvider();
+        Library library = new Library("my-library");
+        library.setResourceProvider(resourceProvider);
+
+        RelativeResourceImpl resource = new RelativeResourceImpl("style.css", library, null, "de_AT",
+                false, false, "1.0.0");
+
+        Assert.assertFalse(resource.resourceExists());
+        Assert.assertFalse(resource.resourceExists());
+        Assert.assertNull(resource.getURL());
+
+        // the negative result must be cached
+        Assert.assertEquals(1, resourceProvider.urlLookups);
+    }
+
+    @Test
+    public void testInitializeLocaleFallback_eachLocalePrefixQueriedOnlyOnce() throws Exception
+    {
+        CountingResourceProvider resourceProvider = new CountingResourceProvider();
+        Library library = new Library("my-library");
+        library.setResourceProvider(resourceProvider);
+
+        RelativeResourceImpl resource = new RelativeResourceImpl("style.css", library, null, "de_AT",
+                false, true, "1.0.0");
+        resource.initialize(facesContext);
 
+        // de_AT and de
+        Assert.assertEquals(2, resourceProvider.urlLookups);
+        Assert.assertNull(resource.getRequestedLocalePrefix());
+
+        // no locale prefix
+        Assert.assertFalse(resource.resourceExists());
+        Assert.assertFalse(resource.resourceExists());
+        Assert.assertEquals(3, resourceProvider.urlLookups);
+    }
+
+    /**
+     * ResourceProvider that never finds a resource, but counts the url lookups.
+     */
+    private static class CountingResourceProvider implements ResourceProvider
+    {
+
+        private int urlLookups = 0;
+
+        public URL getUrl(FacesContext facesContext, RelativeResource relativeResource)
+        {
+            urlLookups++;
+            return null;
+        }
+
+        public InputStream getInputStream(FacesContext facesContext, RelativeResource relativeResource)
+                throws IOException
+        {
+            return null;
+        }
+
+    }
+
+}
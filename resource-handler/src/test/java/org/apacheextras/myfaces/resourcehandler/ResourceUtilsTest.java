@@ -25,6 +25,12 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Test cases for ResourceUtils.
  *
@@ -80,4 +86,81 @@ public class ResourceUtilsTest
         Assert.assertFalse(ResourceUtils.isGZIPEncodingAccepted("deflate, *;q=0, identity "));
     }
 
+    @Test
+    public void testParseRangeHeader()
+    {
+        // satisfiable
+        Assert.assertEquals(Arrays.asList(new ByteRange(0, 499)), ResourceUtils.parseRangeHeader("bytes=0-499", 1000));
+        Assert.assertEquals(Arrays.asList(new ByteRange(500, 999)), ResourceUtils.parseRangeHeader("bytes=500-", 1000));
+        Assert.assertEquals(Arrays.asList(new ByteRange(900, 999)), ResourceUtils.parseRangeHeader("bytes=-100", 1000));
+        Assert.assertEquals(Arrays.asList(new ByteRange(0, 999)), ResourceUtils.parseRangeHeader("bytes=-2000", 1000));
+        Assert.assertEquals(Arrays.asList(new ByteRange(990, 999)), ResourceUtils.parseRangeHeader("bytes=990-5000", 1000));
+        Assert.assertEquals(Arrays.asList(new ByteRange(0, 0), new ByteRange(999, 999)),
+                ResourceUtils.parseRangeHeader("bytes=0-0, -1", 1000));
+        Assert.assertEquals(Arrays.asList(new ByteRange(10, 20)),
+                ResourceUtils.parseRangeHeader("  bytes= 10 - 20 , 2000-3000", 1000));
+
+        // not satisfiable
+        Assert.assertEquals(Collections.emptyList(), ResourceUtils.parseRangeHeader("bytes=1000-", 1000));
+        Assert.assertEquals(Collections.emptyList(), ResourceUtils.parseRangeHeader("bytes=-0", 1000));
+        Assert.assertEquals(Collections.emptyList(), ResourceUtils.parseRangeHeader("bytes=0-10", 0));
+
+        // ignored
+        Assert.assertNull(ResourceUtils.parseRangeHeader(null, 1000));
+        Assert.assertNull(ResourceUtils.parseRangeHeader("items=0-10", 1000));
+        Assert.assertNull(ResourceUtils.parseRangeHeader("bytes=10-0", 1000));
+        Assert.assertNull(ResourceUtils.parseRangeHeader("bytes=abc", 1000));
+        Assert.assertNull(ResourceUtils.parseRangeHeader("bytes=-", 1000));
+        Assert.assertNull(ResourceUtils.parseRangeHeader("bytes=0-1,2-3,4-5,6-7,8-9,10-11,12-13,14-15,16-17,"
+                + "18-19,20-21,22-23,24-25,26-27,28-29,30-31,32-33", 1000));
+    }
+
+    @Test
+    public void testParseRangeHeader_overlappingAndAdjacentRangesCoalesced()
+    {
+        Assert.assertEquals(Arrays.asList(new ByteRange(0, 199), new ByteRange(500, 599)),
+                ResourceUtils.parseRangeHeader("bytes=500-599, 100-199, 0-99", 1000));
+        Assert.assertEquals(Arrays.asList(new ByteRange(0, 149)),
+                ResourceUtils.parseRangeHeader("bytes=50-149, 0-99", 1000));
+    }
+
+    @Test
+    public void testParseRangeHeader_excessiveOverlap_ignored()
+    {
+        // 16 times (almost) the complete representation
+        Assert.assertNull(ResourceUtils.parseRangeHeader("bytes=0-,1-,2-,3-,4-,5-,6-,7-,8-,9-,10-,11-,12-,13-,14-,15-",
+                1000));
+        Assert.assertNull(ResourceUtils.parseRangeHeader("bytes=0-999, 500-999", 1000));
+    }
+
+    @Test
+    public void testCreateMultipartByteRanges()
+    {
+        ByteBuffer content = ByteBuffer.wrap("0123456789".getBytes());
+        List<ByteRange> ranges = Arrays.asList(new ByteRange(0, 1), new ByteRange(8, 9));
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (ByteBuffer part : ResourceUtils.createMultipartByteRanges(content, ranges, "text/plain", "BOUNDARY"))
+        {
+            byte[] partBytes = new byte[part.remaining()];
+            part.get(partBytes);
+            body.write(partBytes, 0, partBytes.length);
+        }
+
+        Assert.assertEquals("--BOUNDARY\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Range: bytes 0-1/10\r\n"
+                + "\r\n"
+                + "01\r\n"
+                + "--BOUNDARY\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Range: bytes 8-9/10\r\n"
+                + "\r\n"
+                + "89\r\n"
+                + "--BOUNDARY--\r\n", body.toString());
+
+        // content must not be modified
+        Assert.assertEquals(10, content.remaining());
+    }
+
 }
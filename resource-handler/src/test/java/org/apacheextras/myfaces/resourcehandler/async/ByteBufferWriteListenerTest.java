@@ -0,0 +1,182 @@
+/*
+ * Copyright 2011-2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.async;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+
+/**
+ * Test class for ByteBufferWriteListener.
+ *
+ * @author Jakob Korherr
+ */
+public class ByteBufferWriteListenerTest
+{
+
+    private int completeCalls;
+    private AsyncContext asyncContext;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        completeCalls = 0;
+        asyncContext = (AsyncContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] { AsyncContext.class }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                if ("complete".equals(method.getName()))
+                {
+                    completeCalls++;
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    @Test
+    public void testOnWritePossible_alwaysReady_writesEverythingAndCompletes() throws Exception
+    {
+        byte[] content = createContent(3 * ByteBufferWriteListener.CHUNK_SIZE + 17);
+        LimitedServletOutputStream outputStream = new LimitedServletOutputStream(Integer.MAX_VALUE);
+
+        new ByteBufferWriteListener(asyncContext, outputStream, ByteBuffer.wrap(content)).onWritePossible();
+
+        Assert.assertArrayEquals(content, outputStream.written.toByteArray());
+        Assert.assertEquals(1, completeCalls);
+    }
+
+    @Test
+    public void testOnWritePossible_notReady_continuesOnNextCallback() throws Exception
+    {
+        byte[] content = createContent(3 * ByteBufferWriteListener.CHUNK_SIZE);
+        LimitedServletOutputStream outputStream = new LimitedServletOutputStream(1);
+        ByteBufferWriteListener listener
+                = new ByteBufferWriteListener(asyncContext, outputStream, ByteBuffer.wrap(content));
+
+        // container accepts only one chunk per callback
+        listener.onWritePossible();
+        Assert.assertEquals(ByteBufferWriteListener.CHUNK_SIZE, outputStream.written.size());
+        Assert.assertEquals(0, completeCalls);
+
+        while (completeCalls == 0)
+        {
+            outputStream.writesUntilNotReady = 1;
+            listener.onWritePossible();
+        }
+
+        Assert.assertArrayEquals(content, outputStream.written.toByteArray());
+        Assert.assertEquals(1, completeCalls);
+    }
+
+    @Test
+    public void testOnWritePossible_severalReadOnlyBuffers_writtenInOrder() throws Exception
+    {
+        byte[] content = createContent(2 * ByteBufferWriteListener.CHUNK_SIZE + 17);
+        LimitedServletOutputStream outputStream = new LimitedServletOutputStream(Integer.MAX_VALUE);
+        ByteBuffer buffer = ByteBuffer.wrap(content).asReadOnlyBuffer();
+        ByteBuffer first = buffer.duplicate();
+        first.limit(10);
+        ByteBuffer rest = buffer.duplicate();
+        rest.position(10);
+
+        new ByteBufferWriteListener(asyncContext, outputStream, first, ByteBuffer.allocate(0), rest)
+                .onWritePossible();
+
+        Assert.assertArrayEquals(content, outputStream.written.toByteArray());
+        Assert.assertEquals(1, completeCalls);
+    }
+
+    @Test
+    public void testOnError_completesAsyncContext() throws Exception
+    {
+        ByteBufferWriteListener listener = new ByteBufferWriteListener(asyncContext,
+                new LimitedServletOutputStream(0), ByteBuffer.wrap(createContent(10)));
+
+        listener.onError(new RuntimeException("connection reset"));
+
+        Assert.assertEquals(1, completeCalls);
+    }
+
+    // BEGIN: helper methods
+
+    private static byte[] createContent(int length)
+    {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+
+    /**
+     * ServletOutputStream that reports isReady() == false after the given number of writes.
+     */
+    private static class LimitedServletOutputStream extends ServletOutputStream
+    {
+
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private int writesUntilNotReady;
+
+        private LimitedServletOutputStream(int writesUntilNotReady)
+        {
+            this.writesUntilNotReady = writesUntilNotReady;
+        }
+
+        @Override
+        public boolean isReady()
+        {
+            return writesUntilNotReady > 0;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener)
+        {
+        }
+
+        @Override
+        public void write(int b)
+        {
+            written.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            writesUntilNotReady--;
+            written.write(b, off, len);
+        }
+
+    }
+
+}
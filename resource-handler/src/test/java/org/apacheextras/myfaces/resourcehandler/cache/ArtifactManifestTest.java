@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.cache;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Test class for ArtifactManifest.
+ *
+ * @author Jakob Korherr
+ */
+public class ArtifactManifestTest
+{
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        file = File.createTempFile("artifact-manifest-test", ArtifactManifest.MANIFEST_FILE_NAME);
+        file.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        file.delete();
+    }
+
+    @Test
+    public void testPutEntry_entriesSurviveReload() throws Exception
+    {
+        ArtifactManifest manifest = new ArtifactManifest(file);
+        manifest.putEntry("de/my-library/style.css", createEntry(1000L));
+        manifest.putEntry("my-library/script.js", createEntry(2000L));
+        manifest.putEntry("de/my-library/style.css", createEntry(3000L));  // replaces first entry
+
+        ArtifactManifest reloaded = new ArtifactManifest(file);
+
+        Assert.assertEquals(3000L, reloaded.getEntry("de/my-library/style.css").getLastModified());
+        Assert.assertEquals(2000L, reloaded.getEntry("my-library/script.js").getLastModified());
+        Assert.assertTrue(reloaded.getEntry("my-library/script.js")
+                .matches("file:/webapp/resources/style.css", "1", "config-hash"));
+        Assert.assertFalse(reloaded.getEntry("my-library/script.js")
+                .matches("file:/webapp/resources/style.css", "2", "config-hash"));
+        Assert.assertNull(reloaded.getEntry("unknown.css"));
+    }
+
+    @Test
+    public void testRemoveEntry_removalSurvivesReload() throws Exception
+    {
+        ArtifactManifest manifest = new ArtifactManifest(file);
+        manifest.putEntry("style.css", createEntry(1000L));
+        manifest.putEntry("script.js", createEntry(2000L));
+        manifest.removeEntry("style.css");
+
+        ArtifactManifest reloaded = new ArtifactManifest(file);
+
+        Assert.assertNull(reloaded.getEntry("style.css"));
+        Assert.assertEquals(100L, reloaded.getEntry("script.js").getArtifactLength());
+        Assert.assertEquals(1, reloaded.getEntries().size());
+    }
+
+    @Test
+    public void testLoad_incompleteLastLineIgnored_fileCompacted() throws Exception
+    {
+        ArtifactManifest manifest = new ArtifactManifest(file);
+        manifest.putEntry("style.css", createEntry(1000L));
+        manifest.putEntry("style.css", createEntry(2000L));
+        append("script.js\tfile:/webapp/resources/scr");  // crash while appending
+
+        long uncompactedLength = file.length();
+        ArtifactManifest reloaded = new ArtifactManifest(file);
+
+        Assert.assertEquals(2000L, reloaded.getEntry("style.css").getLastModified());
+        Assert.assertNull(reloaded.getEntry("script.js"));
+        Assert.assertTrue(file.length() < uncompactedLength / 2);
+    }
+
+    // BEGIN: helper methods
+
+    private static ArtifactManifest.Entry createEntry(long lastModified)
+    {
+        return new ArtifactManifest.Entry("file:/webapp/resources/style.css", lastModified, 42L,
+                "0123456789abcdef", "1", "config-hash", "fedcba9876543210", 100L);
+    }
+
+    private void append(String content) throws IOException
+    {
+        FileOutputStream outputStream = new FileOutputStream(file, true);
+        try
+        {
+            outputStream.write(content.getBytes("UTF-8"));
+        }
+        finally
+        {
+            outputStream.close();
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.cache;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Test class for ArtifactUtils.
+ *
+ * @author Jakob Korherr
+ */
+public class ArtifactUtilsTest
+{
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = File.createTempFile("artifact-utils-test", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        deleteRecursively(directory);
+    }
+
+    @Test
+    public void testPublish_createsValidArtifactWithoutTempFiles() throws Exception
+    {
+        File target = new File(directory, "my-library/css/style.css.gzip");
+
+        ArtifactUtils.publish(target, "content".getBytes("UTF-8"));
+
+        Assert.assertTrue(ArtifactUtils.isValid(target));
+        Assert.assertEquals(7, target.length());
+
+        String[] files = target.getParentFile().list();
+        Assert.assertEquals(2, files.length);  // artifact and checksum, no temp files
+    }
+
+    @Test
+    public void testPublish_replacesExistingArtifact() throws Exception
+    {
+        File target = new File(directory, "style.css.gzip");
+
+        ArtifactUtils.publish(target, "old content".getBytes("UTF-8"));
+        ArtifactUtils.publish(target, "new".getBytes("UTF-8"));
+
+        Assert.assertTrue(ArtifactUtils.isValid(target));
+        Assert.assertEquals(3, target.length());
+    }
+
+    @Test
+    public void testIsValid_truncatedOrModifiedArtifact_invalid() throws Exception
+    {
+        File target = new File(directory, "style.css.gzip");
+        ArtifactUtils.publish(target, "content".getBytes("UTF-8"));
+
+        write(target, "cont");  // truncated
+        Assert.assertFalse(ArtifactUtils.isValid(target));
+
+        write(target, "CONTENT");  // same length, different content
+        Assert.assertFalse(ArtifactUtils.isValid(target));
+    }
+
+    @Test
+    public void testIsValid_missingChecksum_invalid() throws Exception
+    {
+        File target = new File(directory, "style.css.gzip");
+        write(target, "content");  // e.g. written by an older version
+
+        Assert.assertFalse(ArtifactUtils.isValid(target));
+
+        ArtifactUtils.delete(target);
+        Assert.assertFalse(target.exists());
+    }
+
+    @Test
+    public void testDigest_stringIsUtf8EncodedRegardlessOfPlatformCharset() throws Exception
+    {
+        String signature = "gr\u00fcn|\u00e4";
+
+        Assert.assertEquals("b094d9dd83bec033e8c46709a22e9c1655d6915c", ArtifactUtils.digest(signature));
+        Assert.assertEquals(ArtifactUtils.digest(signature.getBytes("UTF-8")), ArtifactUtils.digest(signature));
+    }
+
+    // BEGIN: helper methods
+
+    private static void write(File file, String content) throws IOException
+    {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try
+        {
+            outputStream.write(content.getBytes("UTF-8"));
+        }
+        finally
+        {
+            outputStream.close();
+        }
+    }
+
+    private static void deleteRecursively(File file)
+    {
+        if (file.isDirectory())
+        {
+            for (File child : file.listFiles())
+            {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+}
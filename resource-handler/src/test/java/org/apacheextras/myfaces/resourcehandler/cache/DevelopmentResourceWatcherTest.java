@@ -0,0 +1,212 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.cache;
+
+import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
+import org.apacheextras.myfaces.resourcehandler.RelativeResource;
+import org.apacheextras.myfaces.resourcehandler.RelativeResourceImpl;
+import org.apacheextras.myfaces.resourcehandler.ResourceId;
+import org.apacheextras.myfaces.resourcehandler.config.Bundle;
+import org.apacheextras.myfaces.resourcehandler.config.Library;
+import org.apacheextras.myfaces.resourcehandler.config.RelativeResourceHandlerConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+
+/**
+ * Test class for DevelopmentResourceWatcher.
+ *
+ * @author Jakob Korherr
+ */
+@RunWith(JUnit4.class)
+public class DevelopmentResourceWatcherTest extends AbstractJsfTestCase
+{
+
+    private static final long TIMEOUT_MILLIS = 30000L;
+
+    private File directory;
+    private Library library;
+    private RelativeResourceCache cache;
+    private DevelopmentResourceWatcher watcher;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        directory = File.createTempFile("development-resource-watcher-test", "");
+        directory.delete();
+        new File(directory, "de").mkdirs();
+
+        Bundle bundle = new Bundle("all.css", null, Arrays.asList("a.css", "b.css"));
+        library = new Library("my-library", Library.LocationType.WEBAPP, "/my-library",
+                Collections.<String>emptyList(), Arrays.asList(bundle));
+        RelativeResourceHandlerConfig config = new RelativeResourceHandlerConfig();
+        config.addLibrary(library);
+
+        cache = new RelativeResourceCache(100);
+        watcher = new DevelopmentResourceWatcher(config, cache);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        watcher.close();
+        deleteRecursively(directory);
+
+        super.tearDown();
+    }
+
+    @Test
+    public void testInvalidate_onlyAffectedResourcesRemoved() throws Exception
+    {
+        ResourceId a = cacheResource("a.css", null);
+        ResourceId aGerman = cacheResource("a.css", "de");
+        ResourceId b = cacheResource("b.css", null);
+        ResourceId c = cacheResource("c.css", null);
+        ResourceId bundle = cacheResource("all.css", null);
+
+        watcher.invalidate("my-library", "de/a.css");
+
+        Assert.assertFalse(isCached(a));
+        Assert.assertFalse(isCached(aGerman));
+        Assert.assertTrue(isCached(b));
+        Assert.assertTrue(isCached(c));
+        Assert.assertFalse(isCached(bundle));  // contains a.css
+    }
+
+    @Test
+    public void testInvalidate_defaultLocation_libraryNameInPath() throws Exception
+    {
+        ResourceId a = cacheResource("a.css", null);
+        ResourceId b = cacheResource("b.css", null);
+
+        watcher.invalidate(null, "my-library/b.css");
+
+        Assert.assertTrue(isCached(a));
+        Assert.assertFalse(isCached(b));
+    }
+
+    @Test
+    public void testInvalidate_nullPath_allResourcesRemoved() throws Exception
+    {
+        ResourceId a = cacheResource("a.css", null);
+        ResourceId b = cacheResource("b.css", null);
+
+        watcher.invalidate(null, null);
+
+        Assert.assertFalse(isCached(a));
+        Assert.assertFalse(isCached(b));
+    }
+
+    @Test
+    public void testRun_fileChanged_resourceInvalidated() throws Exception
+    {
+        File file = new File(directory, "de/a.css");
+        write(file, "a { }");
+        watcher.registerDirectory(directory, "my-library");
+        ResourceId a = cacheResource("a.css", "de");
+        ResourceId b = cacheResource("b.css", null);
+
+        Thread thread = new Thread(watcher);
+        thread.setDaemon(true);
+        thread.start();
+        write(file, "a { color: red; }");
+
+        long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (isCached(a) && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(50L);
+        }
+
+        Assert.assertFalse(isCached(a));
+        Assert.assertTrue(isCached(b));
+    }
+
+    // BEGIN: helper methods
+
+    private ResourceId cacheResource(final String resourceName, final String localePrefix)
+    {
+        ResourceId resourceId = new ResourceId(resourceName, library.getName(), localePrefix);
+        cache.get(resourceId, new Callable<RelativeResource>()
+        {
+            public RelativeResource call() throws Exception
+            {
+                return new RelativeResourceImpl(resourceName, library, null, localePrefix, false, true, "1");
+            }
+        });
+        return resourceId;
+    }
+
+    private boolean isCached(ResourceId resourceId)
+    {
+        final boolean[] created = new boolean[1];
+        cache.get(resourceId, new Callable<RelativeResource>()
+        {
+            public RelativeResource call() throws Exception
+            {
+                created[0] = true;
+                return new RelativeResourceImpl("x.css", library, null, null, false, true, "1");
+            }
+        });
+        if (created[0])
+        {
+            cache.invalidate(resourceId);  // restore the previous state
+        }
+        return !created[0];
+    }
+
+    private static void write(File file, String content) throws Exception
+    {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try
+        {
+            outputStream.write(content.getBytes("UTF-8"));
+        }
+        finally
+        {
+            outputStream.close();
+        }
+    }
+
+    private static void deleteRecursively(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+}
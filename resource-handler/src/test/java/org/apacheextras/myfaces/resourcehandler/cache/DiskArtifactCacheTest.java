@@ -0,0 +1,191 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.cache;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * Test class for DiskArtifactCache.
+ *
+ * @author Jakob Korherr
+ */
+public class DiskArtifactCacheTest
+{
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = File.createTempFile("disk-artifact-cache-test", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        deleteRecursively(directory);
+    }
+
+    @Test
+    public void testPut_maxSizeExceeded_evictsLeastRecentlyAccessed() throws Exception
+    {
+        DiskArtifactCache cache = new DiskArtifactCache(directory, 250L);
+        publish(cache, "my-library/a.css", 100);
+        publish(cache, "my-library/b.css", 100);
+
+        cache.touch("my-library/a.css");  // b.css is now the least recently accessed
+        publish(cache, "my-library/c.css", 100);
+
+        Assert.assertTrue(isCached(cache, "my-library/a.css"));
+        Assert.assertFalse(isCached(cache, "my-library/b.css"));
+        Assert.assertTrue(isCached(cache, "my-library/c.css"));
+        Assert.assertEquals(200L, cache.getSize());
+    }
+
+    @Test
+    public void testConstructor_indexRestoredFromManifest() throws Exception
+    {
+        DiskArtifactCache cache = new DiskArtifactCache(directory, -1L);
+        publish(cache, "my-library/a.css", 100);
+        publish(cache, "my-library/b.css", 50);
+        cache.remove("my-library/a.css");
+
+        DiskArtifactCache restarted = new DiskArtifactCache(directory, -1L);
+
+        Assert.assertEquals(50L, restarted.getSize());
+        Assert.assertNull(restarted.getEntry("my-library/a.css"));
+        Assert.assertTrue(isCached(restarted, "my-library/b.css"));
+        Assert.assertFalse(cache.getContentFile("my-library/a.css", DiskArtifactCache.PROCESSED_FILE_SUFFIX).exists());
+    }
+
+    @Test
+    public void testConstructor_smallerMaxSize_evictsOnStartup() throws Exception
+    {
+        DiskArtifactCache cache = new DiskArtifactCache(directory, -1L);
+        publish(cache, "my-library/a.css", 100);
+        publish(cache, "my-library/b.css", 100);
+
+        DiskArtifactCache restarted = new DiskArtifactCache(directory, 150L);
+
+        Assert.assertEquals(100L, restarted.getSize());
+        Assert.assertTrue(isCached(restarted, "my-library/a.css") ^ isCached(restarted, "my-library/b.css"));
+    }
+
+    @Test
+    public void testPut_sameContent_artifactsSharedUntilLastKeyRemoved() throws Exception
+    {
+        DiskArtifactCache cache = new DiskArtifactCache(directory, -1L);
+        publish(cache, "de/my-library/a.css", "content", 100);
+        publish(cache, "en/my-library/a.css", "content", 100);
+
+        Assert.assertEquals(100L, cache.getSize());
+        Assert.assertEquals(cache.getFile("de/my-library/a.css", DiskArtifactCache.PROCESSED_FILE_SUFFIX),
+                cache.getFile("en/my-library/a.css", DiskArtifactCache.PROCESSED_FILE_SUFFIX));
+
+        cache.remove("de/my-library/a.css");
+        Assert.assertTrue(isCached(cache, "en/my-library/a.css"));
+
+        cache.remove("en/my-library/a.css");
+        Assert.assertEquals(0L, cache.getSize());
+        Assert.assertFalse(cache.getContentFile("content", DiskArtifactCache.PROCESSED_FILE_SUFFIX).exists());
+    }
+
+    @Test
+    public void testPut_contentChanged_previousContentReleased() throws Exception
+    {
+        DiskArtifactCache cache = new DiskArtifactCache(directory, -1L);
+        publish(cache, "my-library/a.css", "content-1", 100);
+        publish(cache, "my-library/a.css", "content-2", 50);
+
+        Assert.assertEquals(50L, cache.getSize());
+        Assert.assertFalse(cache.getContentFile("content-1", DiskArtifactCache.PROCESSED_FILE_SUFFIX).exists());
+    }
+
+    @Test
+    public void testOpenFile_openedArtifactReadableAfterEviction() throws Exception
+    {
+        DiskArtifactCache cache = new DiskArtifactCache(directory, 150L);
+        publish(cache, "my-library/a.css", 100);
+
+        InputStream opened = cache.openFile("my-library/a.css", DiskArtifactCache.PROCESSED_FILE_SUFFIX);
+        try
+        {
+            publish(cache, "my-library/b.css", 100);  // evicts a.css
+            Assert.assertNull(cache.openFile("my-library/a.css", DiskArtifactCache.PROCESSED_FILE_SUFFIX));
+
+            // the artifact opened before the eviction can still be read completely
+            int length = 0;
+            while (opened.read() != -1)
+            {
+                length++;
+            }
+            Assert.assertEquals(100, length);
+        }
+        finally
+        {
+            opened.close();
+        }
+    }
+
+    // BEGIN: helper methods
+
+    private static void publish(DiskArtifactCache cache, String key, int length) throws Exception
+    {
+        // use the key as content digest (unique content per key)
+        publish(cache, key, key, length);
+    }
+
+    private static void publish(DiskArtifactCache cache, String key, String contentDigest, int length)
+            throws Exception
+    {
+        ArtifactUtils.publish(cache.getContentFile(contentDigest, DiskArtifactCache.PROCESSED_FILE_SUFFIX),
+                new byte[length]);
+        cache.put(key, new ArtifactManifest.Entry("file:/" + key, 1000L, length, "digest", "1", "config",
+                contentDigest, length));
+    }
+
+    private static boolean isCached(DiskArtifactCache cache, String key)
+    {
+        return cache.getEntry(key) != null
+                && ArtifactUtils.isValid(cache.getFile(key, DiskArtifactCache.PROCESSED_FILE_SUFFIX));
+    }
+
+    private static void deleteRecursively(File file)
+    {
+        if (file.isDirectory())
+        {
+            for (File child : file.listFiles())
+            {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+}
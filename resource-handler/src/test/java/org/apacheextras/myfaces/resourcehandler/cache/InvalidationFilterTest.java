@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.cache;
+
+import com.google.common.base.Predicate;
+import org.apacheextras.myfaces.resourcehandler.ResourceId;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for InvalidationFilter.
+ *
+ * @author Jakob Korherr
+ */
+public class InvalidationFilterTest
+{
+
+    @Test
+    public void testApply_library() throws Exception
+    {
+        InvalidationFilter filter = new InvalidationFilter("my-library", null, null);
+
+        Assert.assertTrue(filter.apply(new ResourceId("a.css", "my-library", "de")));
+        Assert.assertTrue(filter.apply(new ResourceId("a.css", "/my-library/", null)));
+        Assert.assertFalse(filter.apply(new ResourceId("a.css", "other-library", "de")));
+    }
+
+    @Test
+    public void testApply_localePrefix_includesMoreSpecificAndUnknownLocales() throws Exception
+    {
+        InvalidationFilter filter = new InvalidationFilter(null, null, "de");
+
+        Assert.assertTrue(filter.apply(new ResourceId("a.css", "my-library", "de")));
+        Assert.assertTrue(filter.apply(new ResourceId("a.css", "my-library", "de_AT")));
+        Assert.assertTrue(filter.apply(new ResourceId("a.css", "my-library", null)));
+        Assert.assertFalse(filter.apply(new ResourceId("a.css", "my-library", "en")));
+        Assert.assertFalse(filter.apply(new ResourceId("a.css", "my-library", "dex")));
+    }
+
+    @Test
+    public void testArtifactKeyPredicate_resource() throws Exception
+    {
+        Predicate<String> predicate = new InvalidationFilter("my-library", "a.css", null).getArtifactKeyPredicate();
+
+        Assert.assertTrue(predicate.apply("my-library/a.css"));
+        Assert.assertTrue(predicate.apply("de/my-library/a.css"));
+        Assert.assertTrue(predicate.apply("my-library/a.css.de_AT"));
+        Assert.assertFalse(predicate.apply("my-library/b.css"));
+        Assert.assertFalse(predicate.apply("other-library/a.css"));
+    }
+
+    @Test
+    public void testArtifactKeyPredicate_localePrefix() throws Exception
+    {
+        Predicate<String> predicate = new InvalidationFilter(null, null, "de").getArtifactKeyPredicate();
+
+        Assert.assertTrue(predicate.apply("de/my-library/a.css"));
+        Assert.assertTrue(predicate.apply("de_AT/my-library/a.css"));
+        Assert.assertTrue(predicate.apply("my-library/a.css.de_AT"));
+        Assert.assertFalse(predicate.apply("my-library/a.css"));  // locale independent
+        Assert.assertFalse(predicate.apply("en/my-library/a.css"));
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.cache;
+
+import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
+import org.apacheextras.myfaces.resourcehandler.RelativeResource;
+import org.apacheextras.myfaces.resourcehandler.RelativeResourceImpl;
+import org.apacheextras.myfaces.resourcehandler.ResourceId;
+import org.apacheextras.myfaces.resourcehandler.config.Library;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Test class for RelativeResourceCache.
+ *
+ * @author Jakob Korherr
+ */
+@RunWith(JUnit4.class)
+public class RelativeResourceCacheTest extends AbstractJsfTestCase
+{
+
+    private final Library library = new Library("my-library");
+
+    @Test
+    public void testGet_tenantQuotaExceeded_otherPartitionsUnaffected() throws Exception
+    {
+        RelativeResourceCache cache = new RelativeResourceCache(10, 2);
+        put(cache, new ResourceId("shared.css", "my-library", null));
+        put(cache, new ResourceId("a.css", "my-library", null, "tenant-a"));
+        put(cache, new ResourceId("b.css", "my-library", null, "tenant-b"));
+
+        // the big tenant only evicts its own resources
+        for (int i = 0; i < 10; i++)
+        {
+            put(cache, new ResourceId(i + ".css", "my-library", null, "tenant-big"));
+        }
+
+        Assert.assertEquals(2L, cache.size("tenant-big"));
+        Assert.assertEquals(1L, cache.size("tenant-a"));
+        Assert.assertEquals(1L, cache.size("tenant-b"));
+        Assert.assertEquals(1L, cache.size(null));
+    }
+
+    @Test
+    public void testGet_sameResourceDifferentTenants_separateInstances() throws Exception
+    {
+        RelativeResourceCache cache = new RelativeResourceCache(10, 5);
+
+        RelativeResource resourceA = put(cache, new ResourceId("a.css", "my-library", null, "tenant-a"));
+        RelativeResource resourceB = put(cache, new ResourceId("a.css", "my-library", null, "tenant-b"));
+
+        Assert.assertNotSame(resourceA, resourceB);
+        Assert.assertSame(resourceA, put(cache, new ResourceId("a.css", "my-library", null, "tenant-a")));
+    }
+
+    @Test
+    public void testInvalidateAll_allPartitions() throws Exception
+    {
+        RelativeResourceCache cache = new RelativeResourceCache(10, 10);
+        put(cache, new ResourceId("a.css", "my-library", null));
+        put(cache, new ResourceId("a.css", "my-library", null, "tenant-a"));
+
+        Assert.assertEquals(2, cache.invalidateAll());
+        Assert.assertEquals(0L, cache.size(null));
+        Assert.assertEquals(0L, cache.size("tenant-a"));
+    }
+
+    @Test
+    public void testGet_moreTenantsThanPartitions_leastRecentlyActiveTenantDropped() throws Exception
+    {
+        // 10 / 5 = 2 tenant partitions
+        RelativeResourceCache cache = new RelativeResourceCache(10, 5);
+        put(cache, new ResourceId("a.css", "my-library", null, "tenant-a"));
+        put(cache, new ResourceId("b.css", "my-library", null, "tenant-b"));
+        put(cache, new ResourceId("a.css", "my-library", null, "tenant-a"));
+        put(cache, new ResourceId("c.css", "my-library", null, "tenant-c"));
+
+        Assert.assertEquals(1L, cache.size("tenant-a"));
+        Assert.assertEquals(0L, cache.size("tenant-b"));
+        Assert.assertEquals(1L, cache.size("tenant-c"));
+    }
+
+    @Test
+    public void testGetDefaultTenantCacheSize_derivedFromMaxCacheSize()
+    {
+        Assert.assertEquals(100, RelativeResourceCache.getDefaultTenantCacheSize(1000));
+        Assert.assertEquals(1, RelativeResourceCache.getDefaultTenantCacheSize(5));
+    }
+
+    // BEGIN: helper methods
+
+    private RelativeResource put(RelativeResourceCache cache, final ResourceId resourceId)
+    {
+        return cache.get(resourceId, new Callable<RelativeResource>()
+        {
+            public RelativeResource call() throws Exception
+            {
+                return new RelativeResourceImpl(resourceId.getResourceName(), library, null,
+                        resourceId.getRequestedLocalePrefix(), false, true, "1");
+            }
+        });
+    }
+
+}
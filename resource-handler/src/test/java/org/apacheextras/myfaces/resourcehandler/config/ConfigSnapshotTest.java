@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.config;
+
+import org.apacheextras.myfaces.resourcehandler.RelativeResourceHandler;
+import org.apacheextras.myfaces.resourcehandler.spi.RelativeResourceResolverProvider;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Test class for ConfigSnapshot.
+ *
+ * @author Jakob Korherr
+ */
+public class ConfigSnapshotTest
+{
+
+    private File directory;
+    private ClassLoader classLoader;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = File.createTempFile("config-snapshot", "");
+        directory.delete();
+        directory.mkdirs();
+
+        classLoader = new URLClassLoader(new URL[] { directory.toURI().toURL() },
+                ConfigSnapshotTest.class.getClassLoader());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        new File(directory, RelativeResourceHandler.CONFIG_FILE).delete();
+        new File(directory, RelativeResourceHandler.CONFIG_SNAPSHOT_FILE).delete();
+        new File(directory, "META-INF").delete();
+        directory.delete();
+    }
+
+    @Test
+    public void testLoad_upToDateSnapshotContainsParsedConfig() throws Exception
+    {
+        writeConfig("<url-version>2</url-version><libraries><library name=\"my-library\" /></libraries>");
+        ConfigSnapshot.create(classLoader).write(new File(directory, RelativeResourceHandler.CONFIG_SNAPSHOT_FILE));
+
+        ConfigSnapshot snapshot = ConfigSnapshot.load(classLoader);
+        Assert.assertNotNull(snapshot);
+        Assert.assertEquals("2", snapshot.getConfig().getUrlVersion());
+        Assert.assertTrue(snapshot.getConfig().isRelativeLibrary("my-library"));
+        Assert.assertTrue(snapshot.getServiceProviders(RelativeResourceResolverProvider.class, classLoader).isEmpty());
+    }
+
+    @Test
+    public void testLoad_changedConfigFileInvalidatesSnapshot() throws Exception
+    {
+        writeConfig("<libraries><library name=\"my-library\" /></libraries>");
+        ConfigSnapshot.create(classLoader).write(new File(directory, RelativeResourceHandler.CONFIG_SNAPSHOT_FILE));
+
+        writeConfig("<libraries><library name=\"other-library\" /></libraries>");
+
+        Assert.assertNull(ConfigSnapshot.load(classLoader));
+    }
+
+    @Test
+    public void testLoad_noSnapshot() throws Exception
+    {
+        writeConfig("<libraries><library name=\"my-library\" /></libraries>");
+
+        Assert.assertNull(ConfigSnapshot.load(classLoader));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMain_missingTargetFileFailsWithoutExitingTheJvm() throws Exception
+    {
+        ConfigSnapshot.main(new String[0]);
+    }
+
+    // BEGIN: helper methods
+
+    private void writeConfig(String content) throws IOException
+    {
+        File file = new File(directory, RelativeResourceHandler.CONFIG_FILE);
+        file.getParentFile().mkdirs();
+        OutputStream outputStream = new FileOutputStream(file);
+        try
+        {
+            outputStream.write(("<relative-resources "
+                    + "xmlns=\"http://code.google.com/a/apache-extras.org/p/relative-resource-handler\">"
+                    + content
+                    + "</relative-resources>").getBytes("UTF-8"));
+        }
+        finally
+        {
+            outputStream.close();
+        }
+    }
+
+}
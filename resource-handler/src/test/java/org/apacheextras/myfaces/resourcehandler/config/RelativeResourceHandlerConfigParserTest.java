@@ -0,0 +1,279 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.config;
+
+import org.apacheextras.myfaces.resourcehandler.provider.ClassPathResourceProvider;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Test class for RelativeResourceHandlerConfigParser.
+ *
+ * @author Jakob Korherr
+ */
+public class RelativeResourceHandlerConfigParserTest
+{
+
+    private File file;
+    private File otherFile;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        file = File.createTempFile("relative-resources", ".xml");
+        otherFile = File.createTempFile("relative-resources", ".xml");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        file.delete();
+        otherFile.delete();
+    }
+
+    @Test
+    public void testCacheControl_cachePolicyOfLibrary() throws Exception
+    {
+        RelativeResourceHandlerConfig config = parse(
+                "<library name=\"static\">"
+                + "<cache-control max-age=\"31536000\" immutable=\"true\" visibility=\"public\" "
+                + "stale-while-revalidate=\"60\" />"
+                + "</library>"
+                + "<library name=\"private\"><cache-control visibility=\"private\" /></library>"
+                + "<library name=\"default\" />");
+
+        CachePolicy cachePolicy = config.getLibrary("static").getCachePolicy();
+        Assert.assertEquals(Long.valueOf(31536000L), cachePolicy.getMaxAge());
+        Assert.assertTrue(cachePolicy.isImmutable());
+        Assert.assertEquals(CachePolicy.Visibility.PUBLIC, cachePolicy.getVisibility());
+        Assert.assertEquals(Long.valueOf(60L), cachePolicy.getStaleWhileRevalidate());
+        Assert.assertEquals("public, max-age=31536000, immutable, stale-while-revalidate=60",
+                cachePolicy.toHeaderValue(604800L));
+
+        // max-age defaults to the max expire time of the application
+        Assert.assertEquals("private, max-age=604800",
+                config.getLibrary("private").getCachePolicy().toHeaderValue(604800L));
+
+        Assert.assertNull(config.getLibrary("default").getCachePolicy());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCacheControl_negativeMaxAgeViolatesSchema() throws Exception
+    {
+        parse("<library name=\"static\"><cache-control max-age=\"-1\" /></library>");
+    }
+
+    @Test
+    public void testCompression_levelAndStrategy() throws Exception
+    {
+        RelativeResourceHandlerConfig config = parseContent(
+                "<compression level=\"9\" strategy=\"huffman-only\" exhaustive=\"true\" />");
+
+        CompressionConfig compressionConfig = config.getCompressionConfig();
+        Assert.assertEquals(Deflater.BEST_COMPRESSION, compressionConfig.getLevel());
+        Assert.assertEquals(CompressionConfig.Strategy.HUFFMAN_ONLY, compressionConfig.getStrategy());
+        Assert.assertTrue(compressionConfig.isExhaustive());
+    }
+
+    @Test
+    public void testCompression_defaultsToGzipOutputStreamSettings() throws Exception
+    {
+        Assert.assertSame(CompressionConfig.DEFAULT, parse("<library name=\"default\" />").getCompressionConfig());
+        Assert.assertEquals(CompressionConfig.DEFAULT.getSignature(),
+                parseContent("<compression />").getCompressionConfig().getSignature());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCompression_invalidLevelViolatesSchema() throws Exception
+    {
+        parseContent("<compression level=\"10\" />");
+    }
+
+    @Test
+    public void testParseUrls_configFilesMerged() throws Exception
+    {
+        write(file, "<url-version>2</url-version><libraries><library name=\"first\" /></libraries>");
+        write(otherFile, "<url-version>2</url-version><gzip-enabled>false</gzip-enabled>"
+                + "<libraries><library name=\"second\" /></libraries>");
+
+        RelativeResourceHandlerConfig config = new RelativeResourceHandlerConfig();
+        new RelativeResourceHandlerConfigParser().parseUrls(
+                Arrays.asList(file.toURI().toURL(), otherFile.toURI().toURL()), config);
+
+        Assert.assertTrue(config.isRelativeLibrary("first"));
+        Assert.assertTrue(config.isRelativeLibrary("second"));
+        Assert.assertEquals("2", config.getUrlVersion());
+        Assert.assertFalse(config.isGzipEnabled());
+    }
+
+    @Test
+    public void testParseUrls_allConflictsReportedAtOnce() throws Exception
+    {
+        write(file, "<url-version>1</url-version><libraries><library name=\"shared\" /></libraries>");
+        write(otherFile, "<url-version>2</url-version><libraries><library name=\"shared\" /></libraries>");
+
+        try
+        {
+            new RelativeResourceHandlerConfigParser().parseUrls(
+                    Arrays.asList(file.toURI().toURL(), otherFile.toURI().toURL()),
+                    new RelativeResourceHandlerConfig());
+            Assert.fail("IllegalArgumentException expected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            Assert.assertTrue(e.getMessage().startsWith("Found 2 conflict(s)"));
+            Assert.assertTrue(e.getMessage().contains(otherFile.toURI().toURL().toExternalForm()
+                    + ": Config already contains a library named shared"));
+            Assert.assertTrue(e.getMessage().contains("urlVersion has already been set to a different value."));
+        }
+    }
+
+    @Test
+    public void testLibraries_sortedByNameAndFoundWithOrWithoutSlashes() throws Exception
+    {
+        RelativeResourceHandlerConfig config = parse("<library name=\"styles\" /><library name=\"/admin/\" />"
+                + "<library name=\"scripts\" />");
+
+        Assert.assertSame(config.getLibrary("/admin/"), config.getLibraryByTrimmedName("admin"));
+        Assert.assertTrue(config.isRelativeLibraryByTrimmedName("scripts"));
+        Assert.assertFalse(config.isRelativeLibraryByTrimmedName("/scripts"));
+        Assert.assertNull(config.getLibraryByTrimmedName("unknown"));
+
+        StringBuilder names = new StringBuilder();
+        for (Library library : config.getLibraries())
+        {
+            names.append(library.getName()).append(' ');
+        }
+        Assert.assertEquals("admin scripts styles ", names.toString());
+    }
+
+    @Test
+    public void testFreeze_configAndLibrariesCannotBeModifiedAfterwards() throws Exception
+    {
+        final RelativeResourceHandlerConfig config = parse("<library name=\"styles\" />");
+        config.freeze();
+
+        assertFrozen(config, new Runnable()
+        {
+            public void run()
+            {
+                config.addLibrary(new Library("scripts"));
+            }
+        });
+        assertFrozen(config, new Runnable()
+        {
+            public void run()
+            {
+                config.setUrlVersion("2");
+            }
+        });
+        assertFrozen(config, new Runnable()
+        {
+            public void run()
+            {
+                config.setGzipEnabled(false);
+            }
+        });
+        assertFrozen(config, new Runnable()
+        {
+            public void run()
+            {
+                config.setLocaleSupportEnabled(false);
+            }
+        });
+        assertFrozen(config, new Runnable()
+        {
+            public void run()
+            {
+                config.setCompressionConfig(CompressionConfig.DEFAULT);
+            }
+        });
+        assertFrozen(config, new Runnable()
+        {
+            public void run()
+            {
+                config.getLibrary("styles").setResourceProvider(new ClassPathResourceProvider("META-INF/styles"));
+            }
+        });
+
+        Assert.assertEquals(1, config.getLibraries().size());
+        Assert.assertEquals(RelativeResourceHandlerConfig.URL_VERSION_DEFAULT, config.getUrlVersion());
+        Assert.assertTrue(config.isGzipEnabled());
+        Assert.assertNull(config.getLibrary("styles").getResourceProvider());
+    }
+
+    // BEGIN: helper methods
+
+    private RelativeResourceHandlerConfig parse(String libraries) throws IOException, XMLStreamException
+    {
+        return parseContent("<libraries>" + libraries + "</libraries>");
+    }
+
+    private RelativeResourceHandlerConfig parseContent(String content) throws IOException, XMLStreamException
+    {
+        write(file, content);
+
+        RelativeResourceHandlerConfig config = new RelativeResourceHandlerConfig();
+        new RelativeResourceHandlerConfigParser().parseUrl(file.toURI().toURL(), config);
+        return config;
+    }
+
+    private static void assertFrozen(RelativeResourceHandlerConfig config, Runnable modification)
+    {
+        Assert.assertTrue(config.isFrozen());
+        try
+        {
+            modification.run();
+            Assert.fail("IllegalStateException expected");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+
+    private static void write(File file, String content) throws IOException
+    {
+        OutputStream outputStream = new FileOutputStream(file);
+        try
+        {
+            outputStream.write(("<relative-resources "
+                    + "xmlns=\"http://code.google.com/a/apache-extras.org/p/relative-resource-handler\">"
+                    + content
+                    + "</relative-resources>").getBytes("UTF-8"));
+        }
+        finally
+        {
+            outputStream.close();
+        }
+    }
+
+}
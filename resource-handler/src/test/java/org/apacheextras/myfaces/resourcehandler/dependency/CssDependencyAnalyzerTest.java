@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.dependency;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Test class for CssDependencyAnalyzer and ResourceDependencyGraph.
+ *
+ * @author Jakob Korherr
+ */
+public class CssDependencyAnalyzerTest
+{
+
+    @Test
+    public void testGetDependencies_relativeReferencesInsideLibrary() throws Exception
+    {
+        String css = "@import \"base.css\";\n"
+                + "@import url('print.css') print;\n"
+                + "/* url(commented.png) */\n"
+                + ".a { background: url(images/a.png); }\n"
+                + ".b { background: url( \"../images/b.png\" ); }\n"
+                + ".c { background: url(images/a.png); }\n"
+                + "@font-face { src: url('../fonts/f.eot?#iefix'), url(../fonts/f.svg#icons); }\n";
+
+        Assert.assertEquals(Arrays.asList("widgets/base.css", "widgets/print.css", "widgets/images/a.png",
+                "images/b.png", "fonts/f.eot", "fonts/f.svg"),
+                CssDependencyAnalyzer.getDependencies("widgets/tree.css", css));
+    }
+
+    @Test
+    public void testGetDependencies_nonRelativeReferencesIgnored() throws Exception
+    {
+        String css = ".a { background: url(/context/a.png); }\n"
+                + ".b { background: url(http://cdn.example.com/b.png); }\n"
+                + ".c { background: url(data:image/png;base64,AAAA); }\n"
+                + ".d { background: url(\"#{resource['images:d.png']}\"); }\n"
+                + ".e { background: url(../../other-library/e.png); }\n"
+                + ".f { filter: url(#svg-filter); }\n";
+
+        Assert.assertEquals(Collections.<String>emptyList(),
+                CssDependencyAnalyzer.getDependencies("widgets/tree.css", css));
+    }
+
+    @Test
+    public void testTransitiveDependencies_cyclesTerminate() throws Exception
+    {
+        ResourceDependencyGraph graph = new ResourceDependencyGraph();
+        graph.setDependencies("my-library", "a.css", Arrays.asList("b.css", "a.png"));
+        graph.setDependencies("my-library", "b.css", Arrays.asList("a.css", "b.woff"));
+
+        Assert.assertEquals(Arrays.asList("b.css", "a.png", "b.woff"),
+                graph.getTransitiveDependencies("my-library", "a.css"));
+        Assert.assertEquals(Collections.<String>emptyList(),
+                graph.getTransitiveDependencies("other-library", "a.css"));
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.processor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for CssMinifier.
+ *
+ * @author Jakob Korherr
+ */
+public class CssMinifierTest
+{
+
+    private final CssMinifier minifier = new CssMinifier();
+
+    @Test
+    public void testProcess_removesCommentsAndWhitespace()
+    {
+        String css = "/* comment */\n"
+                + "a.link ,  a:visited {\n"
+                + "    color : red;\n"
+                + "    margin: 0 auto  1px;\n"
+                + "}\n"
+                + "ul > li { padding: 0; }\n";
+
+        Assert.assertEquals("a.link,a:visited{color :red;margin:0 auto 1px}ul>li{padding:0}",
+                minifier.process(css));
+    }
+
+    @Test
+    public void testProcess_keepsImportantCommentsAndStrings()
+    {
+        String css = "/*! license */\n"
+                + "a { content: \"  /* no comment */  \"; font-family: 'My  Font'; }";
+
+        Assert.assertEquals("/*! license */ a{content:\"  /* no comment */  \";font-family:'My  Font'}",
+                minifier.process(css));
+    }
+
+    @Test
+    public void testProcess_keepsSignificantWhitespace()
+    {
+        Assert.assertEquals("div :hover{width:calc(100% - 2px)}",
+                minifier.process("div :hover {\n  width: calc( 100%  -  2px );\n}"));
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.processor;
+
+import org.apacheextras.myfaces.resourcehandler.config.CompressionConfig;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Test class for GzipProcessor.
+ *
+ * @author Jakob Korherr
+ */
+public class GzipProcessorTest
+{
+
+    @Test
+    public void testProcess_levelIsApplied() throws Exception
+    {
+        byte[] content = createContent();
+
+        byte[] stored = compress(new CompressionConfig(Deflater.NO_COMPRESSION, null, false), content);
+        byte[] best = compress(new CompressionConfig(Deflater.BEST_COMPRESSION, null, false), content);
+
+        Assert.assertTrue(stored.length > content.length);
+        Assert.assertTrue(best.length < content.length / 4);
+        Assert.assertArrayEquals(content, decompress(stored));
+        Assert.assertArrayEquals(content, decompress(best));
+    }
+
+    @Test
+    public void testProcess_exhaustiveKeepsSmallestOutput() throws Exception
+    {
+        byte[] content = createContent();
+
+        byte[] exhaustive = compress(
+                new CompressionConfig(Deflater.DEFAULT_COMPRESSION, CompressionConfig.Strategy.HUFFMAN_ONLY, true),
+                content);
+
+        Assert.assertArrayEquals(content, decompress(exhaustive));
+        for (CompressionConfig.Strategy strategy : CompressionConfig.Strategy.values())
+        {
+            byte[] single = compress(new CompressionConfig(Deflater.BEST_COMPRESSION, strategy, false), content);
+            Assert.assertTrue(exhaustive.length <= single.length);
+        }
+    }
+
+    // BEGIN: helper methods
+
+    private byte[] createContent()
+    {
+        StringBuilder css = new StringBuilder();
+        for (int i = 0; i < 500; i++)
+        {
+            css.append(".item-").append(i).append(" { margin: ").append(i % 7).append("px; color: #333; }\n");
+        }
+        return css.toString().getBytes();
+    }
+
+    private byte[] compress(CompressionConfig compressionConfig, byte[] content) throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new GzipProcessor(compressionConfig).process(null, null, new ByteArrayInputStream(content), outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private byte[] decompress(byte[] compressed) throws IOException
+    {
+        GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[2048];
+        int length;
+        while ((length = inputStream.read(buffer)) >= 0)
+        {
+            outputStream.write(buffer, 0, length);
+        }
+        return outputStream.toByteArray();
+    }
+
+}
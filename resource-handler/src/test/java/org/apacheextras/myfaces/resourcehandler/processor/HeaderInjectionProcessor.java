@@ -0,0 +1,53 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.processor;
+
+import org.apacheextras.myfaces.resourcehandler.RelativeResource;
+
+/**
+ * ResourceProcessor SPI implementation for the tests, which prepends a comment to css files.
+ *
+ * @author Jakob Korherr
+ */
+public class HeaderInjectionProcessor extends TextResourceProcessor
+{
+
+    public static final String NAME = "header-injection";
+
+    public static final String HEADER = "/*! injected header */\n";
+
+    public String getName()
+    {
+        return NAME;
+    }
+
+    public boolean isApplicable(RelativeResource resource)
+    {
+        return resource.getResourceName().endsWith(".css");
+    }
+
+    @Override
+    public String process(String content)
+    {
+        return HEADER + content;
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.processor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for JsMinifier.
+ *
+ * @author Jakob Korherr
+ */
+public class JsMinifierTest
+{
+
+    private final JsMinifier minifier = new JsMinifier();
+
+    @Test
+    public void testProcess_removesCommentsAndIndentation()
+    {
+        String js = "// line comment\n"
+                + "function  foo(a,  b)\n"
+                + "{\n"
+                + "    /* block\n"
+                + "       comment */\n"
+                + "    return a + b;   // trailing comment\n"
+                + "\n"
+                + "}\n";
+
+        Assert.assertEquals("function foo(a, b)\n{\nreturn a + b;\n}\n", minifier.process(js));
+    }
+
+    @Test
+    public void testProcess_keepsImportantCommentsStringsAndTemplateLiterals()
+    {
+        String js = "/*! license */\n"
+                + "var s = \"  // no comment  \";\n"
+                + "var t = `multi\n    line  /* text */`;\n";
+
+        Assert.assertEquals("/*! license */\nvar s = \"  // no comment  \";\nvar t = `multi\n    line  /* text */`;\n",
+                minifier.process(js));
+    }
+
+    @Test
+    public void testProcess_keepsRegexLiterals()
+    {
+        Assert.assertEquals("var r = /\\/*  [/]  /g;\nreturn /a  b/.test(s);",
+                minifier.process("var r = /\\/*  [/]  /g;\n    return /a  b/.test(s);"));
+
+        // a division is not a regex literal
+        Assert.assertEquals("var x = a / b;", minifier.process("var x = a  /  b;  // divide"));
+    }
+
+}
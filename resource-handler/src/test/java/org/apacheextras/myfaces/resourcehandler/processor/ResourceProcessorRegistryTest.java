@@ -0,0 +1,58 @@
+/*
+ * Copyright 2012, Jakob Korherr
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apacheextras.myfaces.resourcehandler.processor;
+
+import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test class for ResourceProcessorRegistry.
+ *
+ * @author Jakob Korherr
+ */
+@RunWith(JUnit4.class)
+public class ResourceProcessorRegistryTest extends AbstractJsfTestCase
+{
+
+    @Test
+    public void testGetInstance_keptInApplicationMap()
+    {
+        ResourceProcessorRegistry registry = ResourceProcessorRegistry.getInstance(facesContext);
+
+        Assert.assertSame(registry, ResourceProcessorRegistry.getInstance(facesContext));
+        Assert.assertSame(registry, externalContext.getApplicationMap().get(ResourceProcessorRegistry.class.getName()));
+    }
+
+    @Test
+    public void testGetProcessor_builtInAndSpiProcessors()
+    {
+        ResourceProcessorRegistry registry = ResourceProcessorRegistry.getInstance(facesContext);
+
+        Assert.assertTrue(registry.getProcessor(CssMinifier.NAME) instanceof CssMinifier);
+        Assert.assertTrue(registry.getProcessor(JsMinifier.NAME) instanceof JsMinifier);
+        Assert.assertTrue(registry.getProcessor(HeaderInjectionProcessor.NAME) instanceof HeaderInjectionProcessor);
+        Assert.assertNull(registry.getProcessor("unknown"));
+    }
+
+}